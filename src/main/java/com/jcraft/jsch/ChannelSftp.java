@@ -40,11 +40,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class ChannelSftp extends ChannelSession{
 
@@ -148,10 +156,14 @@ public class ChannelSftp extends ChannelSession{
       operation).
 	 */
 	private static final int MAX_MSG_LENGTH = 256* 1024;
+	// tonyb: see setMaxMessageLength
+	private int maxMsgLength=MAX_MSG_LENGTH;
 
 	public static final int OVERWRITE=0;
 	public static final int RESUME=1;
 	public static final int APPEND=2;
+	// tonyb: write at the given offset without truncating or looking at the size (see putAt)
+	public static final int AT_OFFSET=3;
 
 	@SuppressWarnings("unused")
 	private boolean interactive=false;
@@ -245,9 +257,15 @@ public class ChannelSftp extends ChannelSession{
 	public void start() throws JSchException{
 		try{
 
-			PipedOutputStream pos=new PipedOutputStream();
+			// tonyb: the pipe grows up to the local window.  The window does not bound it, the session 
+			// sends WINDOW_ADJUST when data arrives (not when it is read).  What bounds it is the replies 
+			// to the requests in flight: the streams from get keep their READs within the window and the 
+			// dispatcher drains a multiplexed channel as replies arrive.  A caller with more than a window 
+			// of replies outstanding that does not read them still blocks the session thread (and every 
+			// channel on it) once the pipe is full.
+			MyPipedInputStream pis=new MyPipedInputStream(rmpsize, Math.max(rmpsize, lwsize_max));
+			PipedOutputStream pos=new PassiveOutputStream(pis, true);
 			io.setOutputStream(pos);
-			PipedInputStream pis=new MyPipedInputStream(pos, rmpsize);
 			io.setInputStream(pis);
 
 			io_in=io.in;
@@ -281,7 +299,7 @@ public class ChannelSftp extends ChannelSession{
 			Header header=new Header();
 			header=header(buf, header);
 			length=header.length;
-			if(length > MAX_MSG_LENGTH){
+			if(length > maxMsgLength){
 				throw new SftpException(SSH_FX_FAILURE, 
 						"Received message is too long: " + length);
 			}
@@ -1219,6 +1237,8 @@ public class ChannelSftp extends ChannelSession{
 			int id;
 			long offset;
 			long length;
+			// tonyb: System.nanoTime() when the request was sent (adaptive read-ahead)
+			long sent;
 		}
 
 		Request[] rrq=null;
@@ -1242,6 +1262,7 @@ public class ChannelSftp extends ChannelSession{
 			rrq[tail].id=id;
 			rrq[tail].offset=offset;
 			rrq[tail].length=length;
+			rrq[tail].sent=System.nanoTime();
 			count++;
 		}
 
@@ -3192,6 +3213,416 @@ public class ChannelSftp extends ChannelSession{
 	}
 	
 	
+	/*
+	 * Directory reads one SSH_FXP_NAME batch at a time so a caller can stream a large directory 
+	 * and stop whenever it likes (openDir, readDir until null, closeDir).
+	 */
+
+	/**
+	 * Send SSH_FXP_OPENDIR 
+	 * @param path
+	 * @return the directory handle
+	 * @throws SftpException
+	 */
+	public byte[] openDir(String path) throws SftpException {
+		try{
+			((MyPipedInputStream)io_in).updateReadSide();
+			byte[] p=Util.str2byte(remoteAbsolutePath(path), fEncoding);
+			sendOPENDIR(p);
+			return parseHandle(readReply());
+		}
+		catch(Exception e){
+			if(e instanceof SftpException) throw (SftpException)e;
+			throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+		}
+	}
+
+	/**
+	 * Send SSH_FXP_READDIR 
+	 * @param handle from openDir
+	 * @return the next batch of entries ("." and ".." included) or null at the end of the directory.
+	 * @throws SftpException
+	 */
+	public List<LsEntry> readDir(byte[] handle) throws SftpException {
+		try{
+			sendREADDIR(handle);
+			return parseNames(readReply());
+		}
+		catch(Exception e){
+			if(e instanceof SftpException) throw (SftpException)e;
+			throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+		}
+	}
+
+	public void closeDir(byte[] handle) throws SftpException {
+		try{
+			_sendCLOSE(handle, new Header());
+		}
+		catch(Exception e){
+			if(e instanceof SftpException) throw (SftpException)e;
+			throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+		}
+	}
+
+	/**
+	 * List the directory path keeping up to depth SSH_FXP_READDIR requests outstanding on the handle
+	 * instead of waiting for each batch before asking for the next.  
+	 * Entries are passed to selector in the order the server returned them ("." and ".." included),
+	 * the listing stops at EOF or when the selector returns LsEntrySelector.BREAK.
+	 * 
+	 * @param path must be a directory, patterns are not expanded
+	 * @param depth number of READDIR requests in flight (1 is the same as ls)
+	 * @param selector
+	 * @throws SftpException
+	 */
+	public void lsDir(String path, int depth, LsEntrySelector selector) throws SftpException {
+		if(depth<1){
+			depth=1;
+		}
+		try{
+			byte[] handle=openDir(path);
+
+			// replies are used in request order, anything that arrives early waits here
+			Map<Integer, Reply> early=new HashMap<>();
+			ArrayDeque<Integer> outstanding=new ArrayDeque<>();
+			boolean done=false;
+			SftpException error=null;
+			Header header=new Header();
+
+			while(true){
+				while(!done && outstanding.size()<depth){
+					outstanding.addLast(seq);
+					sendREADDIR(handle);
+				}
+				if(outstanding.isEmpty()){
+					break;
+				}
+				int want=outstanding.removeFirst();
+				Reply reply=early.remove(want);
+				while(reply==null){
+					Reply r=readReply(header);
+					if(header.rid==want){
+						reply=r;
+					}
+					else{
+						early.put(header.rid, r);
+					}
+				}
+				if(done){
+					// draining the requests sent before EOF / BREAK / error
+					continue;
+				}
+				try{
+					List<LsEntry> list=parseNames(reply);
+					if(list==null){
+						done=true;
+					}
+					else{
+						for(LsEntry e : list){
+							if(selector.select(e)==LsEntrySelector.BREAK){
+								done=true;
+								break;
+							}
+						}
+					}
+				}
+				catch(SftpException e){
+					error=e;
+					done=true;
+				}
+			}
+
+			_sendCLOSE(handle, header);
+			if(error!=null){
+				throw error;
+			}
+		}
+		catch(Exception e){
+			if(e instanceof SftpException) throw (SftpException)e;
+			throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+		}
+	}
+
+	/**
+	 * Open dst (created if needed) for writing at offset. The file is never truncated so 
+	 * several channels can each write their own range of the same file.
+	 * 
+	 * @param dst
+	 * @param offset
+	 * @return output stream, which accepts data to be written at offset.
+	 * @throws SftpException
+	 */
+	public OutputStream putAt(String dst, long offset) throws SftpException{
+		return put(dst, null, AT_OFFSET, offset);
+	}
+
+	// size of each READ sent by get(src, monitor, skip), 0 means as much as fits the local packet  
+	private int readRequestSize=0;
+	private boolean adaptiveReadAhead=false;
+
+	/**
+	 * Configure the read-ahead of the streams returned by get(src, monitor, skip).
+	 * 
+	 * @param depth maximum number of READ requests in flight (see setBulkRequests)
+	 * @param requestSize bytes asked for by each READ, 0 for the default (local packet size). 
+	 * 	Servers cap this (OpenSSH at 255K), a short reply makes the stream use the server's size.
+	 * @param adaptive grow the number of requests in flight only while the round trip time 
+	 * 	does not increase and fall back to the measured bandwidth delay product when it does.
+	 * 	Otherwise the stream ramps up to depth.
+	 * @throws JSchException
+	 */
+	public void setReadAhead(int depth, int requestSize, boolean adaptive) throws JSchException {
+		if(requestSize<0){
+			throw new JSchException("setReadAhead: requestSize "+requestSize+" can't be negative.");
+		}
+		if(requestSize+13>maxMsgLength){
+			throw new JSchException("setReadAhead: requestSize "+requestSize+
+					" does not fit the maximum message length "+maxMsgLength+".");
+		}
+		if(depth!=rq.size()){
+			setBulkRequests(depth);
+		}
+		readRequestSize=requestSize;
+		adaptiveReadAhead=adaptive;
+	}
+
+	public int getReadRequestSize(){
+		return readRequestSize;
+	}
+
+	public boolean isAdaptiveReadAhead(){
+		return adaptiveReadAhead;
+	}
+
+	/**
+	 * Sizes the read-ahead of one stream to the bandwidth delay product.
+	 * 
+	 * The lowest round trip time seen is the latency of the path. While replies come back 
+	 * in about that time nothing is queued so one more request is added (doubles the window 
+	 * each round trip).  When the round trip time grows to twice that the extra requests are 
+	 * only waiting in buffers, the window drops to throughput * latency.
+	 */
+	static class ReadAheadWindow {
+		private long minRtt=Long.MAX_VALUE;
+		private long bytes=0;
+		private long since=System.nanoTime();
+		// bytes per ns, measured about once per round trip
+		private double rate=0;
+
+		int next(long rtt, int got, int requestLen, int current, int max){
+			long now=System.nanoTime();
+			if(rtt>0 && rtt<minRtt){
+				minRtt=rtt;
+			}
+			bytes+=got;
+			long elapsed=now-since;
+			if(elapsed>0 && elapsed>=minRtt){
+				rate=bytes/(double)elapsed;
+				bytes=0;
+				since=now;
+			}
+			int ret=current;
+			if(rtt<=minRtt+minRtt/4){
+				ret=current+1;
+			}
+			else if(rtt>=2*minRtt && rate>0){
+				ret=(int)Math.ceil(rate*minRtt/requestLen)+1;
+			}
+			return Math.max(1, Math.min(max, ret));
+		}
+	}
+
+	// largest SSH packet accepted by JSch and OpenSSH, the payload must leave room for the headers
+	public static final int MAX_PACKET_SIZE=256*1024;
+	public static final int MAX_LOCAL_PACKET_SIZE=MAX_PACKET_SIZE-1024;
+	public static final int MAX_LOCAL_WINDOW_SIZE=256*1024*1024;
+
+	/**
+	 * Set the SSH channel packet and window sizes. Must be called before connect, 
+	 * the sizes are sent to the server when the channel is opened. 
+	 * The input pipe grows up to the window size.
+	 * 
+	 * @param packetSize largest channel data packet the server may send (default 32K)
+	 * @param windowSize bytes the server may send before waiting for an adjust (default 2M)
+	 * @throws JSchException if the channel is connected or a size is out of range
+	 */
+	public void setPacketSizes(int packetSize, int windowSize) throws JSchException {
+		if(isConnected()){
+			throw new JSchException("setPacketSizes: the channel is already connected.");
+		}
+		if(packetSize<LOCAL_MAXIMUM_PACKET_SIZE || packetSize>MAX_LOCAL_PACKET_SIZE){
+			throw new JSchException("setPacketSizes: packetSize "+packetSize+" must be between "+
+					LOCAL_MAXIMUM_PACKET_SIZE+" and "+MAX_LOCAL_PACKET_SIZE+".");
+		}
+		if(windowSize<packetSize || windowSize>MAX_LOCAL_WINDOW_SIZE){
+			throw new JSchException("setPacketSizes: windowSize "+windowSize+" must be between "+
+					packetSize+" and "+MAX_LOCAL_WINDOW_SIZE+".");
+		}
+		setLocalWindowSizeMax(windowSize);
+		setLocalWindowSize(windowSize);
+		setLocalPacketSize(packetSize);
+	}
+
+	public int getLocalPacketSize(){
+		return lmpsize;
+	}
+
+	public int getLocalWindowSize(){
+		return lwsize_max;
+	}
+
+	/**
+	 * @return the largest packet the server accepts from us (known once connected)
+	 */
+	public int getRemotePacketSize(){
+		return rmpsize;
+	}
+
+	/**
+	 * Largest sftp message accepted from the server (default 256K), replies that are larger are 
+	 * treated as a protocol error.  Must hold a READ reply of the read-ahead request size. 
+	 * 
+	 * @param length
+	 * @throws JSchException
+	 */
+	public void setMaxMessageLength(int length) throws JSchException {
+		if(length<LOCAL_MAXIMUM_PACKET_SIZE){
+			throw new JSchException("setMaxMessageLength: "+length+" must be at least "+LOCAL_MAXIMUM_PACKET_SIZE+".");
+		}
+		if(readRequestSize+13>length){
+			throw new JSchException("setMaxMessageLength: "+length+
+					" can't hold a reply to the read request size "+readRequestSize+".");
+		}
+		maxMsgLength=length;
+	}
+
+	public int getMaxMessageLength(){
+		return maxMsgLength;
+	}
+
+	private long[] serverLimits;
+
+	/**
+	 * The limits the server reports with the limits@openssh.com extension.
+	 * 
+	 * @return {max-packet-length, max-read-length, max-write-length, max-open-handles} (0 means no limit) 
+	 * 	or null if the server doesn't support the extension.
+	 * @throws SftpException
+	 */
+	public synchronized long[] getServerLimits() throws SftpException {
+		if(serverLimits!=null || !"1".equals(getExtension("limits@openssh.com"))){
+			return serverLimits;
+		}
+		try{
+			((MyPipedInputStream)io_in).updateReadSide();
+			byte[] ext=Util.str2byte("limits@openssh.com");
+			packet.reset();
+			int len=9+ext.length;
+			putHEAD(SSH_FXP_EXTENDED, len);
+			buf.putInt(seq++);
+			buf.putString(ext);
+			getSession().write(packet, this, len+4);
+
+			Reply reply=readReply();
+			if(reply.type!=(SSH_FXP_EXTENDED_REPLY&0xff)){
+				if(reply.type==SSH_FXP_STATUS){
+					int i=reply.buf.getInt();
+					throwStatusError(reply.buf, i);
+				}
+				throw new SftpException(SSH_FX_FAILURE, "");
+			}
+			long[] ret=new long[4];
+			for(int i=0; i<ret.length; i++){
+				ret[i]=reply.buf.getLong();
+			}
+			serverLimits=ret;
+			return ret;
+		}
+		catch(Exception e){
+			if(e instanceof SftpException) throw (SftpException)e;
+			throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+		}
+	}
+
+	public boolean isUsersGroupsByIdSupported(){
+		return "1".equals(getExtension("users-groups-by-id@openssh.com"));
+	}
+
+	/**
+	 * Resolve uids and gids to names with the users-groups-by-id@openssh.com extension.
+	 *  
+	 * @param uids
+	 * @param gids
+	 * @return [0] the user names for uids, [1] the group names for gids. A name the server can't resolve is "".
+	 * @throws SftpException
+	 */
+	public String[][] usersGroupsById(int[] uids, int[] gids) throws SftpException {
+		if(!isUsersGroupsByIdSupported()){
+			throw new SftpException(SSH_FX_OP_UNSUPPORTED, 
+					"users-groups-by-id@openssh.com is not supported");
+		}
+		try{
+			((MyPipedInputStream)io_in).updateReadSide();
+			sendPacketPath((byte)0, packIds(uids), packIds(gids), "users-groups-by-id@openssh.com");
+			Reply reply=readReply();
+			if(reply.type!=(SSH_FXP_EXTENDED_REPLY&0xff)){
+				if(reply.type==SSH_FXP_STATUS){
+					int i=reply.buf.getInt();
+					throwStatusError(reply.buf, i);
+				}
+				throw new SftpException(SSH_FX_FAILURE, "");
+			}
+			String[][] ret=new String[2][];
+			ret[0]=unpackNames(reply.buf.getString(), uids.length);
+			ret[1]=unpackNames(reply.buf.getString(), gids.length);
+			return ret;
+		}
+		catch(Exception e){
+			if(e instanceof SftpException) throw (SftpException)e;
+			throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+		}
+	}
+
+	private static byte[] packIds(int[] ids){
+		byte[] ret=new byte[ids.length*4];
+		for(int i=0; i<ids.length; i++){
+			ret[i*4]=(byte)(ids[i]>>>24);
+			ret[i*4+1]=(byte)(ids[i]>>>16);
+			ret[i*4+2]=(byte)(ids[i]>>>8);
+			ret[i*4+3]=(byte)(ids[i]);
+		}
+		return ret;
+	}
+
+	private String[] unpackNames(byte[] data, int count){
+		Buffer b=new Buffer(data);
+		b.index=data.length;
+		String[] ret=new String[count];
+		for(int i=0; i<count; i++){
+			ret[i]=Util.byte2str(b.getString(), fEncoding);
+		}
+		return ret;
+	}
+
+	/**
+	 * Read one complete reply off the channel
+	 */
+	private Reply readReply() throws IOException {
+		return readReply(new Header());
+	}
+
+	private Reply readReply(Header header) throws IOException {
+		header=header(buf, header);
+		if(header.length<0 || header.length>maxMsgLength){
+			throw new IOException("Received message is too long: " + header.length);
+		}
+		byte[] data=new byte[header.length];
+		fill(data, 0, data.length);
+		Buffer b=new Buffer(data);
+		b.index=data.length;
+		return new Reply(header.type, b);
+	}
+
 	//********************** end tonyb
 	public InputStream get(String src, final SftpProgressMonitor monitor, final long skip) throws SftpException{
 	
@@ -3238,6 +3669,15 @@ public class ChannelSftp extends ChannelSession{
 				Header header=new Header();
 				int request_max=1;
 				long request_offset=offset;
+				// tonyb: request size and window are configurable (setReadAhead)
+				int request_len=server_version==0 ? 1024 
+						: (readRequestSize>0 ? readRequestSize : buf.buffer.length-13);
+				ReadAheadWindow window=adaptiveReadAhead ? new ReadAheadWindow() : null;
+
+				// tonyb: the replies in flight must fit the pipe (the local window), see start()
+				int maxRequests(){
+					return Math.max(1, Math.min(rq.size(), lwsize_max/(request_len+13)));
+				}
 	
 				public int read() throws java.io.IOException{
 					if(closed)return -1;
@@ -3279,21 +3719,15 @@ public class ChannelSftp extends ChannelSession{
 						return foo;
 					}
 	
-					if(buf.buffer.length-13<len){
-						len=buf.buffer.length-13;
-					}
-					if(server_version==0 && len>1024){
-						len=1024; 
+					if(request_len<len){
+						len=request_len;
 					}
 	
 					if(rq.count()==0
 							|| true // working around slow transfer speed for
 							// some sftp servers including Titan FTP.
 							) {
-						int request_len = buf.buffer.length-13;
-						if(server_version==0){ request_len=1024; }
-	
-						while(rq.count() < request_max){
+						while(rq.count() < Math.min(request_max, maxRequests())){
 							try{
 								sendREAD(handle, request_offset, request_len, rq);
 							}
@@ -3385,6 +3819,10 @@ public class ChannelSftp extends ChannelSession{
 						}
 	
 						if(length_of_data<rr.length){  //
+							// tonyb: the server caps the read size, stop asking for more
+							if(length_of_data>=1024 && length_of_data<request_len){
+								request_len=length_of_data;
+							}
 							rq.cancel(header, buf);
 							try {
 								sendREAD(handle,
@@ -3395,7 +3833,11 @@ public class ChannelSftp extends ChannelSession{
 							request_offset=rr.offset+rr.length;
 						}
 	
-						if(request_max < rq.size()){
+						if(window!=null){
+							request_max=window.next(System.nanoTime()-rr.sent, length_of_data, 
+									request_len, request_max, maxRequests());
+						}
+						else if(request_max < maxRequests()){
 							request_max++;
 						}
 	
@@ -3430,6 +3872,538 @@ public class ChannelSftp extends ChannelSession{
 	}
 
 
+	//********************** Start  tonyb multiplexed requests
+	/*
+	 * The methods above read each reply straight off io_in so only one request
+	 * can be in flight and a channel can't be shared between threads.
+	 * 
+	 * Once startDispatcher() is called a reader thread owns io_in and routes each reply 
+	 * to the request that is waiting for it (by request id).  Any number of threads can then 
+	 * keep requests outstanding on the same channel using the *Async methods below.
+	 * 
+	 * NOTE: After the dispatcher is started only the *Async methods may be used on this channel.
+	 */
+
+	private static class Reply {
+		final int type;
+		final Buffer buf;
+		Reply(int type, Buffer buf){
+			this.type=type;
+			this.buf=buf;
+		}
+	}
+
+	private interface RequestSender {
+		void send() throws Exception;
+	}
+
+	private interface ReplyParser<T> {
+		T parse(Reply reply) throws Exception;
+	}
+
+	private class Dispatcher implements Runnable {
+		private final Map<Integer, CompletableFuture<Reply>> pending = new ConcurrentHashMap<>();
+		private final Executor executor;
+		private volatile SftpException failure = null;
+
+		Dispatcher(Executor executor){
+			this.executor=executor;
+		}
+
+		/**
+		 * Register the next request id and send the request. 
+		 * The id is registered before the request is sent so the reply can't get here first.
+		 */
+		CompletableFuture<Reply> send(RequestSender sender) {
+			CompletableFuture<Reply> ret = new CompletableFuture<>();
+			synchronized (sendLock) {
+				if( failure != null ) {
+					ret.completeExceptionally(failure);
+					return ret;
+				}
+				int id = seq;
+				pending.put(id, ret);
+				try {
+					sender.send();
+				} catch (Exception e) {
+					pending.remove(id);
+					ret.completeExceptionally(e);
+				}
+			}
+			return ret;
+		}
+
+		int getPendingCount(){
+			return pending.size();
+		}
+
+		public void run(){
+			Buffer rbuf=new Buffer(16);
+			Header header=new Header();
+			try{
+				((MyPipedInputStream)io_in).updateReadSide();
+				while(true){
+					header=header(rbuf, header);
+					if(header.length<0 || header.length>maxMsgLength){
+						throw new IOException("Received message is too long: " + header.length);
+					}
+					byte[] data=new byte[header.length];
+					fill(data, 0, data.length);
+					Buffer b=new Buffer(data);
+					b.index=data.length;
+					final CompletableFuture<Reply> f = pending.remove(header.rid);
+					if(f!=null){
+						final Reply reply=new Reply(header.type, b);
+						// never run the callers code on the reader thread
+						executor.execute(() -> f.complete(reply));
+					}
+				}
+			}
+			catch(Exception e){
+				fail(e);
+			}
+		}
+
+		private void fail(Exception e){
+			synchronized (sendLock) {
+				failure = new SftpException(SSH_FX_CONNECTION_LOST, "Dispatcher stopped: "+e, e);
+			}
+			for(Integer id : new ArrayList<>(pending.keySet())){
+				CompletableFuture<Reply> f = pending.remove(id);
+				if(f!=null){
+					f.completeExceptionally(failure);
+				}
+			}
+		}
+	}
+
+	private final Object sendLock = new Object();
+	private volatile Dispatcher dispatcher = null;
+
+	/**
+	 * Start routing replies by request id so this channel can be shared by many threads.
+	 * Replies are handed to the callers on the common fork / join pool.
+	 * 
+	 * @throws SftpException
+	 */
+	public void startDispatcher() throws SftpException{
+		startDispatcher(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Start routing replies by request id so this channel can be shared by many threads.
+	 * 
+	 * @param executor used to complete the futures returned by the *Async methods.
+	 * @throws SftpException
+	 */
+	public synchronized void startDispatcher(Executor executor) throws SftpException{
+		if(dispatcher!=null){
+			return;
+		}
+		if(!isConnected()){
+			throw new SftpException(SSH_FX_NO_CONNECTION, "The channel is not connected.");
+		}
+		// resolve the working directory now, it can't be done once the reader owns the stream
+		getCwd();
+		dispatcher=new Dispatcher(executor);
+		Thread t=new Thread(dispatcher, "sftp-dispatcher-"+getId());
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public boolean isDispatcherRunning(){
+		Dispatcher d=dispatcher;
+		return d!=null && d.failure==null;
+	}
+
+	/**
+	 * @return the number of requests that have been sent and not answered.
+	 */
+	public int getPendingRequestCount(){
+		Dispatcher d=dispatcher;
+		return d==null ? 0 : d.getPendingCount();
+	}
+
+	/**
+	 * Wait for an async request and unwrap the exception.
+	 * 
+	 * @param future
+	 * @return the result
+	 * @throws SftpException
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws SftpException{
+		try{
+			return future.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SftpException(SSH_FX_FAILURE, "interrupted", e);
+		}
+		catch(ExecutionException e){
+			Throwable t=e.getCause();
+			if(t instanceof SftpException) throw (SftpException)t;
+			throw new SftpException(SSH_FX_FAILURE, t.toString(), t);
+		}
+	}
+
+	private <T> CompletableFuture<T> request(RequestSender sender, ReplyParser<T> parser){
+		final CompletableFuture<T> ret=new CompletableFuture<>();
+		Dispatcher d=dispatcher;
+		if(d==null){
+			ret.completeExceptionally(new SftpException(SSH_FX_FAILURE, "The dispatcher is not running"));
+			return ret;
+		}
+		d.send(sender).whenComplete((reply, err) -> {
+			if(err!=null){
+				ret.completeExceptionally(err);
+			}
+			else {
+				try{
+					ret.complete(parser.parse(reply));
+				}
+				catch(Exception e){
+					ret.completeExceptionally(e);
+				}
+			}
+		});
+		return ret;
+	}
+
+	private <T> CompletableFuture<T> failed(Exception e){
+		CompletableFuture<T> ret=new CompletableFuture<>();
+		ret.completeExceptionally(e);
+		return ret;
+	}
+
+	private byte[] asyncPath(String path) throws SftpException{
+		return Util.str2byte(remoteAbsolutePath(path), fEncoding);
+	}
+
+	private Void parseStatus(Reply reply) throws SftpException{
+		if(reply.type!=SSH_FXP_STATUS){
+			throw new SftpException(SSH_FX_FAILURE, "");
+		}
+		int i=reply.buf.getInt();
+		if(i!=SSH_FX_OK){
+			throwStatusError(reply.buf, i);
+		}
+		return null;
+	}
+
+	private SftpATTRS parseAttrs(Reply reply) throws SftpException{
+		if(reply.type!=SSH_FXP_ATTRS){
+			if(reply.type==SSH_FXP_STATUS){
+				int i=reply.buf.getInt();
+				throwStatusError(reply.buf, i);
+			}
+			throw new SftpException(SSH_FX_FAILURE, "");
+		}
+		return SftpATTRS.getATTR(reply.buf);
+	}
+
+	private byte[] parseHandle(Reply reply) throws SftpException{
+		if(reply.type!=SSH_FXP_HANDLE){
+			if(reply.type==SSH_FXP_STATUS){
+				int i=reply.buf.getInt();
+				throwStatusError(reply.buf, i);
+			}
+			throw new SftpException(SSH_FX_FAILURE, "");
+		}
+		return reply.buf.getString();
+	}
+
+	/**
+	 * @return the entries in a SSH_FXP_NAME reply or null at end of file
+	 */
+	private List<LsEntry> parseNames(Reply reply) throws SftpException{
+		if(reply.type!=SSH_FXP_NAME){
+			if(reply.type==SSH_FXP_STATUS){
+				int i=reply.buf.getInt();
+				if(i==SSH_FX_EOF){
+					return null;
+				}
+				throwStatusError(reply.buf, i);
+			}
+			throw new SftpException(SSH_FX_FAILURE, "");
+		}
+		Buffer buf=reply.buf;
+		int count=buf.getInt();
+		List<LsEntry> ret=new ArrayList<>(count);
+		while(count-->0){
+			byte[] filename=buf.getString();
+			byte[] longname=null;
+			if(server_version<=3){
+				longname=buf.getString();
+			}
+			SftpATTRS attrs=SftpATTRS.getATTR(buf);
+			String f=Util.byte2str(filename, fEncoding);
+			String l=null;
+			if(longname==null){
+				l=attrs.toString()+" "+f;
+			}
+			else{
+				l=Util.byte2str(longname, fEncoding);
+			}
+			ret.add(new LsEntry(f, l, attrs));
+		}
+		return ret;
+	}
+
+	public CompletableFuture<SftpATTRS> lstatAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendLSTAT(p), this::parseAttrs);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<SftpATTRS> statAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendSTAT(p), this::parseAttrs);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<String> readlinkAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendREADLINK(p), reply -> {
+				List<LsEntry> list=parseNames(reply);
+				if(list==null || list.isEmpty()){
+					throw new SftpException(SSH_FX_FAILURE, "");
+				}
+				return list.get(0).getFilename();
+			});
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<Void> removeAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendREMOVE(p), this::parseStatus);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<Void> rmdirAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendRMDIR(p), this::parseStatus);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<Void> mkdirAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendMKDIR(p, null), this::parseStatus);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<Void> renameAsync(String oldpath, String newpath){
+		if(server_version<2){
+			return failed(new SftpException(SSH_FX_OP_UNSUPPORTED, 
+					"The remote sshd is too old to support rename operation."));
+		}
+		try{
+			final byte[] p1=asyncPath(oldpath);
+			final byte[] p2=asyncPath(newpath);
+			return request(() -> sendRENAME(p1, p2), this::parseStatus);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	/**
+	 * Send SSH_FXP_SETSTAT, only the fields flagged in attr are changed.
+	 */
+	public CompletableFuture<Void> setStatAsync(String path, SftpATTRS attr){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendSETSTAT(p, attr), this::parseStatus);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<Void> chmodAsync(int permissions, String path){
+		SftpATTRS attr=newAttrs();
+		attr.setPERMISSIONS(permissions);
+		return setStatAsync(path, attr);
+	}
+
+	public CompletableFuture<byte[]> openDirAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendOPENDIR(p), this::parseHandle);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	/**
+	 * @return the next batch of entries or null at the end of the directory. 
+	 */
+	public CompletableFuture<List<LsEntry>> readDirAsync(byte[] handle){
+		return request(() -> sendREADDIR(handle), this::parseNames);
+	}
+
+	public CompletableFuture<Void> closeAsync(byte[] handle){
+		return request(() -> sendCLOSE(handle), this::parseStatus);
+	}
+
+	/**
+	 * List a directory (OPENDIR, READDIR until EOF, CLOSE).  "." and ".." are included.
+	 */
+	public CompletableFuture<List<LsEntry>> listAsync(String path){
+		return openDirAsync(path).thenCompose(handle -> {
+			List<LsEntry> all=new ArrayList<>();
+			return readAllAsync(handle, all).handle((v, err) -> err)
+					.thenCompose(err -> closeAsync(handle).handle((v, err2) -> {
+						if(err!=null){
+							throw (err instanceof java.util.concurrent.CompletionException) ? 
+									(java.util.concurrent.CompletionException)err :
+										new java.util.concurrent.CompletionException(err);
+						}
+						return all;
+					}));
+		});
+	}
+
+	private CompletableFuture<Void> readAllAsync(byte[] handle, List<LsEntry> all){
+		return readDirAsync(handle).thenCompose(list -> {
+			if(list==null){
+				return CompletableFuture.completedFuture((Void)null);
+			}
+			all.addAll(list);
+			return readAllAsync(handle, all);
+		});
+	}
+
+	public CompletableFuture<byte[]> openReadAsync(String path){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> sendOPENR(p), this::parseHandle);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	/**
+	 * Open (create) a file for writing
+	 * @param truncate if true any existing content is discarded 
+	 */
+	public CompletableFuture<byte[]> openWriteAsync(String path, boolean truncate){
+		try{
+			final byte[] p=asyncPath(path);
+			return request(() -> {
+				if(truncate){ sendOPENW(p); }
+				else { sendOPENA(p); }
+			}, this::parseHandle);
+		}
+		catch(SftpException e){
+			return failed(e);
+		}
+	}
+
+	/**
+	 * @return the data read (may be less than length) or null at end of file.
+	 */
+	public CompletableFuture<byte[]> readAsync(byte[] handle, long offset, int length){
+		return request(() -> sendREAD(handle, offset, length), reply -> {
+			if(reply.type==SSH_FXP_STATUS){
+				int i=reply.buf.getInt();
+				if(i==SSH_FX_EOF){
+					return null;
+				}
+				throwStatusError(reply.buf, i);
+			}
+			if(reply.type!=SSH_FXP_DATA){
+				throw new SftpException(SSH_FX_FAILURE, "");
+			}
+			return reply.buf.getString();
+		});
+	}
+
+	/**
+	 * Write data at offset.  Data larger than one packet is sent as several requests.
+	 */
+	public CompletableFuture<Void> writeAsync(byte[] handle, long offset, byte[] data, int start, int length){
+		List<CompletableFuture<Void>> parts=new ArrayList<>();
+		final int[] sent=new int[1];
+		while(length>0){
+			final long _offset=offset;
+			final int _start=start;
+			final int _length=length;
+			sent[0]=0;
+			CompletableFuture<Void> f=request(() -> sent[0]=sendWRITE(handle, _offset, data, _start, _length), this::parseStatus);
+			parts.add(f);
+			if(sent[0]<=0){
+				// the send failed, f has the reason
+				break;
+			}
+			offset+=sent[0];
+			start+=sent[0];
+			length-=sent[0];
+		}
+		return CompletableFuture.allOf(parts.toArray(new CompletableFuture[parts.size()]));
+	}
+
+	/**
+	 * @return an SftpATTRS with no fields set.
+	 */
+	public static SftpATTRS newAttrs(){
+		Buffer b=new Buffer(new byte[4]);
+		b.index=4;
+		return SftpATTRS.getATTR(b);
+	}
+
+	/**
+	 * Build attributes that did not come from the sftp server (exec output, an index...)
+	 * 
+	 * @param size
+	 * @param uid
+	 * @param gid
+	 * @param permissions including the file type bits (S_IFDIR...)
+	 * @param atime seconds
+	 * @param mtime seconds
+	 * @return an SftpATTRS with size, uid/gid, permissions and times set.
+	 */
+	public static SftpATTRS newAttrs(long size, int uid, int gid, int permissions, int atime, int mtime){
+		// tonyb: parsed from the wire format, setPERMISSIONS keeps the type bits it already has (none)
+		Buffer b=new Buffer(4+8+4*5);
+		b.putInt(SftpATTRS.SSH_FILEXFER_ATTR_SIZE | SftpATTRS.SSH_FILEXFER_ATTR_UIDGID
+				| SftpATTRS.SSH_FILEXFER_ATTR_PERMISSIONS | SftpATTRS.SSH_FILEXFER_ATTR_ACMODTIME);
+		b.putLong(size);
+		b.putInt(uid);
+		b.putInt(gid);
+		b.putInt(permissions);
+		b.putInt(atime);
+		b.putInt(mtime);
+		return SftpATTRS.getATTR(b);
+	}
+
+	//********************** end tonyb multiplexed requests
+
 	@SuppressWarnings("rawtypes")
 	public class LsEntry implements Comparable{
 		private  String filename;
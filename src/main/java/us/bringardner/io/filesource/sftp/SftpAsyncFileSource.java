@@ -0,0 +1,261 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Non blocking view of a remote file.  
+ * 
+ * Every method sends its request on the factory's multiplexed channel and returns right away
+ * so many requests can be on the wire at the same time. 
+ * Issuing 10,000 lstat's costs about one round trip plus the bandwidth instead of 10,000 round trips.
+ * 
+ * Futures complete exceptionally with an SftpException (wrapped in a CompletionException 
+ * by the CompletableFuture methods), use ChannelSftp.await to get the SftpException back.
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpAsyncFileSource {
+
+	private final SftpFileSourceFactory factory;
+	private final String path;
+
+	SftpAsyncFileSource(SftpFileSourceFactory factory, String path) {
+		this.factory = factory;
+		this.path = path;
+	}
+
+	public SftpFileSourceFactory getFileSourceFactory() {
+		return factory;
+	}
+
+	public String getAbsolutePath() {
+		return path;
+	}
+
+	/**
+	 * @return a blocking SftpFileSource for the same path
+	 */
+	public SftpFileSource toFileSource() {
+		return new SftpFileSource(factory, path);
+	}
+
+	public SftpAsyncFileSource getChild(String name) {
+		return new SftpAsyncFileSource(factory, path.endsWith("/") ? path+name : path+"/"+name);
+	}
+
+	private ChannelSftp channel() throws IOException {
+		return factory.getMultiplexedChannel();
+	}
+
+	private static <T> CompletableFuture<T> failed(Throwable e) {
+		CompletableFuture<T> ret = new CompletableFuture<>();
+		ret.completeExceptionally(e);
+		return ret;
+	}
+
+	/**
+	 * @param e
+	 * @return the SftpException that caused the future to fail or null 
+	 */
+	static SftpException getSftpException(Throwable e) {
+		while( e instanceof CompletionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		return e instanceof SftpException ? (SftpException) e : null;
+	}
+
+	static boolean isNoSuchFile(Throwable e) {
+		SftpException se = getSftpException(e);
+		return se != null && se.id == ChannelSftp.SSH_FX_NO_SUCH_FILE;
+	}
+
+	/**
+	 * @return the attributes or null if the file does not exist.
+	 */
+	public CompletableFuture<SftpATTRS> getAttributes() {
+		try {
+			return channel().lstatAsync(path).handle((a, e) -> {
+				if( e != null ) {
+					if( isNoSuchFile(e)) {
+						return null;
+					}
+					throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+				}
+				return a;
+			});
+		} catch (IOException e) {
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<Boolean> exists() {
+		return getAttributes().thenApply(a -> a != null);
+	}
+
+	public CompletableFuture<Boolean> isDirectory() {
+		return getAttributes().thenApply(a -> a != null && a.isDir());
+	}
+
+	public CompletableFuture<Boolean> isFile() {
+		return getAttributes().thenApply(a -> a != null && !a.isDir());
+	}
+
+	/**
+	 * @return the size of the file or 0 if it does not exist 
+	 */
+	public CompletableFuture<Long> length() {
+		return getAttributes().thenApply(a -> a == null ? 0l : a.getSize());
+	}
+
+	/**
+	 * @return last modified time in ms or 0 if it does not exist 
+	 */
+	public CompletableFuture<Long> lastModified() {
+		return getAttributes().thenApply(a -> a == null ? 0l : ((long)a.getMTime())*1000l);
+	}
+
+	/**
+	 * @return the directory entries excluding "." and "..".
+	 */
+	public CompletableFuture<List<LsEntry>> list() {
+		try {
+			return channel().listAsync(path).thenApply(list -> {
+				List<LsEntry> ret = new ArrayList<>(list.size());
+				for (LsEntry e : list) {
+					String name = e.getFilename();
+					if( !(name.equals(".") || name.equals(".."))) {
+						ret.add(e);
+					}
+				}
+				return ret;
+			});
+		} catch (IOException e) {
+			return failed(e);
+		}
+	}
+
+	/**
+	 * @return the children of this directory, their attributes are already loaded.
+	 */
+	public CompletableFuture<SftpFileSource[]> listFiles() {
+		return list().thenApply(list -> {
+			SftpFileSource parent = toFileSource();
+			SftpFileSource [] ret = new SftpFileSource[list.size()];
+			for (int idx = 0; idx < ret.length; idx++) {
+				ret[idx] = parent.createChild(list.get(idx));
+			}
+			return ret;
+		});
+	}
+
+	public CompletableFuture<Void> mkdir() {
+		try {
+			return channel().mkdirAsync(path).whenComplete((v, e) -> {
+				factory.invalidate(path);
+				factory.invalidateParent(path);
+			});
+		} catch (IOException e) {
+			return failed(e);
+		}
+	}
+
+	/**
+	 * Remove the file or (empty) directory.
+	 * 
+	 * @return true if something was deleted, false if it did not exist.
+	 */
+	public CompletableFuture<Boolean> delete() {
+		return getAttributes().thenCompose(a -> {
+			if( a == null ) {
+				return CompletableFuture.completedFuture(false);
+			}
+			try {
+				ChannelSftp c = channel();
+				return (a.isDir() ? c.rmdirAsync(path) : c.removeAsync(path))
+						.whenComplete((v, e) -> {
+							factory.invalidateTree(path);
+							factory.invalidateParent(path);
+						})
+						.thenApply(v -> true);
+			} catch (IOException e) {
+				return failed(e);
+			}
+		});
+	}
+
+	public CompletableFuture<Void> renameTo(String newPath) {
+		try {
+			return channel().renameAsync(path, newPath).whenComplete((v, e) -> {
+				factory.invalidateTree(path);
+				factory.invalidateTree(newPath);
+				factory.invalidateParent(path);
+				factory.invalidateParent(newPath);
+			});
+		} catch (IOException e) {
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<Void> renameTo(SftpAsyncFileSource dest) {
+		return renameTo(dest.getAbsolutePath());
+	}
+
+	/**
+	 * Set the permission bits (rwxrwxrwx)  
+	 */
+	public CompletableFuture<Void> setPermissions(int permissions) {
+		try {
+			return channel().chmodAsync(permissions, path).whenComplete((v, e) -> factory.invalidate(path));
+		} catch (IOException e) {
+			return failed(e);
+		}
+	}
+
+	public CompletableFuture<String> readlink() {
+		try {
+			return channel().readlinkAsync(path);
+		} catch (IOException e) {
+			return failed(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * Attributes (lstat) keyed by absolute path, shared by all factories using the same session.
+ * 
+ * The least recently used entry is dropped when there are more than maxEntries.  
+ * How long an entry can be used is decided by the caller (see Consistency) so 
+ * factories with different settings can share one cache. 
+ * 
+ * Paths that are known NOT to exist are kept in a separate (negative) LRU map with its own bound.
+ * Invalidating a path (because it was created, renamed...) removes it from both.
+ * 
+ * A lookup that races with a change passes the generation() it read before going to the server 
+ * to put / putMissing.  If the path (or a directory above it) was invalidated since, the reply 
+ * may be older than the change and it is not kept.
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpAttributeCache {
+
+	public enum Consistency {
+		/** No caching, every lookup goes to the server */
+		STRICT,
+		/** Entries are used until they are older than the time to live */
+		TTL,
+		/** Entries are used until they are changed through this session (or evicted) */
+		SESSION
+	}
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_TTL = 5000;
+	public static final int DEFAULT_MAX_MISSING = 10000;
+	// invalidations remembered for the generation check
+	private static final int MAX_INVALIDATIONS = 1000;
+
+	private static class CacheEntry {
+		final SftpATTRS attrs;
+		final long created;
+
+		CacheEntry(SftpATTRS attrs) {
+			this.attrs = attrs;
+			this.created = System.currentTimeMillis();
+		}
+	}
+
+	private final int maxEntries;
+	private final int maxMissing;
+	private final Map<String, CacheEntry> map;
+	// path -> time it was found missing
+	private final Map<String, Long> missing;
+	// bumped by every invalidation
+	private long generation;
+	// path (or tree) -> generation it was last invalidated at
+	private final Map<String, Long> invalidated = new Invalidations();
+	private final Map<String, Long> invalidatedTrees = new Invalidations();
+	// invalidations at or below this generation may have been forgotten
+	private long floor;
+
+	private class Invalidations extends LinkedHashMap<String, Long> {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			if( size() > MAX_INVALIDATIONS ) {
+				floor = Math.max(floor, eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	}
+
+	public SftpAttributeCache(int maxEntries) {
+		this(maxEntries, DEFAULT_MAX_MISSING);
+	}
+
+	public SftpAttributeCache(int maxEntries, int maxMissing) {
+		if( maxEntries < 1 ) {
+			throw new IllegalArgumentException("maxEntries must be greater than 0 ("+maxEntries+")");
+		}
+		if( maxMissing < 1 ) {
+			throw new IllegalArgumentException("maxMissing must be greater than 0 ("+maxMissing+")");
+		}
+		this.maxEntries = maxEntries;
+		this.maxMissing = maxMissing;
+		this.missing = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > SftpAttributeCache.this.maxMissing;
+			}
+		};
+		// access order so the eldest is the least recently used
+		this.map = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > SftpAttributeCache.this.maxEntries;
+			}
+		};
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public int getMaxMissing() {
+		return maxMissing;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized int missingSize() {
+		return missing.size();
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @param ttl ms a path is known to be missing
+	 * @return true if path was found missing less than ttl ms ago
+	 */
+	public synchronized boolean isMissing(String path, long ttl) {
+		if( ttl <= 0 ) {
+			return false;
+		}
+		Long time = missing.get(path);
+		if( time == null ) {
+			return false;
+		}
+		if( System.currentTimeMillis()-time > ttl) {
+			missing.remove(path);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Record that path does not exist.
+	 * @param path
+	 */
+	public synchronized void putMissing(String path) {
+		map.remove(path);
+		missing.put(path, System.currentTimeMillis());
+	}
+
+	/**
+	 * Record that path does not exist unless it was invalidated after since.
+	 *  
+	 * @param path
+	 * @param since generation() read before the lookup was sent
+	 */
+	public synchronized void putMissing(String path, long since) {
+		if( !isChangedSince(path, since)) {
+			putMissing(path);
+		}
+	}
+
+	/**
+	 * @return the current generation, read it before a lookup and pass it to put / putMissing.
+	 */
+	public synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * @return true if path or a directory above it was (or may have been) invalidated after since.
+	 */
+	private boolean isChangedSince(String path, long since) {
+		if( floor > since ) {
+			return true;
+		}
+		Long g = invalidated.get(path);
+		if( g != null && g > since ) {
+			return true;
+		}
+		for(String p = path; p != null; p = parentOf(p)) {
+			g = invalidatedTrees.get(p);
+			if( g != null && g > since ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String parentOf(String path) {
+		int idx = path.lastIndexOf('/');
+		if( idx < 0 || path.equals("/")) {
+			return null;
+		}
+		return idx == 0 ? "/" : path.substring(0, idx);
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @param mode
+	 * @param ttl ms an entry is valid in TTL mode
+	 * @return the cached attributes or null if there are none that can be used.
+	 */
+	public synchronized SftpATTRS get(String path, Consistency mode, long ttl) {
+		if( mode == Consistency.STRICT ) {
+			return null;
+		}
+		CacheEntry e = map.get(path);
+		if( e == null ) {
+			return null;
+		}
+		if( mode == Consistency.TTL && System.currentTimeMillis()-e.created > ttl) {
+			map.remove(path);
+			return null;
+		}
+		return e.attrs;
+	}
+
+	public synchronized void put(String path, SftpATTRS attrs) {
+		if( attrs != null ) {
+			missing.remove(path);
+			map.put(path, new CacheEntry(attrs));
+		}
+	}
+
+	/**
+	 * Keep attrs unless path was invalidated after since.
+	 *  
+	 * @param path
+	 * @param attrs
+	 * @param since generation() read before the lookup was sent
+	 */
+	public synchronized void put(String path, SftpATTRS attrs, long since) {
+		if( !isChangedSince(path, since)) {
+			put(path, attrs);
+		}
+	}
+
+	public synchronized void invalidate(String path) {
+		map.remove(path);
+		missing.remove(path);
+		invalidated.put(path, ++generation);
+	}
+
+	/**
+	 * Remove path and everything below it (rename or delete of a directory).
+	 *  
+	 * @param path
+	 */
+	public synchronized void invalidateTree(String path) {
+		map.remove(path);
+		missing.remove(path);
+		String key = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length()-1) : path;
+		invalidatedTrees.put(key, ++generation);
+		String prefix = path.endsWith("/") ? path : path+"/";
+		removePrefix(map, prefix);
+		removePrefix(missing, prefix);
+	}
+
+	private static void removePrefix(Map<String, ?> m, String prefix) {
+		Iterator<String> it = m.keySet().iterator();
+		while( it.hasNext()) {
+			if( it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		missing.clear();
+		invalidated.clear();
+		invalidatedTrees.clear();
+		floor = ++generation;
+	}
+}
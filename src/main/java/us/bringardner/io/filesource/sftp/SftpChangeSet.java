@@ -0,0 +1,268 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * What changed in a remote tree between two scans, and the snapshot to use for the next scan.
+ * 
+ * A scan lstat's every directory but only lists the directories whose mtime or size changed.
+ * The files in an unchanged directory are assumed to be unchanged, 
+ * so content rewritten in place (same name, no rename) in an unchanged directory is not reported.  
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpChangeSet {
+
+	private final List<String> added = new ArrayList<>();
+	private final List<String> removed = new ArrayList<>();
+	private final List<String> modified = new ArrayList<>();
+	private final SftpTreeSnapshot snapshot;
+	private int listed = 0;
+
+	private SftpChangeSet(SftpTreeSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public List<String> getAdded() {
+		return Collections.unmodifiableList(added);
+	}
+
+	public List<String> getRemoved() {
+		return Collections.unmodifiableList(removed);
+	}
+
+	public List<String> getModified() {
+		return Collections.unmodifiableList(modified);
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+	}
+
+	/**
+	 * @return the state of the tree after this scan
+	 */
+	public SftpTreeSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the number of directories that had to be listed
+	 */
+	public int getListedCount() {
+		return listed;
+	}
+
+	/**
+	 * 
+	 * @param factory
+	 * @param root
+	 * @param previous may be null (everything is added)
+	 * @return the changes
+	 * @throws IOException
+	 */
+	static SftpChangeSet scan(SftpFileSourceFactory factory, String root, SftpTreeSnapshot previous) throws IOException {
+		if( previous != null && !previous.getRoot().equals(root)) {
+			throw new IllegalArgumentException("Snapshot is for "+previous.getRoot()+" not "+root);
+		}
+		SftpChangeSet ret = new SftpChangeSet(new SftpTreeSnapshot(root));
+		SftpATTRS rootAttrs = null;
+		try {
+			// not from the attribute cache or the index, the point is to see what the server has now
+			rootAttrs = factory.execute(c -> c.lstat(root));
+		} catch (SftpException e) {
+			throw new IOException(e);
+		}
+		if( !rootAttrs.isDir()) {
+			throw new IOException(root+" is not a directory");
+		}
+
+		ret.snapshot.put(root, new SftpTreeSnapshot.Entry(rootAttrs));
+		if( previous != null ) {
+			SftpTreeSnapshot.Entry old = previous.get(root);
+			if( old != null && old.isModified(ret.snapshot.get(root))) {
+				ret.modified.add(root);
+			}
+		}
+
+		List<String> level = new ArrayList<>();
+		level.add(root);
+		while( !level.isEmpty()) {
+			List<String> next = new ArrayList<>();
+			// unchanged directories whose sub directories must be stat'ed
+			List<String> toStat = new ArrayList<>();
+			for (String dir : level) {
+				SftpTreeSnapshot.Entry now = ret.snapshot.get(dir);
+				SftpTreeSnapshot.Entry old = previous == null ? null : previous.get(dir);
+				List<String> oldKids = previous == null ? null : previous.getChildren(dir);
+				if( old != null && oldKids != null && old.isDirectory() && !now.isDirectoryChanged(old)) {
+					ret.copy(previous, dir, oldKids, toStat);
+				} else {
+					ret.list(factory, previous, dir, oldKids, next);
+				}
+			}
+
+			if( !toStat.isEmpty()) {
+				Map<String, SftpATTRS> stats = factory.statAll(toStat, true);
+				for (Map.Entry<String, SftpATTRS> e : stats.entrySet()) {
+					String path = e.getKey();
+					SftpATTRS a = e.getValue();
+					SftpTreeSnapshot.Entry old = previous.get(path);
+					if( a == null ) {
+						// removed without changing the parent's mtime (or after it was read)
+						ret.removeTree(previous, path);
+						int idx = path.lastIndexOf('/');
+						ret.snapshot.removeChild(idx == 0 ? "/" : path.substring(0, idx), path.substring(idx+1));
+					} else {
+						SftpTreeSnapshot.Entry now = new SftpTreeSnapshot.Entry(a);
+						ret.snapshot.put(path, now);
+						if( now.isModified(old)) {
+							ret.modified.add(path);
+							if( old.isDirectory() && !now.isDirectory()) {
+								ret.removeChildren(previous, path);
+							}
+						}
+						if( now.isDirectory()) {
+							next.add(path);
+						}
+					}
+				}
+			}
+			level = next;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * The directory did not change, copy its children from the previous snapshot.
+	 */
+	private void copy(SftpTreeSnapshot previous, String dir, List<String> names, List<String> toStat) {
+		snapshot.setChildren(dir, new ArrayList<>(names));
+		for (String name : names) {
+			String path = childPath(dir, name);
+			SftpTreeSnapshot.Entry e = previous.get(path);
+			if( e == null ) {
+				continue;
+			}
+			if( e.isDirectory()) {
+				toStat.add(path);
+			} else {
+				snapshot.put(path, e);
+			}
+		}
+	}
+
+	/**
+	 * The directory changed (or is new), list it and compare the children.
+	 */
+	private void list(SftpFileSourceFactory factory, SftpTreeSnapshot previous, String dir, List<String> oldKids, List<String> next) throws IOException {
+		Vector<LsEntry> ls = null;
+		try {
+			ls = factory.lsDirectory(dir);
+		} catch (SftpException e) {
+			throw new IOException(dir+" "+e, e);
+		}
+		listed++;
+		List<String> names = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		for (LsEntry e : ls) {
+			String name = e.getFilename();
+			if( name.equals(".") || name.equals("..")) {
+				continue;
+			}
+			names.add(name);
+			seen.add(name);
+			String path = childPath(dir, name);
+			SftpTreeSnapshot.Entry now = new SftpTreeSnapshot.Entry(e.getAttrs());
+			snapshot.put(path, now);
+			SftpTreeSnapshot.Entry old = previous == null ? null : previous.get(path);
+			if( old == null ) {
+				added.add(path);
+			} else if( now.isModified(old)) {
+				modified.add(path);
+				if( old.isDirectory() && !now.isDirectory()) {
+					removeChildren(previous, path);
+				}
+			}
+			if( now.isDirectory()) {
+				next.add(path);
+			}
+		}
+		snapshot.setChildren(dir, names);
+
+		if( oldKids != null ) {
+			for (String name : oldKids) {
+				if( !seen.contains(name)) {
+					removeTree(previous, childPath(dir, name));
+				}
+			}
+		}
+	}
+
+	private void removeTree(SftpTreeSnapshot previous, String path) {
+		removed.add(path);
+		removeChildren(previous, path);
+	}
+
+	private void removeChildren(SftpTreeSnapshot previous, String dir) {
+		List<String> kids = previous.getChildren(dir);
+		if( kids != null ) {
+			for (String name : kids) {
+				removeTree(previous, childPath(dir, name));
+			}
+		}
+	}
+
+	private static String childPath(String dir, String name) {
+		return dir.endsWith("/") ? dir+name : dir+"/"+name;
+	}
+
+	@Override
+	public String toString() {
+		Map<String, Integer> counts = new HashMap<>();
+		counts.put("added", added.size());
+		counts.put("removed", removed.size());
+		counts.put("modified", modified.size());
+		counts.put("listed", listed);
+		return counts.toString();
+	}
+}
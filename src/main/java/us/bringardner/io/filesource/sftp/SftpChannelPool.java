@@ -0,0 +1,405 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * A bounded pool of connected sftp channels that belong to one or more SSH Sessions to the same host.
+ *
+ * A ChannelSftp can only have one request in flight so each thread borrows
+ * a channel, uses it and returns it.  At most maxChannels per session are open at any time,
+ * threads that can't get one wait (first come first served) for up to borrowTimeout ms.
+ * 
+ * When more than one session is given, each borrow is served by the session with
+ * the fewest channels in use so work is striped across the SSH connections 
+ * (each connection has its own TCP and flow control window).
+ *
+ * @author Tony Bringardner
+ *
+ */
+public class SftpChannelPool {
+
+	/**
+	 * Work to be done with a borrowed channel.
+	 */
+	public interface ChannelAction<T> {
+		T run(ChannelSftp channel) throws SftpException, IOException;
+	}
+
+	/**
+	 * Settings applied to every new channel before it is connected (packet and window sizes...).
+	 */
+	public interface ChannelConfigurer {
+		void configure(ChannelSftp channel) throws JSchException;
+	}
+
+	public static final int DEFAULT_MIN_CHANNELS = 1;
+	public static final int DEFAULT_MAX_CHANNELS = 8;
+	public static final long DEFAULT_BORROW_TIMEOUT = 60000;
+
+	private final Session[] sessions;
+	private final int minChannels;
+	private final int maxChannels;
+	private final long borrowTimeout;
+	private final ChannelConfigurer configurer;
+	// one permit per channel that may be handed out, fair so waiting threads are served in order
+	private final Semaphore permits;
+	// idle channels and number of borrowed channels for each session
+	private final Deque<ChannelSftp>[] idle;
+	private final int[] active;
+	private final Map<ChannelSftp, Integer> borrowed = new IdentityHashMap<>();
+	private volatile boolean closed = false;
+
+	public SftpChannelPool(Session session, int minChannels, int maxChannels, long borrowTimeout) throws IOException {
+		this(new Session[] {session}, minChannels, maxChannels, borrowTimeout);
+	}
+
+	/**
+	 * 
+	 * @param sessions connected sessions to the same host and user.
+	 * @param minChannels channels to open on each session 
+	 * @param maxChannels maximum channels in use on each session
+	 * @param borrowTimeout ms to wait for a channel
+	 * @throws IOException
+	 */
+	public SftpChannelPool(Session[] sessions, int minChannels, int maxChannels, long borrowTimeout) throws IOException {
+		this(sessions, minChannels, maxChannels, borrowTimeout, null);
+	}
+
+	/**
+	 * 
+	 * @param sessions connected sessions to the same host and user.
+	 * @param minChannels channels to open on each session 
+	 * @param maxChannels maximum channels in use on each session
+	 * @param borrowTimeout ms to wait for a channel
+	 * @param configurer applied to each channel before it's connected (may be null)
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public SftpChannelPool(Session[] sessions, int minChannels, int maxChannels, long borrowTimeout, ChannelConfigurer configurer) throws IOException {
+		if( sessions == null || sessions.length == 0 ) {
+			throw new IllegalArgumentException("At least one session is required");
+		}
+		if( maxChannels < 1 ) {
+			throw new IllegalArgumentException("maxChannels must be greater than 0 ("+maxChannels+")");
+		}
+		if( minChannels < 0 || minChannels > maxChannels ) {
+			throw new IllegalArgumentException("minChannels must be between 0 and "+maxChannels+" ("+minChannels+")");
+		}
+		this.sessions = sessions.clone();
+		this.minChannels = minChannels;
+		this.maxChannels = maxChannels;
+		this.borrowTimeout = borrowTimeout;
+		this.configurer = configurer;
+		this.permits = new Semaphore(maxChannels*sessions.length, true);
+		this.idle = new Deque[sessions.length];
+		this.active = new int[sessions.length];
+
+		for (int slot = 0; slot < sessions.length; slot++) {
+			idle[slot] = new ArrayDeque<>();
+			for (int idx = 0; idx < minChannels; idx++) {
+				idle[slot].add(createChannel(slot));
+			}
+		}
+	}
+
+	/**
+	 * @return the first (primary) session
+	 */
+	public Session getSession() {
+		return sessions[0];
+	}
+
+	public Session[] getSessions() {
+		return sessions.clone();
+	}
+
+	public int getMinChannels() {
+		return minChannels;
+	}
+
+	public int getMaxChannels() {
+		return maxChannels;
+	}
+
+	/**
+	 * @return the number of channels currently borrowed.
+	 */
+	public synchronized int getActiveCount() {
+		int ret = 0;
+		for (int cnt : active) {
+			ret += cnt;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of connected channels waiting to be borrowed.
+	 */
+	public synchronized int getIdleCount() {
+		int ret = 0;
+		for (Deque<ChannelSftp> q : idle) {
+			ret += q.size();
+		}
+		return ret;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Borrow a connected channel. The caller MUST give it back with release or invalidate.
+	 *
+	 * @return a connected channel
+	 * @throws IOException if the pool is closed, the wait times out or a new channel can't be opened.
+	 */
+	public ChannelSftp borrow() throws IOException {
+		if( closed ) {
+			throw new IOException("Channel pool is closed");
+		}
+
+		try {
+			if( !permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timeout waiting for an sftp channel ("+(maxChannels*sessions.length)+" in use)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for an sftp channel");
+		}
+
+		int slot = -1;
+		ChannelSftp ret = null;
+		try {
+			while( ret == null ) {
+				synchronized (this) {
+					slot = leastLoaded();
+					if( slot < 0 ) {
+						throw new IOException("No connected session");
+					}
+					active[slot]++;
+					ret = idle[slot].pollFirst();
+				}
+				while( ret != null && !isHealthy(ret)) {
+					discard(ret);
+					synchronized (this) {
+						ret = idle[slot].pollFirst();
+					}
+				}
+				if( ret == null ) {
+					try {
+						ret = createChannel(slot);
+					} catch (IOException e) {
+						int failed = slot;
+						synchronized (this) {
+							active[slot]--;
+						}
+						slot = -1;
+						if( isSessionConnected(failed)) {
+							throw e;
+						}
+						// the session dropped, use the next least loaded one
+					}
+				}
+			}
+			synchronized (this) {
+				borrowed.put(ret, slot);
+			}
+			return ret;
+		} catch (IOException | RuntimeException e) {
+			if( slot >= 0 ) {
+				synchronized (this) {
+					active[slot]--;
+				}
+			}
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * The least loaded connected session. We hold a permit so there is room for one more
+	 * unless some sessions are down, then the live ones take the extra load.
+	 *  
+	 * @return the slot or -1 if no session is connected
+	 */
+	private int leastLoaded() {
+		int ret = -1;
+		for (int idx = 0; idx < active.length; idx++) {
+			if( isSessionConnected(idx) && (ret < 0 || active[idx] < active[ret])) {
+				ret = idx;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Return a channel to the pool.  Channels that are no longer connected are discarded.
+	 *
+	 * @param channel
+	 */
+	public void release(ChannelSftp channel) {
+		giveBack(channel, closed || channel == null || !isHealthy(channel));
+	}
+
+	/**
+	 * Return a channel that is in an unknown state (an IO error occurred while it was in use).
+	 * The channel is disconnected and a new one will be created when needed.
+	 *
+	 * @param channel
+	 */
+	public void invalidate(ChannelSftp channel) {
+		giveBack(channel, true);
+	}
+
+	private void giveBack(ChannelSftp channel, boolean discard) {
+		if( channel == null ) {
+			return;
+		}
+		Integer slot = null;
+		synchronized (this) {
+			slot = borrowed.remove(channel);
+			if( slot == null ) {
+				// not ours or already returned
+				return;
+			}
+			active[slot]--;
+			if( !discard ) {
+				// LIFO so the most recently used channels stay warm
+				idle[slot].offerFirst(channel);
+			}
+		}
+		if( discard ) {
+			discard(channel);
+		}
+		permits.release();
+	}
+
+	/**
+	 * Borrow a channel, run the action and return the channel.
+	 *
+	 * @param action
+	 * @return the value returned by action
+	 * @throws IOException
+	 * @throws SftpException
+	 */
+	public <T> T execute(ChannelAction<T> action) throws IOException, SftpException {
+		ChannelSftp channel = borrow();
+		boolean ok = false;
+		try {
+			T ret = action.run(channel);
+			ok = true;
+			return ret;
+		} catch (SftpException e) {
+			// A status error from the server leaves the channel usable, a wrapped IO error does not.
+			ok = e.getCause() == null;
+			throw e;
+		} finally {
+			if( ok ) {
+				release(channel);
+			} else {
+				invalidate(channel);
+			}
+		}
+	}
+
+	/**
+	 * Close all idle channels, channels in use are closed as they are released.
+	 * The sessions are NOT disconnected.
+	 */
+	public void close() {
+		closed = true;
+		List<ChannelSftp> list = new ArrayList<>();
+		synchronized (this) {
+			for (Deque<ChannelSftp> q : idle) {
+				list.addAll(q);
+				q.clear();
+			}
+		}
+		for (ChannelSftp c : list) {
+			discard(c);
+		}
+	}
+
+	private boolean isHealthy(ChannelSftp channel) {
+		return channel.isConnected() && !channel.isClosed();
+	}
+
+	private void discard(ChannelSftp channel) {
+		try {
+			channel.disconnect();
+		} catch (Exception e) {
+		}
+	}
+
+	/**
+	 * 
+	 * @param slot
+	 * @return true if the session in slot can open channels
+	 */
+	protected boolean isSessionConnected(int slot) {
+		return sessions[slot] != null && sessions[slot].isConnected();
+	}
+
+	/**
+	 * 
+	 * @param slot
+	 * @return a new (not connected) sftp channel on the session in slot
+	 * @throws JSchException
+	 */
+	protected ChannelSftp openChannel(int slot) throws JSchException {
+		return (ChannelSftp) sessions[slot].openChannel("sftp");
+	}
+
+	private ChannelSftp createChannel(int slot) throws IOException {
+		try {
+			ChannelSftp ret = openChannel(slot);
+			if( configurer != null ) {
+				configurer.configure(ret);
+			}
+			ret.connect();
+			return ret;
+		} catch (JSchException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
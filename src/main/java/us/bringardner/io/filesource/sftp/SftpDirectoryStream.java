@@ -0,0 +1,196 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.io.filesource.FileSourceFilter;
+
+/**
+ * Iterate over a remote directory one SSH_FXP_NAME batch at a time.
+ * 
+ * Only one batch is held in memory and the first entry is available after one round trip. 
+ * A channel is borrowed from the factory pool when the stream is opened and returned when the stream 
+ * is closed (or the end of the directory is reached) so ALWAYS close the stream, 
+ * closing early stops the listing.
+ * 
+ * <pre>
+ * try(SftpDirectoryStream ds = dir.newDirectoryStream()) {
+ *     for(SftpFileSource f : ds) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * 
+ * As with java.nio.file.DirectoryStream only one iterator can be obtained and IO errors while iterating 
+ * are thrown as DirectoryIteratorException.  
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpDirectoryStream implements DirectoryStream<SftpFileSource> {
+
+	private final SftpFileSource dir;
+	private final FileSourceFilter filter;
+	private final SftpChannelPool pool;
+	private ChannelSftp channel;
+	private byte[] handle;
+	private boolean iteratorReturned = false;
+	private boolean closed = false;
+	private final Deque<LsEntry> batch = new ArrayDeque<>();
+
+	SftpDirectoryStream(SftpFileSource dir, FileSourceFilter filter) throws IOException {
+		this.dir = dir;
+		this.filter = filter;
+		SftpFileSourceFactory factory = (SftpFileSourceFactory) dir.getFileSourceFactory();
+		pool = factory.getChannelPool();
+		channel = pool.borrow();
+		try {
+			handle = channel.openDir(dir.getAbsolutePath());
+		} catch (SftpException e) {
+			if( e.getCause() == null ) {
+				pool.release(channel);
+			} else {
+				pool.invalidate(channel);
+			}
+			channel = null;
+			closed = true;
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @return the next entry that is not "." or ".." or null at the end of the directory.
+	 * @throws IOException
+	 */
+	private LsEntry nextEntry() throws IOException {
+		while( !closed ) {
+			LsEntry ret = batch.pollFirst();
+			if( ret == null ) {
+				List<LsEntry> list = null;
+				try {
+					list = channel.readDir(handle);
+				} catch (SftpException e) {
+					finish(e.getCause() != null);
+					throw new IOException(e);
+				}
+				if( list == null ) {
+					finish(false);
+				} else {
+					batch.addAll(list);
+				}
+			} else {
+				String name = ret.getFilename();
+				if( !(name.equals(".") || name.equals(".."))) {
+					return ret;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Close the remote handle and give the channel back.
+	 * @param broken if true the channel is discarded instead of returned
+	 */
+	private synchronized void finish(boolean broken) {
+		if( channel != null ) {
+			if( !broken ) {
+				try {
+					channel.closeDir(handle);
+				} catch (SftpException e) {
+					broken = e.getCause() != null;
+				}
+			}
+			if( broken ) {
+				pool.invalidate(channel);
+			} else {
+				pool.release(channel);
+			}
+			channel = null;
+		}
+		batch.clear();
+		closed = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish(false);
+	}
+
+	@Override
+	public synchronized Iterator<SftpFileSource> iterator() {
+		if( iteratorReturned ) {
+			throw new IllegalStateException("Iterator already obtained");
+		}
+		iteratorReturned = true;
+
+		return new Iterator<SftpFileSource>() {
+			private SftpFileSource next;
+
+			@Override
+			public boolean hasNext() {
+				try {
+					while( next == null ) {
+						LsEntry e = nextEntry();
+						if( e == null ) {
+							return false;
+						}
+						SftpFileSource f = dir.createChild(e);
+						if( filter == null || filter.accept(f)) {
+							next = f;
+						}
+					}
+				} catch (IOException e) {
+					throw new DirectoryIteratorException(e);
+				}
+				return true;
+			}
+
+			@Override
+			public SftpFileSource next() {
+				if( !hasNext()) {
+					throw new NoSuchElementException();
+				}
+				SftpFileSource ret = next;
+				next = null;
+				return ret;
+			}
+		};
+	}
+
+}
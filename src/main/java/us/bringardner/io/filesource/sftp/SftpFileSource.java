@@ -31,17 +31,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.nio.file.attribute.GroupPrincipal;
 import java.nio.file.attribute.UserPrincipal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import javax.swing.ProgressMonitor;
 
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.ChannelSftp.LsEntry;
-import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
@@ -61,44 +62,92 @@ public class SftpFileSource extends BaseObject implements FileSource {
 	private static final long serialVersionUID = 1L;
 
 
+	/**
+	 * Lease a channel from the factory pool and give it back (or throw it away if it's broken)
+	 * when the stream is closed. 
+	 */
+	private class ChannelLease {
+		SftpChannelPool pool;
+		ChannelSftp mySftp;
+		boolean failed = false;
+		boolean returned = false;
+
+		void lease() throws IOException {
+			pool = factory.getChannelPool();
+			mySftp = pool.borrow();
+		}
+
+		/**
+		 * Handle an error that occurred while opening the remote file.
+		 * A status error (no such file...) leaves the channel usable.
+		 *  
+		 * @param e
+		 * @return an IOException to throw
+		 */
+		IOException openFailed(SftpException e) {
+			failed = e.getCause() != null;
+			giveBack();
+			return new IOException(e);
+		}
+
+		synchronized void giveBack() {
+			if( !returned ) {
+				returned = true;
+				if( failed ) {
+					pool.invalidate(mySftp);
+				} else {
+					pool.release(mySftp);
+				}
+			}
+		}
+	}
+
 	private class SftpOutputStream extends OutputStream {
 
-		private ChannelSftp mySftp;
+		private ChannelLease lease = new ChannelLease();
 		private OutputStream out;
 
 		SftpOutputStream (boolean append) throws IOException {
 			attr = null;
 			exists = null;
+			factory.invalidate(path);
 
+			lease.lease();
 			try {
-				mySftp = (ChannelSftp) factory.getSession().openChannel("sftp");
-				mySftp.connect();
 				if( append ) {
-					this.out = mySftp.put(path, ChannelSftp.APPEND);
+					this.out = lease.mySftp.put(path, ChannelSftp.APPEND);
 				} else {
-					this.out = mySftp.put(path, ChannelSftp.OVERWRITE);
+					this.out = lease.mySftp.put(path, ChannelSftp.OVERWRITE);
 				}
 
-			} catch (JSchException e) {
-				throw new IOException(e);
 			} catch (SftpException e) {
-				throw new IOException(e);
+				throw lease.openFailed(e);
 			}
 
 		}
 		@Override
 		public void write(int b) throws IOException {
-			out.write(b);
+			try {
+				out.write(b);
+			} catch (IOException e) {
+				lease.failed = true;
+				throw e;
+			}
 		}
 
 		@Override
 		public void close() throws IOException {
 			try {
 				out.close();
-			} catch(Throwable e) {}
+			} catch(Throwable e) {
+				lease.failed = true;
+			}
 			try {
-				mySftp.disconnect();
+				lease.giveBack();
 				clearAttr();
+				factory.invalidate(path);
+				factory.invalidateParent(path);
+				parentChanged();
 			} catch (Exception e) {
 			}
 
@@ -106,18 +155,28 @@ public class SftpFileSource extends BaseObject implements FileSource {
 
 		@Override
 		public void flush() throws IOException {
-			out.flush();
+			try {
+				out.flush();
+			} catch (IOException e) {
+				lease.failed = true;
+				throw e;
+			}
 		}
 
 		@Override
 		public void write(byte[] b, int off, int len) throws IOException {
-			out.write(b, off, len);
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				lease.failed = true;
+				throw e;
+			}
 			//attr = null;
 		}
 
 		@Override
 		public void write(byte[] b) throws IOException {
-			out.write(b);
+			write(b, 0, b.length);
 			//attr = null;
 		}
 
@@ -126,45 +185,37 @@ public class SftpFileSource extends BaseObject implements FileSource {
 
 	private class SftpInputStream extends InputStream {
 
-		private ChannelSftp mySftp;
+		private ChannelLease lease = new ChannelLease();
 		private InputStream in;
 
 		SftpInputStream() throws IOException {
-			attr = null;
-			exists = null;
-
-			try {
-				mySftp = (ChannelSftp) factory.getSession().openChannel("sftp");
-				mySftp.connect();
-				in = mySftp.get(path);
-
-			} catch (JSchException e) {
-				throw new IOException(e);
-			} catch (SftpException e) {
-				throw new IOException(e);
-			}
+			this(0);
 		}
 
 		public SftpInputStream(long skipTo) throws IOException {
 			attr = null;
 			exists = null;
 
+			lease.lease();
 			try {
-				mySftp = (ChannelSftp) factory.getSession().openChannel("sftp");
-				mySftp.connect();
-				in = mySftp.get(path,null,skipTo);
-
-			} catch (JSchException e) {
-				throw new IOException(e);
+				in = factory.openInputStream(lease.mySftp, path, skipTo);
 			} catch (SftpException e) {
-				throw new IOException(e);
+				throw lease.openFailed(e);
+			} catch (IOException e) {
+				lease.giveBack();
+				throw e;
 			}
 
 		}
 
 		@Override
 		public int read() throws IOException {
-			return in.read();
+			try {
+				return in.read();
+			} catch (IOException e) {
+				lease.failed = true;
+				throw e;
+			}
 		}
 
 		@Override
@@ -176,8 +227,10 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		public void close() throws IOException {
 			try {
 				in.close();
-			} catch(Throwable e) {}
-			mySftp.disconnect();
+			} catch(Throwable e) {
+				lease.failed = true;
+			}
+			lease.giveBack();
 		}
 
 		@Override
@@ -194,14 +247,18 @@ public class SftpFileSource extends BaseObject implements FileSource {
 
 		@Override
 		public int read(byte[] arg0, int arg1, int arg2) throws IOException {
-
-			return in.read(arg0, arg1, arg2);
+			try {
+				return in.read(arg0, arg1, arg2);
+			} catch (IOException e) {
+				lease.failed = true;
+				throw e;
+			}
 		}
 
 		@Override
 		public int read(byte[] arg0) throws IOException {
 
-			return in.read(arg0);
+			return read(arg0, 0, arg0.length);
 		}
 
 		@Override
@@ -212,8 +269,12 @@ public class SftpFileSource extends BaseObject implements FileSource {
 
 		@Override
 		public long skip(long arg0) throws IOException {
-
-			return in.skip(arg0);
+			try {
+				return in.skip(arg0);
+			} catch (IOException e) {
+				lease.failed = true;
+				throw e;
+			}
 		}
 
 	}
@@ -256,14 +317,16 @@ public class SftpFileSource extends BaseObject implements FileSource {
 	 * @param factory
 	 * @param parent
 	 * @param name: this is the child file name (appended to the parent path)  
-	 * @throws IOException
 	 */
-	private SftpFileSource(SftpFileSourceFactory factory, SftpFileSource parent, String name) throws IOException {
+	private SftpFileSource(SftpFileSourceFactory factory, SftpFileSource parent, String name) {
 		this.parent = parent;
 		this.factory = factory;
 		this.name = name;
-		this.path = parent.getCanonicalPath()+"/"+name;
-		this.parent.addChild(this);
+		if( parent.path.equals("/")) {
+			this.path = "/"+name;
+		} else {
+			this.path = parent.path+"/"+name;
+		}
 	}
 
 	/**
@@ -289,20 +352,150 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		this.exists = (true);
 	}
 
+	/**
+	 * Create a child from a directory list entry (the attributes come with the entry).
+	 */
+	SftpFileSource createChild(LsEntry entry) {
+		return new SftpFileSource(factory, this, entry);
+	}
+
+	/**
+	 * Stream the entries of this directory as they arrive from the server.  
+	 * The stream MUST be closed.
+	 *  
+	 * @return a stream of the children of this directory 
+	 * @throws IOException
+	 */
+	public SftpDirectoryStream newDirectoryStream() throws IOException {
+		return new SftpDirectoryStream(this, null);
+	}
+
+	/**
+	 * Stream the entries of this directory that are accepted by filter as they arrive from the server.  
+	 * The stream MUST be closed.
+	 *  
+	 * @param filter
+	 * @return a stream of the children of this directory 
+	 * @throws IOException
+	 */
+	public SftpDirectoryStream newDirectoryStream(FileSourceFilter filter) throws IOException {
+		return new SftpDirectoryStream(this, filter);
+	}
+
+	/**
+	 * Find what changed below this directory since previous was taken.
+	 * Every directory is lstat'ed but only the ones whose mtime or size changed are listed again.  
+	 *  
+	 * @param previous the snapshot from the last scan or null for a full scan (everything is added)
+	 * @return the changes, use getSnapshot() for the next scan
+	 * @throws IOException
+	 */
+	public SftpChangeSet scan(SftpTreeSnapshot previous) throws IOException {
+		return SftpChangeSet.scan(factory, path, previous);
+	}
+
+	/**
+	 * Copy this file to a local file as several byte ranges fetched at the same time.
+	 * Use factory.newSegmentedTransfer() for progress and retry settings.
+	 *  
+	 * @param local the file to write (replaced)
+	 * @param segments maximum number of ranges fetched at the same time
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public long downloadTo(Path local, int segments) throws IOException {
+		return downloadTo(local, segments, false);
+	}
+
+	/**
+	 * Copy this file to a local file as several byte ranges fetched at the same time.
+	 *  
+	 * @param local the file to write
+	 * @param segments maximum number of ranges fetched at the same time
+	 * @param resumable keep a journal next to local so an interrupted download continues where it stopped
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public long downloadTo(Path local, int segments, boolean resumable) throws IOException {
+		return factory.newSegmentedTransfer().setSegments(segments).setResumable(resumable)
+				.download(getAbsolutePath(), local);
+	}
+
+	/**
+	 * Replace this file with a local file written as several byte ranges at the same time.
+	 * The size of the result is verified, use factory.newSegmentedTransfer() for hash verification.
+	 *  
+	 * @param local the file to read
+	 * @param segments maximum number of ranges written at the same time
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public long uploadFrom(Path local, int segments) throws IOException {
+		return uploadFrom(local, segments, false);
+	}
+
+	/**
+	 * Replace this file with a local file written as several byte ranges at the same time.
+	 *  
+	 * @param local the file to read
+	 * @param segments maximum number of ranges written at the same time
+	 * @param resumable keep a journal next to local so an interrupted upload continues where it stopped
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public long uploadFrom(Path local, int segments, boolean resumable) throws IOException {
+		try {
+			return factory.newSegmentedTransfer().setSegments(segments).setResumable(resumable)
+					.upload(local, getAbsolutePath());
+		} finally {
+			attr = null;
+			parentChanged();
+		}
+	}
+
+	/**
+	 * @return a non blocking view of this file.
+	 */
+	public SftpAsyncFileSource async() {
+		return new SftpAsyncFileSource(factory, path);
+	}
+
 	private synchronized SftpFileSource[] getKids(ProgressMonitor monitor) throws IOException {
 		if( monitor != null) monitor.setProgress(0);
 		if( kids == null ) {
 			List<FileSource> list = new ArrayList<FileSource>();
-			if( !isFile() ) {
+			Map<String, SftpATTRS> indexed = null;
+			if( mayBeDirectory() ) {
+				// a listing from the metadata index saves the READDIR round trips
+				indexed = factory.indexedListing(path);
+				if( indexed != null ) {
+					for (Map.Entry<String, SftpATTRS> e : indexed.entrySet()) {
+						SftpFileSource f = new SftpFileSource(factory, this, e.getKey());
+						f.setAttr(e.getValue());
+						list.add(f);
+					}
+					kids = list.toArray(new SftpFileSource[list.size()]);
+				}
+			}
+			// Only a known file is skipped, anything else goes straight to OPENDIR (no stat). 
+			if( indexed == null && mayBeDirectory() ) {
 				// if it's not a file it may be a directory or a new / non existing entry
 				try {
-					Vector<LsEntry> ls = factory.ls(path);
+					Vector<LsEntry> ls = factory.lsDirectory(path);
 					int cnt = 0;
+					boolean isDir = false;
+					for (LsEntry e : ls) {
+						if( e.getFilename().equals(".")) {
+							isDir = true;
+							break;
+						}
+					}
 					for (LsEntry e : ls) {
 						cnt++;
 						
 						//System.out.println("name ="+e.getFilename());
-						if( ! (e.getFilename().equals(".") || e.getFilename().equals(".."))) {
+						// without "." this was a listing of a file (ls fallback), files have no children
+						if( isDir && ! (e.getFilename().equals(".") || e.getFilename().equals(".."))) {
 							list.add(new SftpFileSource(factory, this,e));
 						}
 						if( monitor != null) monitor.setProgress((cnt/ls.size())*monitor.getMaximum());
@@ -322,11 +515,28 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		return kids;
 	}
 
+	/**
+	 * A symbolic link is listed as its target (OPENDIR follows it) whether or not the 
+	 * attributes are loaded, only something known to be neither a directory nor a link is skipped.
+	 */
+	private boolean mayBeDirectory() {
+		return attr == null || attr.isDir() || attr.isLink();
+	}
+
 	private synchronized void clearAttr()  {
 		attr = null;
 	}
 
-	private synchronized SftpATTRS getAttr() throws IOException {
+	/**
+	 * Set the attributes from a batch lstat
+	 * @param attr null if the file does not exist
+	 */
+	synchronized void setAttr(SftpATTRS attr)  {
+		this.attr = attr;
+		this.exists = attr != null;
+	}
+
+	synchronized SftpATTRS getAttr() throws IOException {
 		if( attr == null ) {
 			try {
 				attr = factory.lstat(path);
@@ -509,63 +719,59 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		if( path.endsWith("/")) {
 			path = path.substring(0, path.length()-1);
 		}
-		String parts [] = path.split("[/]");
-		SftpFileSource ret = findChild(parts[0]);
-		// does it exist?
-
-		ret = new SftpFileSource(factory,this,parts[0]);
-		for(int idx=1; idx < parts.length; idx++ ) {
-			ret = new SftpFileSource(factory,ret,parts[idx]);
+		// purely lexical, nothing is sent to the server until an attribute is needed 
+		SftpFileSource ret = this;
+		for(String part : path.split("[/]")) {
+			if( !part.isEmpty()) {
+				SftpFileSource child = ret.findCachedChild(part);
+				ret = child != null ? child : new SftpFileSource(factory,ret,part);
+			}
 		}
 
 		return ret;
 	}
 
-
-	private void addChild(SftpFileSource child) throws IOException {
-		kids = null;
-		/*
-		getKids();
-		SftpFileSource tmp[] = new SftpFileSource[kids.length+1];
-		for (int idx = 0; idx < kids.length; idx++) {
-			tmp[idx] = kids[idx];
-		}
-		tmp[kids.length] = child;
-		kids = tmp;
-		 */
-	}
-
-	private SftpFileSource findChild(String name) throws IOException {
+	/**
+	 * 
+	 * @param name
+	 * @return the child from the last listing of this directory or null if it has not been listed.
+	 */
+	private synchronized SftpFileSource findCachedChild(String name) {
 		SftpFileSource ret = null;
-		for (SftpFileSource f : getKids(null)) {
-			if( f.getName().equals(name) ) {
-				ret = f;
-				break;
+		if( kids != null ) {
+			for (SftpFileSource f : kids) {
+				if( f.getName().equals(name) ) {
+					ret = f;
+					break;
+				}
 			}
 		}
 
 		return ret;
 	}
 
+	/**
+	 * Something was created / removed in the parent directory so its listing is out of date.
+	 */
+	private void parentChanged() {
+		FileSource p = getParentFile();
+		if (p instanceof SftpFileSource) {
+			((SftpFileSource) p).dereferenceChilderen();
+		}
+	}
+
 	@Override
 	public synchronized boolean delete() throws IOException {
 		boolean ret = false;
 		try {
-			ChannelSftp sftp = factory.getSftp_();
 			if( isDirectory() ) {
-				sftp.rmdir(path);
+				factory.rmdir(path);
 			} else {
-				sftp.rm(path);
+				factory.rm(path);
 			}
 			attr = null;
 			exists = null;
-			FileSource p = getParentFile();
-			if( p != null ) {
-
-				if (p instanceof SftpFileSource) {
-					((SftpFileSource) p).kids = null;					
-				}
-			}
+			parentChanged();
 			ret = true;
 		} catch (SftpException e) {
 			throw new IOException(e);
@@ -646,8 +852,23 @@ public class SftpFileSource extends BaseObject implements FileSource {
 
 	@Override
 	public synchronized  long length() throws IOException {
+		return length(false);
+	}
+
+	/**
+	 * 
+	 * @param fresh if true ask the server for the size, otherwise the attributes from the 
+	 * last lstat / directory listing are used (subject to the factory cache policy).
+	 * @return the size of the file or 0 if it does not exist.
+	 * @throws IOException
+	 */
+	public synchronized  long length(boolean fresh) throws IOException {
+		if( fresh ) {
+			attr = null;
+			exists = null;
+			factory.invalidate(path);
+		}
 		if( exists()) {
-			attr=null;
 			return getAttr().getSize();
 		} else {
 			return 0;
@@ -706,9 +927,10 @@ public class SftpFileSource extends BaseObject implements FileSource {
 	public synchronized  boolean mkdir() throws IOException {
 		boolean ret = false;
 		try {
-			factory.getSftp_().mkdir(path);
+			factory.mkdir(path);
 			attr =  null;
 			exists = null;
+			parentChanged();
 			ret = exists();
 		} catch (SftpException e) {
 			throw new IOException(e);
@@ -750,12 +972,13 @@ public class SftpFileSource extends BaseObject implements FileSource {
 
 
 					if( !(myName.equals("/") || yourName.equals("/") || myName.equals(yourName))) {
-						factory.getSftp_().rename(myName, yourName);
+						factory.rename(myName, yourName);
 						ret = true;
 						fs.attr =attr = null;
 						fs.exists = exists = null;
 						fs.kids = kids = null;
-						((SftpFileSource)getParentFile()).kids = null;
+						parentChanged();
+						fs.parentChanged();
 					}	
 				}
 			} catch (SftpException e) {
@@ -770,7 +993,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		boolean ret = false;
 		try {
 			int time2 = ((int)time/1000);
-			factory.getSftp_().setMtime(path, time2);
+			factory.setMtime(path, time2);
 			attr = null;
 			ret = getAttr().getMTime()==time2;
 			
@@ -912,6 +1135,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 	public  synchronized void refresh() throws IOException {
 		attr = null;
 		kids = null;
+		factory.invalidate(path);
 		getAttr();
 
 	}
@@ -964,22 +1188,10 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		if( principle == null && factory.isConnected() ) {
 			try {
 				// we need the user and group names
-				Vector<LsEntry> e1 = factory.ls(getAbsolutePath());
-				if( e1 !=null && e1.size()>0) {
-					LsEntry e = e1.get(0);
-					String tmp = e.toString();
-					while(tmp.indexOf("  ")>0) {
-						tmp = tmp.replaceAll("  ", " ");
-					}
-
-					String [] parts = tmp.split("\\s");
-					if( parts.length>=4) {
-						String user = parts[2];
-						String groupName = parts[3];
-						SftpATTRS a = getAttr();
-						FileSourceUser p = new FileSourceUser(a.getUId(),user,a.getGId(),groupName);
-						principle = p;
-					}
+				SftpATTRS a = getAttr();
+				if( a != null ) {
+					String [] names = factory.lookupNames(getAbsolutePath(), a.getUId(), a.getGId());
+					principle = new FileSourceUser(a.getUId(),names[0],a.getGId(),names[1]);
 				}
 
 			} catch (Throwable e) {
@@ -1027,7 +1239,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( p2 != perm) {								
-				factory.getSftp_().chmod(p2, path);
+				factory.chmod(p2, path);
 				attr = null;
 			}			
 			return true;
@@ -1048,7 +1260,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}			
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}		
 			return true;
@@ -1070,7 +1282,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}			
 			return true;
@@ -1138,7 +1350,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}						
 			return true;
@@ -1161,7 +1373,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}				
 			return true;
@@ -1183,7 +1395,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}			
 			return true;
@@ -1205,7 +1417,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}			
 			return true;
@@ -1228,7 +1440,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}			
 			return true;
@@ -1251,7 +1463,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 			}
 
 			if( r2 != perm) {								
-				factory.getSftp_().chmod(r2, path);
+				factory.chmod(r2, path);
 				attr = null;
 			}			
 			return true;
@@ -1291,7 +1503,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		boolean ret = false;
 		try {
 			int time2 = ((int)time/1000);
-			factory.getSftp_().setAtime(getAbsolutePath(), time2);			
+			factory.setAtime(getAbsolutePath(), time2);			
 			attr = null;
 			ret = getAttr().getATime() == time2;;
 		} catch (SftpException  e) {
@@ -1312,10 +1524,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		if (group instanceof FileSourceGroup) {
 			int gid =  ((FileSourceGroup) group).getId();
 			try {
-				factory.getSftp_().
-				chgrp(gid, 
-						getAbsolutePath()
-						);
+				factory.chgrp(gid, getAbsolutePath());
 				return true;
 			} catch (SftpException e) {
 				throw new IOException(e);
@@ -1329,7 +1538,7 @@ public class SftpFileSource extends BaseObject implements FileSource {
 		if (owner instanceof FileSourceUser) {
 			int uid = ((FileSourceUser) owner).getId();
 			try {
-				factory.getSftp_().chown(uid, getAbsolutePath());
+				factory.chown(uid, getAbsolutePath());
 				return true;
 			} catch (SftpException e) {
 				throw new IOException(e);
@@ -26,14 +26,31 @@
 package us.bringardner.io.filesource.sftp;
 
 import java.awt.Component;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
@@ -64,8 +81,55 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 	public static final String PROP_PRIVATE_KEY_FILE_NAME = "identityFile";
 	public static final String PROP_PRIVATE_KEY = "privateKey";
 	public static final String PROP_PASSWORD = "password";
+	public static final String PROP_MIN_CHANNELS = "minChannels";
+	public static final String PROP_MAX_CHANNELS = "maxChannels";
+	public static final String PROP_CHANNEL_WAIT_TIMEOUT = "channelWaitTimeout";
+	public static final String PROP_SESSION_COUNT = "sessionCount";
+	public static final String PROP_MULTIPLEXED = "multiplexed";
+	public static final String PROP_ATTRIBUTE_CACHE_MODE = "attributeCacheMode";
+	public static final String PROP_ATTRIBUTE_CACHE_TTL = "attributeCacheTtl";
+	public static final String PROP_ATTRIBUTE_CACHE_SIZE = "attributeCacheSize";
+	public static final String PROP_NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+	public static final String PROP_NEGATIVE_CACHE_SIZE = "negativeCacheSize";
+	public static final String PROP_READDIR_DEPTH = "readdirDepth";
+	public static final int DEFAULT_READDIR_DEPTH = 1;
+	public static final String PROP_STAT_WINDOW = "statWindow";
+	public static final int DEFAULT_STAT_WINDOW = 256;
+	public static final String PROP_READ_AHEAD_DEPTH = "readAheadDepth";
+	public static final int DEFAULT_READ_AHEAD_DEPTH = 16;
+	public static final String PROP_READ_REQUEST_SIZE = "readRequestSize";
+	public static final String PROP_ADAPTIVE_READ_AHEAD = "adaptiveReadAhead";
+	public static final String PROP_PACKET_SIZE = "packetSize";
+	public static final int DEFAULT_PACKET_SIZE = 32*1024;
+	public static final String PROP_WINDOW_SIZE = "windowSize";
+	public static final int DEFAULT_WINDOW_SIZE = 64*DEFAULT_PACKET_SIZE;
+	public static final String PROP_MAX_MESSAGE_LENGTH = "maxMessageLength";
+	public static final int DEFAULT_MAX_MESSAGE_LENGTH = 256*1024;
+	public static final String PROP_LINK_PROFILE = "linkProfile";
+	public static final String PROP_LINK_BANDWIDTH = "linkBandwidth";
+	public static final int DEFAULT_LINK_BANDWIDTH = 1000;
+	public static final String PROP_INDEX_DIRECTORY = "indexDirectory";
+	public static final String PROP_INDEX_VALIDATION = "indexValidation";
 	public static final int DEFAULT_PORT = 22;
 
+	/**
+	 * DEFAULT uses packetSize, windowSize and the read-ahead settings as they are.
+	 * 
+	 * HIGH_BDP is for fast links with a long round trip (1 Gbps between regions...). 
+	 * When a session is created the round trip time is measured and the window of every channel 
+	 * is sized to twice linkBandwidth * RTT, packets are at least 128K and input streams use adaptive 
+	 * read-ahead deep enough to fill the window.
+	 * A channel may buffer up to its window on the heap, so the windows of all the pooled channels 
+	 * (maxChannels * sessionCount) together are capped at 64M.
+	 */
+	public enum LinkProfile {
+		DEFAULT,
+		HIGH_BDP
+	}
+	private static final int HIGH_BDP_PACKET_SIZE = 128*1024;
+	// heap the HIGH_BDP windows of all the pooled channels may use together
+	private static final int HIGH_BDP_WINDOW_BUDGET = 64*1024*1024;
+
 	/**
 	 * This code was taken from sun.nio.fs.UnixFileModeAttribute
 	 */
@@ -96,19 +160,111 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 		return mode;
 	}
 
-	private static class SftpSession {
+	// ms before a failed id is run again
+	static long PRINCIPLE_RETRY = 60000;
+	// ms to wait for an exec channel to close after its output ends
+	private static final long EXEC_CLOSE_TIMEOUT = 2000;
+	private static final int MAX_EXEC_ERROR_TEXT = 4096;
+
+	// runs the id command for new sessions and the segments of a transfer, kept off the common pool because they block on the network 
+	private static ExecutorService backgroundExecutor;
+
+	static synchronized ExecutorService getBackgroundExecutor() {
+		if( backgroundExecutor == null ) {
+			backgroundExecutor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "sftp-session");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return backgroundExecutor;
+	}
+
+	static class SftpSession {
 		@SuppressWarnings("unused")
 		String key;
 		Session session;
 		ChannelSftp sftp;
+		SftpChannelPool pool;
+		// shared by all threads, replies are routed by request id
+		ChannelSftp multiplexed;
+		SftpAttributeCache attributeCache;
+		SftpMetadataIndex index;
+		SftpNameCache names = new SftpNameCache();
+		// the remote user (output of id), fetched in the background when the session is created
+		CompletableFuture<FileSourceUser> principle;
+		// when id last failed
+		volatile long principleFailed;
+		// directory -> time its index entries were last checked against the server
+		Map<String, Long> validatedDirs = new ConcurrentHashMap<>();
+		// packet / window sizes for new channels
+		SftpChannelPool.ChannelConfigurer configurer;
+		// limits@openssh.com reply, read once at connect (null if the server doesn't have it)
+		long [] serverLimits;
 		int isSession = 0;
 
-		public SftpSession(String key,Session session, ChannelSftp sftp) {
+		public SftpSession(String key,Session session, ChannelSftp sftp, SftpChannelPool pool, SftpAttributeCache attributeCache) {
 			this.key = key;
 			this.session = session;
 			this.sftp = sftp;
+			this.pool = pool;
+			this.attributeCache = attributeCache;
+		}
+
+		/**
+		 * id is run once per session.  If it fails (no exec, no id command, a dropped channel) the future 
+		 * completes with null and id is run again by the first call after PRINCIPLE_RETRY ms.
+		 * 
+		 * @return the remote user
+		 */
+		synchronized CompletableFuture<FileSourceUser> getPrinciple() {
+			if( principle != null && principle.isDone() && principle.getNow(null) == null 
+					&& System.currentTimeMillis()-principleFailed >= PRINCIPLE_RETRY ) {
+				principle = null;
+			}
+			if( principle == null ) {
+				principle = CompletableFuture.supplyAsync(() -> {
+					FileSourceUser ret = null;
+					try {
+						ret = FileSourceUser.fromId(runCommand(session, "id"));
+					} catch (IOException | RuntimeException e) {
+					}
+					if( ret == null ) {
+						principleFailed = System.currentTimeMillis();
+					}
+					return ret;
+				}, getBackgroundExecutor());
+			}
+			return principle;
 		}
 
+		synchronized ChannelSftp getMultiplexed() throws IOException {
+			if( multiplexed == null || !multiplexed.isDispatcherRunning()) {
+				if( multiplexed != null ) {
+					multiplexed.disconnect();
+				}
+				try {
+					ChannelSftp tmp = (ChannelSftp) session.openChannel("sftp");
+					if( configurer != null ) {
+						configurer.configure(tmp);
+					}
+					tmp.connect();
+					tmp.startDispatcher();
+					multiplexed = tmp;
+				} catch (JSchException | SftpException e) {
+					multiplexed = null;
+					throw new IOException(e);
+				}
+			}
+			return multiplexed;
+		}
+
+		synchronized void closeMultiplexed() {
+			if( multiplexed != null ) {
+				multiplexed.disconnect();
+				multiplexed = null;
+			}
+		}
 
 	}
 
@@ -125,6 +281,33 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 	private int port = DEFAULT_PORT;
 	private Session session;
 	private ChannelSftp sftp;
+	private SftpChannelPool pool;
+	private int minChannels = SftpChannelPool.DEFAULT_MIN_CHANNELS;
+	private int maxChannels = SftpChannelPool.DEFAULT_MAX_CHANNELS;
+	private long channelWaitTimeout = SftpChannelPool.DEFAULT_BORROW_TIMEOUT;
+	private int sessionCount = 1;
+	private boolean multiplexed = false;
+	private SftpSession entry;
+	private SftpAttributeCache attributeCache;
+	private SftpAttributeCache.Consistency attributeCacheMode = SftpAttributeCache.Consistency.STRICT;
+	private long attributeCacheTtl = SftpAttributeCache.DEFAULT_TTL;
+	private int attributeCacheSize = SftpAttributeCache.DEFAULT_MAX_ENTRIES;
+	private long negativeCacheTtl = 0;
+	private int negativeCacheSize = SftpAttributeCache.DEFAULT_MAX_MISSING;
+	private int readdirDepth = DEFAULT_READDIR_DEPTH;
+	private int statWindow = DEFAULT_STAT_WINDOW;
+	private int readAheadDepth = DEFAULT_READ_AHEAD_DEPTH;
+	private int readRequestSize = 0;
+	private boolean adaptiveReadAhead = false;
+	private int packetSize = DEFAULT_PACKET_SIZE;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private int maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
+	private LinkProfile linkProfile = LinkProfile.DEFAULT;
+	private int linkBandwidth = DEFAULT_LINK_BANDWIDTH;
+	private String indexDirectory;
+	private SftpMetadataIndex.Validation indexValidation = SftpMetadataIndex.Validation.DIRECTORY_MTIME;
+	private SftpMetadataIndex index;
+	private SftpNameCache names;
 
 	private FileSource[] roots;
 	private FileSource currentDir;
@@ -167,51 +350,724 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 			}
 			host = host.substring(0, idx-1);
 		}
-
-		this.host = host;
+
+		this.host = host;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public Session getSession() throws IOException {
+		if( !isConnected()) {
+			connect();
+		}
+
+		return session;
+	}
+
+	public ChannelSftp getSftp_() throws IOException {
+		if (!isConnected()) {
+			connect();
+		}
+		return sftp;
+	}
+
+	public void setSession(Session session) {
+		this.session = session;
+	}
+
+	public int getMinChannels() {
+		return minChannels;
+	}
+
+	/**
+	 * Number of sftp channels opened when a session is created.
+	 * Only used when this factory creates the session.
+	 * 
+	 * @param minChannels
+	 */
+	public void setMinChannels(int minChannels) {
+		this.minChannels = minChannels;
+	}
+
+	public int getMaxChannels() {
+		return maxChannels;
+	}
+
+	/**
+	 * Maximum number of sftp channels in use at one time on each session, 
+	 * so the total is maxChannels * sessionCount.
+	 * Only used when this factory creates the session.
+	 * 
+	 * @param maxChannels
+	 */
+	public void setMaxChannels(int maxChannels) {
+		this.maxChannels = maxChannels;
+	}
+
+	public long getChannelWaitTimeout() {
+		return channelWaitTimeout;
+	}
+
+	/**
+	 * How long (ms) a thread will wait for a channel when all of them are in use.
+	 * 
+	 * @param channelWaitTimeout
+	 */
+	public void setChannelWaitTimeout(long channelWaitTimeout) {
+		this.channelWaitTimeout = channelWaitTimeout;
+	}
+
+	public int getSessionCount() {
+		return sessionCount;
+	}
+
+	/**
+	 * Number of parallel SSH connections to open to the host. 
+	 * Channels (and so metadata calls and transfers) are spread across the connections by load.
+	 * Each connection has its own flow control window so high latency links can carry more data.
+	 * Only used when this factory creates the session.
+	 *  
+	 * @param sessionCount
+	 */
+	public void setSessionCount(int sessionCount) {
+		if( sessionCount < 1 ) {
+			throw new IllegalArgumentException("sessionCount must be greater than 0 ("+sessionCount+")");
+		}
+		this.sessionCount = sessionCount;
+	}
+
+	/**
+	 * 
+	 * @return the pool of sftp channels shared by all factories using this session.
+	 * @throws IOException
+	 */
+	public SftpChannelPool getChannelPool() throws IOException {
+		if (!isConnected()) {
+			connect();
+		}
+		return pool;
+	}
+
+	public boolean isMultiplexed() {
+		return multiplexed;
+	}
+
+	/**
+	 * If true, single request operations (lstat, readlink) are sent on one shared channel
+	 * that keeps many requests in flight instead of borrowing a channel from the pool.
+	 * 
+	 * @param multiplexed
+	 */
+	public void setMultiplexed(boolean multiplexed) {
+		this.multiplexed = multiplexed;
+	}
+
+	public SftpAttributeCache.Consistency getAttributeCacheMode() {
+		return attributeCacheMode;
+	}
+
+	/**
+	 * STRICT (the default) always asks the server, neither the attribute cache nor the metadata index is used.
+	 * TTL uses cached attributes for attributeCacheTtl ms.
+	 * SESSION uses cached attributes until they are changed through this session.
+	 * 
+	 * @param attributeCacheMode
+	 */
+	public void setAttributeCacheMode(SftpAttributeCache.Consistency attributeCacheMode) {
+		if( attributeCacheMode == null ) {
+			throw new IllegalArgumentException("attributeCacheMode can't be null");
+		}
+		this.attributeCacheMode = attributeCacheMode;
+	}
+
+	public long getAttributeCacheTtl() {
+		return attributeCacheTtl;
+	}
+
+	public void setAttributeCacheTtl(long attributeCacheTtl) {
+		this.attributeCacheTtl = attributeCacheTtl;
+	}
+
+	public int getAttributeCacheSize() {
+		return attributeCacheSize;
+	}
+
+	/**
+	 * Maximum number of cached paths. Only used when the session is created.
+	 *   
+	 * @param attributeCacheSize
+	 */
+	public void setAttributeCacheSize(int attributeCacheSize) {
+		if( attributeCacheSize < 1 ) {
+			throw new IllegalArgumentException("attributeCacheSize must be greater than 0 ("+attributeCacheSize+")");
+		}
+		this.attributeCacheSize = attributeCacheSize;
+	}
+
+	public long getNegativeCacheTtl() {
+		return negativeCacheTtl;
+	}
+
+	/**
+	 * ms a path that was not found is reported missing without asking the server.
+	 * 0 (the default) disables the negative cache.
+	 * A path is removed from the negative cache when it's created through this session. 
+	 *  
+	 * @param negativeCacheTtl
+	 */
+	public void setNegativeCacheTtl(long negativeCacheTtl) {
+		this.negativeCacheTtl = negativeCacheTtl;
+	}
+
+	public int getNegativeCacheSize() {
+		return negativeCacheSize;
+	}
+
+	/**
+	 * Maximum number of paths remembered as missing. Only used when the session is created.
+	 *   
+	 * @param negativeCacheSize
+	 */
+	public void setNegativeCacheSize(int negativeCacheSize) {
+		if( negativeCacheSize < 1 ) {
+			throw new IllegalArgumentException("negativeCacheSize must be greater than 0 ("+negativeCacheSize+")");
+		}
+		this.negativeCacheSize = negativeCacheSize;
+	}
+
+	public int getReaddirDepth() {
+		return readdirDepth;
+	}
+
+	/**
+	 * Number of SSH_FXP_READDIR requests kept in flight when a directory is listed. 
+	 * 1 (the default) waits for each batch of names before asking for the next.
+	 *  
+	 * @param readdirDepth
+	 */
+	public void setReaddirDepth(int readdirDepth) {
+		if( readdirDepth < 1 ) {
+			throw new IllegalArgumentException("readdirDepth must be greater than 0 ("+readdirDepth+")");
+		}
+		this.readdirDepth = readdirDepth;
+	}
+
+	public int getStatWindow() {
+		return statWindow;
+	}
+
+	/**
+	 * Maximum number of LSTAT requests in flight during statAll.
+	 * 
+	 * @param statWindow
+	 */
+	public void setStatWindow(int statWindow) {
+		if( statWindow < 1 ) {
+			throw new IllegalArgumentException("statWindow must be greater than 0 ("+statWindow+")");
+		}
+		this.statWindow = statWindow;
+	}
+
+	public int getReadAheadDepth() {
+		return readAheadDepth;
+	}
+
+	/**
+	 * Maximum number of READ requests in flight for each input stream.
+	 * 
+	 * @param readAheadDepth
+	 */
+	public void setReadAheadDepth(int readAheadDepth) {
+		if( readAheadDepth < 1 ) {
+			throw new IllegalArgumentException("readAheadDepth must be greater than 0 ("+readAheadDepth+")");
+		}
+		this.readAheadDepth = readAheadDepth;
+	}
+
+	public int getReadRequestSize() {
+		return readRequestSize;
+	}
+
+	/**
+	 * Bytes asked for by each READ of an input stream, 0 (the default) uses the local packet size. 
+	 * Larger requests only help when the server allows them (OpenSSH allows 255K).
+	 * 
+	 * @param readRequestSize
+	 */
+	public void setReadRequestSize(int readRequestSize) {
+		if( readRequestSize < 0 ) {
+			throw new IllegalArgumentException("readRequestSize can't be negative ("+readRequestSize+")");
+		}
+		this.readRequestSize = readRequestSize;
+	}
+
+	public boolean isAdaptiveReadAhead() {
+		return adaptiveReadAhead;
+	}
+
+	/**
+	 * When true the number of READ requests in flight (up to readAheadDepth) follows the 
+	 * measured round trip time and throughput instead of ramping straight up to readAheadDepth.
+	 * 
+	 * @param adaptiveReadAhead
+	 */
+	public void setAdaptiveReadAhead(boolean adaptiveReadAhead) {
+		this.adaptiveReadAhead = adaptiveReadAhead;
+	}
+
+	public int getPacketSize() {
+		return packetSize;
+	}
+
+	/**
+	 * Largest SSH channel data packet the server may send on a channel. Only used when the session is created.
+	 * 
+	 * @param packetSize
+	 */
+	public void setPacketSize(int packetSize) {
+		if( packetSize < DEFAULT_PACKET_SIZE || packetSize > ChannelSftp.MAX_LOCAL_PACKET_SIZE ) {
+			throw new IllegalArgumentException("packetSize must be between "+DEFAULT_PACKET_SIZE+" and "+ChannelSftp.MAX_LOCAL_PACKET_SIZE+" ("+packetSize+")");
+		}
+		this.packetSize = packetSize;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * SSH channel window, the bytes the server may send on a channel before it waits for us. 
+	 * To keep a link busy this must be at least bandwidth * round trip time. 
+	 * Each channel may buffer this much on the heap, so a session may use windowSize * maxChannels * sessionCount 
+	 * (plus the primary and multiplexed channels).  Only used when the session is created.
+	 * 
+	 * @param windowSize
+	 */
+	public void setWindowSize(int windowSize) {
+		if( windowSize < DEFAULT_PACKET_SIZE || windowSize > ChannelSftp.MAX_LOCAL_WINDOW_SIZE ) {
+			throw new IllegalArgumentException("windowSize must be between "+DEFAULT_PACKET_SIZE+" and "+ChannelSftp.MAX_LOCAL_WINDOW_SIZE+" ("+windowSize+")");
+		}
+		this.windowSize = windowSize;
+	}
+
+	public int getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	/**
+	 * Largest sftp message accepted from the server. Must hold the reply to a READ of readRequestSize.
+	 * Only used when the session is created.
+	 * 
+	 * @param maxMessageLength
+	 */
+	public void setMaxMessageLength(int maxMessageLength) {
+		if( maxMessageLength < DEFAULT_PACKET_SIZE ) {
+			throw new IllegalArgumentException("maxMessageLength must be at least "+DEFAULT_PACKET_SIZE+" ("+maxMessageLength+")");
+		}
+		this.maxMessageLength = maxMessageLength;
+	}
+
+	public LinkProfile getLinkProfile() {
+		return linkProfile;
+	}
+
+	public void setLinkProfile(LinkProfile linkProfile) {
+		if( linkProfile == null ) {
+			throw new IllegalArgumentException("linkProfile can't be null");
+		}
+		this.linkProfile = linkProfile;
+	}
+
+	public int getLinkBandwidth() {
+		return linkBandwidth;
+	}
+
+	/**
+	 * 
+	 * @param linkBandwidth expected bandwidth in Mbit/s, used to size the window of the HIGH_BDP profile
+	 */
+	public void setLinkBandwidth(int linkBandwidth) {
+		if( linkBandwidth < 1 ) {
+			throw new IllegalArgumentException("linkBandwidth must be greater than 0 ("+linkBandwidth+")");
+		}
+		this.linkBandwidth = linkBandwidth;
+	}
+
+	/**
+	 * The window for the HIGH_BDP profile, twice linkBandwidth * the round trip time
+	 * but no more than each pooled channel's share of HIGH_BDP_WINDOW_BUDGET.
+	 * 
+	 * @param channel a connected channel used to time a few round trips
+	 * @param min 
+	 * @return the window size
+	 */
+	private int highBdpWindow(ChannelSftp channel, int min) {
+		long rtt = Long.MAX_VALUE;
+		for (int idx = 0; idx < 3; idx++) {
+			long start = System.nanoTime();
+			try {
+				channel.realpath(".");
+			} catch (SftpException e) {
+				logError("Can't measure the round trip time", e);
+				return min;
+			}
+			rtt = Math.min(rtt, System.nanoTime()-start);
+		}
+		// Mbit/s -> bytes/s * seconds 
+		double bdp = linkBandwidth*125000.0*rtt/1000000000.0;
+		long share = HIGH_BDP_WINDOW_BUDGET/((long)maxChannels*sessionCount);
+		int ret = (int)Math.max(min, Math.min(share, 2*bdp));
+		logDebug("rtt="+(rtt/1000000.0)+"ms window="+ret);
+		return ret;
+	}
+
+	/**
+	 * Open path for reading on channel with this factory's read-ahead settings.
+	 * 
+	 * @param channel a channel borrowed from the pool
+	 * @param path
+	 * @param skip offset of the first byte
+	 * @return the stream, it MUST be closed before the channel is used for anything else 
+	 * @throws SftpException
+	 * @throws IOException
+	 */
+	public InputStream openInputStream(ChannelSftp channel, String path, long skip) throws SftpException, IOException {
+		int requestSize = readRequestSize;
+		int depth = readAheadDepth;
+		boolean adaptive = adaptiveReadAhead;
+		int size = requestSize > 0 ? requestSize : channel.getLocalPacketSize()-13;
+
+		// never ask for more than the server will send or we will accept
+		SftpSession current = entry;
+		long [] limits = current == null ? null : current.serverLimits;
+		if( limits != null && limits[1] > 0 && size > limits[1]) {
+			size = requestSize = (int)limits[1];
+		}
+		if( size+13 > channel.getMaxMessageLength()) {
+			size = requestSize = channel.getMaxMessageLength()-13;
+		}
+
+		if( linkProfile == LinkProfile.HIGH_BDP ) {
+			// enough requests to fill the window
+			adaptive = true;
+			depth = Math.max(depth, (channel.getLocalWindowSize()+size-1)/size);
+		}
+
+		try {
+			channel.setReadAhead(depth, requestSize, adaptive);
+		} catch (JSchException e) {
+			throw new IOException(e);
+		}
+		return channel.get(path, null, skip);
+	}
+
+	public String getIndexDirectory() {
+		return indexDirectory;
+	}
+
+	/**
+	 * Directory for the on disk metadata index (one file per session key). 
+	 * null or empty (the default) disables the index.  Only used when the session is created.  
+	 * The index is only read when attributeCacheMode is not STRICT, it is still kept up to date in STRICT mode.
+	 * 
+	 * @param indexDirectory
+	 */
+	public void setIndexDirectory(String indexDirectory) {
+		this.indexDirectory = indexDirectory;
+	}
+
+	public SftpMetadataIndex.Validation getIndexValidation() {
+		return indexValidation;
+	}
+
+	public void setIndexValidation(SftpMetadataIndex.Validation indexValidation) {
+		if( indexValidation == null ) {
+			throw new IllegalArgumentException("indexValidation can't be null");
+		}
+		this.indexValidation = indexValidation;
+	}
+
+	/**
+	 * Resolve a uid and gid to the user and group names.
+	 * 
+	 * Names are cached for the session. On a miss the users-groups-by-id@openssh.com extension 
+	 * is used when the server has it, otherwise the names are parsed from an ls of path.
+	 *  
+	 * @param path a file owned by uid and gid (used when the extension is not available)
+	 * @param uid
+	 * @param gid
+	 * @return {user, group}, the number is used when a name can't be found
+	 * @throws IOException
+	 */
+	public String[] lookupNames(String path, int uid, int gid) throws IOException {
+		SftpNameCache n = names;
+		if( n == null ) {
+			throw new IOException("Not connected");
+		}
+		String user = n.getUserName(uid);
+		String group = n.getGroupName(gid);
+		if( user == null || group == null ) {
+			try {
+				String [][] found = execute(c -> c.isUsersGroupsByIdSupported() 
+						? c.usersGroupsById(new int[] {uid}, new int[] {gid}) : null);
+				if( found != null ) {
+					n.putUser(uid, found[0][0]);
+					n.putGroup(gid, found[1][0]);
+				} else if( path != null ) {
+					ls(path);
+				}
+			} catch (SftpException e) {
+				logError("Can't lookup names for uid="+uid+" gid="+gid, e);
+			}
+			user = n.getUserName(uid);
+			group = n.getGroupName(gid);
+		}
+		return new String[] {
+				user == null ? String.valueOf(uid) : user,
+				group == null ? String.valueOf(gid) : group
+		};
+	}
+
+	/**
+	 * @return the uid / gid names for this session or null if not connected.
+	 */
+	SftpNameCache getNameCache() {
+		return names;
+	}
+
+	/**
+	 * @return the metadata index for this session or null if there is none.
+	 */
+	public SftpMetadataIndex getMetadataIndex() {
+		return index;
+	}
+
+	/**
+	 * Write the metadata index now (it's also written when the last factory using the session disconnects).
+	 * 
+	 * @throws IOException
+	 */
+	public void saveMetadataIndex() throws IOException {
+		SftpMetadataIndex i = index;
+		if( i != null ) {
+			i.save();
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return attributes from the index that can be used under the validation policy or null 
+	 */
+	private SftpATTRS indexedAttrs(String path) throws IOException {
+		SftpMetadataIndex i = index;
+		if( i == null || !isIndexReadable() || i.get(path) == null ) {
+			return null;
+		}
+		if( indexValidation == SftpMetadataIndex.Validation.DIRECTORY_MTIME ) {
+			String parent = parentOf(path);
+			if( parent == null || !isValidDirectory(parent)) {
+				return null;
+			}
+		}
+		// validation may have removed it
+		return i.get(path);
+	}
+
+	/**
+	 * 
+	 * @param dir
+	 * @return the children of dir from the index (name -> attributes) or null if the index can't be used.
+	 * @throws IOException
+	 */
+	Map<String, SftpATTRS> indexedListing(String dir) throws IOException {
+		SftpMetadataIndex i = index;
+		if( i == null || !isIndexReadable() || i.getChildren(dir) == null ) {
+			return null;
+		}
+		if( indexValidation == SftpMetadataIndex.Validation.DIRECTORY_MTIME && !isValidDirectory(dir)) {
+			return null;
+		}
+		List<String> names = i.getChildren(dir);
+		if( names == null ) {
+			return null;
+		}
+		Map<String, SftpATTRS> ret = new LinkedHashMap<>();
+		for (String name : names) {
+			SftpATTRS a = i.get(childPath(dir, name));
+			if( a == null ) {
+				// changed under us
+				return null;
+			}
+			ret.put(name, a);
+		}
+		return ret;
+	}
+
+	/**
+	 * STRICT always asks the server so the index is not used for lookups.
+	 */
+	private boolean isIndexReadable() {
+		return attributeCacheMode != SftpAttributeCache.Consistency.STRICT;
+	}
+
+	/**
+	 * Check that the index entries below dir are still good by comparing the mtime of dir. 
+	 * If it changed everything below dir is dropped from the index.
+	 * The check is repeated after attributeCacheTtl ms in TTL mode and done once per session in SESSION mode.
+	 *  
+	 * @param dir
+	 * @return false if the directory does not exist any more
+	 */
+	private boolean isValidDirectory(String dir) throws IOException {
+		SftpSession e = entry;
+		if( e == null ) {
+			return false;
+		}
+		Long checked = e.validatedDirs.get(dir);
+		if( checked != null && (attributeCacheMode == SftpAttributeCache.Consistency.SESSION 
+				|| System.currentTimeMillis()-checked <= attributeCacheTtl)) {
+			return true;
+		}
+		try {
+			SftpATTRS a = execute(c -> c.lstat(dir));
+			if( index.getMTime(dir) != a.getMTime()) {
+				index.removeChildren(dir);
+				index.put(dir, a);
+			}
+			e.validatedDirs.put(dir, System.currentTimeMillis());
+			return true;
+		} catch (SftpException ex) {
+			if( ex.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				index.removeTree(dir);
+				return false;
+			}
+			throw new IOException(ex);
+		}
 	}
 
-	public String getUser() {
-		return user;
+	private static String parentOf(String path) {
+		int idx = path.lastIndexOf('/');
+		if( idx < 0 || path.equals("/")) {
+			return null;
+		}
+		return idx == 0 ? "/" : path.substring(0, idx);
 	}
 
-	public void setUser(String user) {
-		this.user = user;
+	/**
+	 * Forget the cached attributes of path.
+	 *  
+	 * @param path
+	 */
+	public void invalidate(String path) {
+		SftpAttributeCache c = attributeCache;
+		if( c != null ) {
+			c.invalidate(path);
+		}
+		SftpMetadataIndex i = index;
+		if( i != null ) {
+			i.remove(path);
+		}
 	}
 
-	public String getPassword() {
-		return password;
+	/**
+	 * A child of path's parent was created, removed or renamed, forget the parent's 
+	 * cached attributes (its mtime and size changed).
+	 *  
+	 * @param path
+	 */
+	public void invalidateParent(String path) {
+		String parent = parentOf(path);
+		if( parent == null ) {
+			return;
+		}
+		SftpAttributeCache c = attributeCache;
+		if( c != null ) {
+			c.invalidate(parent);
+		}
+		SftpMetadataIndex i = index;
+		if( i != null ) {
+			i.remove(parent);
+		}
 	}
 
-	public void setPassword(String password) {
-		this.password = password;
+	/**
+	 * Forget the cached attributes of path and everything below it.
+	 *  
+	 * @param path
+	 */
+	public void invalidateTree(String path) {
+		SftpAttributeCache c = attributeCache;
+		if( c != null ) {
+			c.invalidateTree(path);
+		}
+		SftpMetadataIndex i = index;
+		if( i != null ) {
+			i.removeTree(path);
+		}
 	}
 
-	public int getPort() {
-		return port;
+	private boolean isCaching() {
+		return attributeCacheMode != SftpAttributeCache.Consistency.STRICT && attributeCache != null;
 	}
 
-	public void setPort(int port) {
-		this.port = port;
+	private static String childPath(String dir, String name) {
+		return dir.endsWith("/") ? dir+name : dir+"/"+name;
 	}
 
-	public Session getSession() throws IOException {
-		if( !isConnected()) {
+	/**
+	 * 
+	 * @return the channel shared by all factories using this session, replies are routed by request id 
+	 * so any number of threads can use the *Async methods at the same time.
+	 * @throws IOException
+	 */
+	public ChannelSftp getMultiplexedChannel() throws IOException {
+		if (!isConnected()) {
 			connect();
 		}
-
-		return session;
+		return entry.getMultiplexed();
 	}
 
-	public ChannelSftp getSftp_() throws IOException {
-		if (!isConnected()) {
-			connect();
-		}
-		return sftp;
+	/**
+	 * 
+	 * @param path
+	 * @return a non blocking view of path, requests are pipelined on the multiplexed channel.
+	 */
+	public SftpAsyncFileSource async(String path) {
+		return new SftpAsyncFileSource(this, path);
 	}
 
-	public void setSession(Session session) {
-		this.session = session;
+	/**
+	 * Borrow a channel from the pool, run the action and give the channel back.
+	 * 
+	 * @param action
+	 * @return the value returned by action
+	 * @throws IOException
+	 * @throws SftpException
+	 */
+	public <T> T execute(SftpChannelPool.ChannelAction<T> action) throws IOException, SftpException {
+		return getChannelPool().execute(action);
 	}
 
 
@@ -281,11 +1137,14 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 					}
 					session = current.session;
 					sftp = current.sftp;
+					pool = current.pool;
+					attributeCache = current.attributeCache;
+					index = current.index;
+					names = current.names;
+					entry = current;
 					current.isSession++;
 					ret = true;
 				} else {
-					String pw = getPassword();
-
 					logDebug("Connecting to "+key);
 					if( privateKey != null ) {
 						jsch.addIdentity(null, privateKey, null, null);
@@ -293,20 +1152,60 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 						jsch.addIdentity(privateKeyFileName);
 					}
 
-					session = jsch.getSession(getUser(), getHost(), getPort());
-
-					Properties prop = new Properties();
-					prop.put("StrictHostKeyChecking", "no");
-					if( pw != null ) {
-						session.setPassword(getPassword());
+					Session [] all = new Session[sessionCount];
+					try {
+						for (int idx = 0; idx < all.length; idx++) {
+							all[idx] = createSession();
+						}
+					} catch (JSchException e) {
+						for(Session s : all) {
+							if( s != null ) {
+								s.disconnect();
+							}
+						}
+						throw e;
 					}
-					session.setConfig(prop);
-					session.connect();
-
+					session = all[0];
+
+					int packet = packetSize;
+					int window = windowSize;
+					if( linkProfile == LinkProfile.HIGH_BDP ) {
+						packet = Math.max(packet, HIGH_BDP_PACKET_SIZE);
+						// time the round trip on a channel of its own, the window can't be changed once connected
+						ChannelSftp probe = (ChannelSftp) session.openChannel("sftp");
+						try {
+							probe.connect();
+							window = highBdpWindow(probe, Math.max(window, packet));
+						} finally {
+							probe.disconnect();
+						}
+					}
+					int p = packet;
+					int w = window;
+					int m = maxMessageLength;
+					SftpChannelPool.ChannelConfigurer configurer = c -> {
+						c.setPacketSizes(p, w);
+						c.setMaxMessageLength(m);
+					};
 					sftp = (ChannelSftp) session.openChannel("sftp");
+					configurer.configure(sftp);
 					sftp.connect();
+					pool = new SftpChannelPool(all, minChannels, maxChannels, channelWaitTimeout, configurer);
 					ret = true;
-					sessions.put(key, new SftpSession(key,session,sftp));
+					attributeCache = new SftpAttributeCache(attributeCacheSize, negativeCacheSize);
+					entry = new SftpSession(key,session,sftp,pool,attributeCache);
+					entry.configurer = configurer;
+					try {
+						entry.serverLimits = sftp.getServerLimits();
+					} catch (SftpException e) {
+						logDebug("Can't get server limits: "+e);
+					}
+					names = entry.names;
+					entry.getPrinciple();
+					if( indexDirectory != null && !indexDirectory.isEmpty()) {
+						index = entry.index = SftpMetadataIndex.forSession(new File(indexDirectory), key);
+					}
+					sessions.put(key, entry);
 				}
 			} catch (JSchException e) {
 				throw new IOException(e);
@@ -315,6 +1214,21 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 		return ret;
 	}
 
+	private Session createSession() throws JSchException {
+		Session ret = jsch.getSession(getUser(), getHost(), getPort());
+
+		Properties prop = new Properties();
+		prop.put("StrictHostKeyChecking", "no");
+		String pw = getPassword();
+		if( pw != null ) {
+			ret.setPassword(pw);
+		}
+		ret.setConfig(prop);
+		ret.connect();
+
+		return ret;
+	}
+
 	@Override
 	public Component getEditPropertiesComponent() {
 
@@ -327,14 +1241,30 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 			try {
 				SftpSession current = sessions.get(getSessionKey());
 				if( current != null && --current.isSession <=0) {
-					session.disconnect();
+					pool.close();
+					current.closeMultiplexed();
+					if( current.index != null ) {
+						try {
+							current.index.save();
+						} catch (IOException e) {
+							logDebug("Can't save index "+current.index.getFile(), e);
+						}
+					}
 					sftp.disconnect();
+					for(Session s : pool.getSessions()) {
+						s.disconnect();
+					}
 					sessions.remove(getSessionKey());
 				}
 			} catch (Exception e) {
 			}
 			session = null;
 			sftp = null;
+			pool = null;
+			entry = null;
+			attributeCache = null;
+			index = null;
+			names = null;
 		}
 
 	}
@@ -346,6 +1276,31 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 		ret.user = user;
 		ret.password = password;
 		ret.port = port;
+		ret.sessionKey = sessionKey;
+		ret.privateKey = privateKey;
+		ret.privateKeyFileName = privateKeyFileName;
+		ret.minChannels = minChannels;
+		ret.maxChannels = maxChannels;
+		ret.channelWaitTimeout = channelWaitTimeout;
+		ret.sessionCount = sessionCount;
+		ret.multiplexed = multiplexed;
+		ret.attributeCacheMode = attributeCacheMode;
+		ret.attributeCacheTtl = attributeCacheTtl;
+		ret.attributeCacheSize = attributeCacheSize;
+		ret.negativeCacheTtl = negativeCacheTtl;
+		ret.negativeCacheSize = negativeCacheSize;
+		ret.readdirDepth = readdirDepth;
+		ret.statWindow = statWindow;
+		ret.readAheadDepth = readAheadDepth;
+		ret.readRequestSize = readRequestSize;
+		ret.adaptiveReadAhead = adaptiveReadAhead;
+		ret.packetSize = packetSize;
+		ret.windowSize = windowSize;
+		ret.maxMessageLength = maxMessageLength;
+		ret.linkProfile = linkProfile;
+		ret.linkBandwidth = linkBandwidth;
+		ret.indexDirectory = indexDirectory;
+		ret.indexValidation = indexValidation;
 
 		return ret;
 	}
@@ -360,6 +1315,28 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 		ret.setProperty(PROP_PRIVATE_KEY_FILE_NAME, privateKeyFileName == null ? "":privateKeyFileName);
 		ret.setProperty(PROP_PRIVATE_KEY, privateKey == null ? "":new String(privateKey));
 		ret.setProperty(PROP_SESSION_KEY, sessionKey == null ? "":sessionKey);
+		ret.setProperty(PROP_MIN_CHANNELS, ""+minChannels);
+		ret.setProperty(PROP_MAX_CHANNELS, ""+maxChannels);
+		ret.setProperty(PROP_CHANNEL_WAIT_TIMEOUT, ""+channelWaitTimeout);
+		ret.setProperty(PROP_SESSION_COUNT, ""+sessionCount);
+		ret.setProperty(PROP_MULTIPLEXED, ""+multiplexed);
+		ret.setProperty(PROP_ATTRIBUTE_CACHE_MODE, attributeCacheMode.name());
+		ret.setProperty(PROP_ATTRIBUTE_CACHE_TTL, ""+attributeCacheTtl);
+		ret.setProperty(PROP_ATTRIBUTE_CACHE_SIZE, ""+attributeCacheSize);
+		ret.setProperty(PROP_NEGATIVE_CACHE_TTL, ""+negativeCacheTtl);
+		ret.setProperty(PROP_NEGATIVE_CACHE_SIZE, ""+negativeCacheSize);
+		ret.setProperty(PROP_READDIR_DEPTH, ""+readdirDepth);
+		ret.setProperty(PROP_STAT_WINDOW, ""+statWindow);
+		ret.setProperty(PROP_READ_AHEAD_DEPTH, ""+readAheadDepth);
+		ret.setProperty(PROP_READ_REQUEST_SIZE, ""+readRequestSize);
+		ret.setProperty(PROP_ADAPTIVE_READ_AHEAD, ""+adaptiveReadAhead);
+		ret.setProperty(PROP_PACKET_SIZE, ""+packetSize);
+		ret.setProperty(PROP_WINDOW_SIZE, ""+windowSize);
+		ret.setProperty(PROP_MAX_MESSAGE_LENGTH, ""+maxMessageLength);
+		ret.setProperty(PROP_LINK_PROFILE, linkProfile.name());
+		ret.setProperty(PROP_LINK_BANDWIDTH, ""+linkBandwidth);
+		ret.setProperty(PROP_INDEX_DIRECTORY, indexDirectory == null ? "":indexDirectory);
+		ret.setProperty(PROP_INDEX_VALIDATION, indexValidation.name());
 
 		return ret;
 	}
@@ -427,6 +1404,28 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 		} else {
 			privateKey = null;
 		}
+		setMinChannels(Integer.parseInt(p.getProperty(PROP_MIN_CHANNELS,""+getMinChannels())));
+		setMaxChannels(Integer.parseInt(p.getProperty(PROP_MAX_CHANNELS,""+getMaxChannels())));
+		setChannelWaitTimeout(Long.parseLong(p.getProperty(PROP_CHANNEL_WAIT_TIMEOUT,""+getChannelWaitTimeout())));
+		setSessionCount(Integer.parseInt(p.getProperty(PROP_SESSION_COUNT,""+getSessionCount())));
+		setMultiplexed(Boolean.parseBoolean(p.getProperty(PROP_MULTIPLEXED,""+isMultiplexed())));
+		setAttributeCacheMode(SftpAttributeCache.Consistency.valueOf(p.getProperty(PROP_ATTRIBUTE_CACHE_MODE,getAttributeCacheMode().name()).toUpperCase()));
+		setAttributeCacheTtl(Long.parseLong(p.getProperty(PROP_ATTRIBUTE_CACHE_TTL,""+getAttributeCacheTtl())));
+		setAttributeCacheSize(Integer.parseInt(p.getProperty(PROP_ATTRIBUTE_CACHE_SIZE,""+getAttributeCacheSize())));
+		setNegativeCacheTtl(Long.parseLong(p.getProperty(PROP_NEGATIVE_CACHE_TTL,""+getNegativeCacheTtl())));
+		setNegativeCacheSize(Integer.parseInt(p.getProperty(PROP_NEGATIVE_CACHE_SIZE,""+getNegativeCacheSize())));
+		setReaddirDepth(Integer.parseInt(p.getProperty(PROP_READDIR_DEPTH,""+getReaddirDepth())));
+		setStatWindow(Integer.parseInt(p.getProperty(PROP_STAT_WINDOW,""+getStatWindow())));
+		setReadAheadDepth(Integer.parseInt(p.getProperty(PROP_READ_AHEAD_DEPTH,""+getReadAheadDepth())));
+		setReadRequestSize(Integer.parseInt(p.getProperty(PROP_READ_REQUEST_SIZE,""+getReadRequestSize())));
+		setAdaptiveReadAhead(Boolean.parseBoolean(p.getProperty(PROP_ADAPTIVE_READ_AHEAD,""+isAdaptiveReadAhead())));
+		setPacketSize(Integer.parseInt(p.getProperty(PROP_PACKET_SIZE,""+getPacketSize())));
+		setWindowSize(Integer.parseInt(p.getProperty(PROP_WINDOW_SIZE,""+getWindowSize())));
+		setMaxMessageLength(Integer.parseInt(p.getProperty(PROP_MAX_MESSAGE_LENGTH,""+getMaxMessageLength())));
+		setLinkProfile(LinkProfile.valueOf(p.getProperty(PROP_LINK_PROFILE,getLinkProfile().name()).toUpperCase()));
+		setLinkBandwidth(Integer.parseInt(p.getProperty(PROP_LINK_BANDWIDTH,""+getLinkBandwidth())));
+		setIndexDirectory(p.getProperty(PROP_INDEX_DIRECTORY,getIndexDirectory()));
+		setIndexValidation(SftpMetadataIndex.Validation.valueOf(p.getProperty(PROP_INDEX_VALIDATION,getIndexValidation().name()).toUpperCase()));
 
 	}
 
@@ -441,16 +1440,415 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 	}
 
 	
-	public synchronized Vector<ChannelSftp.LsEntry> ls(String path) throws IOException, SftpException {
-		return getSftp_().ls(path);
+	public Vector<ChannelSftp.LsEntry> ls(String path) throws IOException, SftpException {
+		Vector<ChannelSftp.LsEntry> ret = new Vector<>();
+		long since = generation();
+		ls(path, e -> {
+			ret.add(e);
+			return ChannelSftp.LsEntrySelector.CONTINUE;
+		});
+		recordListing(path, ret, since);
+		return ret;
+	}
+
+	/**
+	 * @return the attribute cache generation to pass to recordListing
+	 */
+	private long generation() {
+		SftpAttributeCache c = attributeCache;
+		return c == null ? 0 : c.generation();
+	}
+
+	/**
+	 * A directory listing has the attributes of every child, keep them.
+	 * 
+	 * @param since attribute cache generation read before the listing was sent
+	 */
+	private void recordListing(String path, List<ChannelSftp.LsEntry> list, long since) {
+		SftpNameCache n = names;
+		ChannelSftp.LsEntry dot = null;
+		for (ChannelSftp.LsEntry e : list) {
+			if( n != null ) {
+				n.add(e);
+			}
+			if( e.getFilename().equals(".")) {
+				dot = e;
+			}
+		}
+		// without "." we can't tell a directory from a single file (or pattern) listing 
+		if( dot == null ) {
+			return;
+		}
+		if( isCaching() ) {
+			for (ChannelSftp.LsEntry e : list) {
+				String name = e.getFilename();
+				if( name.equals(".")) {
+					attributeCache.put(path, e.getAttrs(), since);
+				} else if( !name.equals("..")) {
+					attributeCache.put(childPath(path, name), e.getAttrs(), since);
+				}
+			}
+		}
+		SftpMetadataIndex i = index;
+		if( i != null ) {
+			List<String> names = new ArrayList<>(list.size());
+			List<SftpATTRS> attrs = new ArrayList<>(list.size());
+			for (ChannelSftp.LsEntry e : list) {
+				String name = e.getFilename();
+				if( !(name.equals(".") || name.equals(".."))) {
+					names.add(name);
+					attrs.add(e.getAttrs());
+				}
+			}
+			i.putListing(path, dot.getAttrs(), names, attrs);
+			SftpSession s = entry;
+			if( s != null ) {
+				s.validatedDirs.put(path, System.currentTimeMillis());
+			}
+		}
+	}
+
+	/**
+	 * List path passing each entry to selector as it arrives, 
+	 * the listing stops when the selector returns LsEntrySelector.BREAK.
+	 *  
+	 * @param path
+	 * @param selector
+	 * @throws IOException
+	 * @throws SftpException
+	 */
+	public void ls(String path, ChannelSftp.LsEntrySelector selector) throws IOException, SftpException {
+		if( readdirDepth > 1 ) {
+			lsDirectory(path, selector);
+		} else {
+			execute(c -> {c.ls(path, selector); return null;});
+		}
+	}
+
+	/**
+	 * List a path that is expected to be a directory.  
+	 * 
+	 * Unlike ls, path is not stat'ed first, SSH_FXP_OPENDIR is sent right away. 
+	 * If the open fails for any reason other than "No such file" (path is a file, a pattern...) 
+	 * the normal ls is used.
+	 *    
+	 * @param path
+	 * @return the entries, "." and ".." included
+	 * @throws IOException
+	 * @throws SftpException
+	 */
+	public Vector<ChannelSftp.LsEntry> lsDirectory(String path) throws IOException, SftpException {
+		Vector<ChannelSftp.LsEntry> ret = new Vector<>();
+		long since = generation();
+		lsDirectory(path, e -> {
+			ret.add(e);
+			return ChannelSftp.LsEntrySelector.CONTINUE;
+		});
+		recordListing(path, ret, since);
+		return ret;
+	}
+
+	/**
+	 * Same as lsDirectory(String) passing each entry to selector as it arrives.
+	 */
+	public void lsDirectory(String path, ChannelSftp.LsEntrySelector selector) throws IOException, SftpException {
+		int depth = readdirDepth;
+		execute(c -> {
+			if( isPattern(path)) {
+				c.ls(path, selector);
+				return null;
+			}
+			int [] count = {0};
+			try {
+				c.lsDir(path, depth, e -> {
+					count[0]++;
+					return selector.select(e);
+				});
+			} catch (SftpException e) {
+				// a broken channel, missing path or a failure after entries were handed out can't be retried 
+				if( count[0] > 0 || e.getCause() != null || e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					throw e;
+				}
+				c.ls(path, selector);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * @return true if ChannelSftp.ls would expand or unquote path
+	 */
+	private static boolean isPattern(String path) {
+		return path.indexOf('*') >= 0 || path.indexOf('?') >= 0 || path.indexOf('\\') >= 0;
+	}
+
+	public SftpATTRS lstat(String path) throws SftpException, IOException {
+		if( isCaching() ) {
+			SftpATTRS ret = attributeCache.get(path, attributeCacheMode, attributeCacheTtl);
+			if( ret != null ) {
+				return ret;
+			}
+		}
+		SftpAttributeCache cache = attributeCache;
+		boolean negative = negativeCacheTtl > 0 && cache != null;
+		if( negative && cache.isMissing(path, negativeCacheTtl)) {
+			throw new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, "No such file");
+		}
+		SftpATTRS ret = indexedAttrs(path);
+		if( ret != null ) {
+			return ret;
+		}
+		SftpMetadataIndex i = index;
+		// an invalidate while the lstat is in flight must not be undone by the put
+		long since = cache == null ? 0 : cache.generation();
+		try {
+			if( multiplexed ) {
+				ret = ChannelSftp.await(getMultiplexedChannel().lstatAsync(path));
+			} else {
+				ret = execute(c -> c.lstat(path));
+			}
+		} catch (SftpException e) {
+			if( e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				if( negative ) {
+					cache.putMissing(path, since);
+				}
+				if( i != null ) {
+					i.remove(path);
+				}
+			}
+			throw e;
+		}
+		if( isCaching() ) {
+			cache.put(path, ret, since);
+		}
+		if( i != null ) {
+			i.put(path, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a parallel walker for trees on this factory.
+	 */
+	public SftpTreeWalker newTreeWalker() {
+		return new SftpTreeWalker(this);
+	}
+
+	/**
+	 * @return a parallel (multi channel) transfer for large files on this factory.
+	 */
+	public SftpSegmentedTransfer newSegmentedTransfer() {
+		return new SftpSegmentedTransfer(this);
+	}
+
+	/**
+	 * @return a lister that harvests a whole tree with a remote find (or sftp if exec is not allowed).
+	 */
+	public SftpFindLister newFindLister() {
+		return new SftpFindLister(this);
+	}
+
+	/**
+	 * @return a polling watch service for directories on this factory.
+	 */
+	public SftpWatchService newWatchService() {
+		return new SftpWatchService(this);
+	}
+
+	/**
+	 * Lstat many paths at once.  
+	 * 
+	 * The requests are sent back to back on the multiplexed channel (up to statWindow in flight) 
+	 * and the replies are matched by request id, so the cost is about one round trip plus bandwidth 
+	 * instead of one round trip per path.
+	 * 
+	 * @param paths
+	 * @return a map (in the order of paths) of path to attributes, the value is null if the path does not exist.
+	 * @throws IOException if any lstat fails for a reason other than "No such file"
+	 */
+	public Map<String, SftpATTRS> statAll(Collection<String> paths) throws IOException {
+		return statAll(paths, false);
+	}
+
+	/**
+	 * Same as statAll(Collection) with the option to skip the attribute cache.
+	 * 
+	 * @param paths
+	 * @param fresh true to always ask the server (the attribute cache is updated but not read)
+	 * @return a map (in the order of paths) of path to attributes, the value is null if the path does not exist.
+	 * @throws IOException if any lstat fails for a reason other than "No such file"
+	 */
+	public Map<String, SftpATTRS> statAll(Collection<String> paths, boolean fresh) throws IOException {
+		Map<String, SftpATTRS> ret = new LinkedHashMap<>();
+		Map<String, CompletableFuture<SftpATTRS>> pending = new LinkedHashMap<>();
+		ChannelSftp channel = getMultiplexedChannel();
+		Semaphore window = new Semaphore(statWindow);
+		SftpAttributeCache cache = attributeCache;
+		long since = cache == null ? 0 : cache.generation();
+
+		for (String path : paths) {
+			if( ret.containsKey(path) || pending.containsKey(path)) {
+				continue;
+			}
+			if( !fresh && isCaching() ) {
+				SftpATTRS a = attributeCache.get(path, attributeCacheMode, attributeCacheTtl);
+				if( a != null ) {
+					ret.put(path, a);
+					continue;
+				}
+			}
+			try {
+				window.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted in statAll");
+			}
+			CompletableFuture<SftpATTRS> f = channel.lstatAsync(path);
+			f.whenComplete((a, e) -> window.release());
+			pending.put(path, f);
+		}
+
+		IOException error = null;
+		for (Map.Entry<String, CompletableFuture<SftpATTRS>> e : pending.entrySet()) {
+			String path = e.getKey();
+			try {
+				SftpATTRS a = ChannelSftp.await(e.getValue());
+				if( isCaching() ) {
+					cache.put(path, a, since);
+				}
+				if( index != null ) {
+					index.put(path, a);
+				}
+				ret.put(path, a);
+			} catch (SftpException ex) {
+				if( ex.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					if( negativeCacheTtl > 0 && cache != null ) {
+						cache.putMissing(path, since);
+					}
+					ret.put(path, null);
+				} else if( error == null ) {
+					// keep going so every reply is consumed, then report the first failure  
+					error = new IOException(path+" "+ex, ex);
+				}
+			}
+		}
+		if( error != null ) {
+			throw error;
+		}
+
+		// keep the callers order
+		Map<String, SftpATTRS> ordered = new LinkedHashMap<>();
+		for (String path : paths) {
+			if( !ordered.containsKey(path)) {
+				ordered.put(path, ret.get(path));
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * Lstat all files with statAll and store the attributes on each instance.
+	 *  
+	 * @param files
+	 * @throws IOException
+	 */
+	public void loadAttributes(Collection<SftpFileSource> files) throws IOException {
+		List<String> paths = new ArrayList<>(files.size());
+		for (SftpFileSource f : files) {
+			paths.add(f.getAbsolutePath());
+		}
+		Map<String, SftpATTRS> attrs = statAll(paths);
+		for (SftpFileSource f : files) {
+			f.setAttr(attrs.get(f.getAbsolutePath()));
+		}
+	}
+
+	public String readlink(String path) throws SftpException, IOException {
+		if( multiplexed ) {
+			return ChannelSftp.await(getMultiplexedChannel().readlinkAsync(path));
+		}
+		return execute(c -> c.readlink(path));
+	}
+
+	/*
+	 * Mutations invalidate the cache even when they fail, the state of the file is unknown.
+	 */
+	public void rm(String path) throws SftpException, IOException {
+		try {
+			execute(c -> {c.rm(path); return null;});
+		} finally {
+			invalidate(path);
+			invalidateParent(path);
+		}
+	}
+
+	public void rmdir(String path) throws SftpException, IOException {
+		try {
+			execute(c -> {c.rmdir(path); return null;});
+		} finally {
+			invalidateTree(path);
+			invalidateParent(path);
+		}
+	}
+
+	public void mkdir(String path) throws SftpException, IOException {
+		try {
+			execute(c -> {c.mkdir(path); return null;});
+		} finally {
+			invalidate(path);
+			invalidateParent(path);
+		}
+	}
+
+	public void rename(String oldPath, String newPath) throws SftpException, IOException {
+		try {
+			execute(c -> {c.rename(oldPath, newPath); return null;});
+		} finally {
+			invalidateTree(oldPath);
+			invalidateTree(newPath);
+			invalidateParent(oldPath);
+			invalidateParent(newPath);
+		}
+	}
+
+	public void chmod(int permissions, String path) throws SftpException, IOException {
+		try {
+			execute(c -> {c.chmod(permissions, path); return null;});
+		} finally {
+			invalidate(path);
+		}
+	}
+
+	public void chown(int uid, String path) throws SftpException, IOException {
+		try {
+			execute(c -> {c.chown(uid, path); return null;});
+		} finally {
+			invalidate(path);
+		}
+	}
+
+	public void chgrp(int gid, String path) throws SftpException, IOException {
+		try {
+			execute(c -> {c.chgrp(gid, path); return null;});
+		} finally {
+			invalidate(path);
+		}
 	}
 
-	public synchronized SftpATTRS lstat(String path) throws SftpException, IOException {
-		return getSftp_().lstat(path);
+	public void setMtime(String path, int mtime) throws SftpException, IOException {
+		try {
+			execute(c -> {c.setMtime(path, mtime); return null;});
+		} finally {
+			invalidate(path);
+		}
 	}
 
-	public synchronized String readlink(String path) throws SftpException, IOException {
-		return getSftp_().readlink(path);
+	public void setAtime(String path, int atime) throws SftpException, IOException {
+		try {
+			execute(c -> {c.setAtime(path, atime); return null;});
+		} finally {
+			invalidate(path);
+		}
 	}
 
 	@Override
@@ -497,15 +1895,19 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 			return remotePrinciple;
 		}
 
-		if( isConnected()) {
+		// shared by every factory on the session, started at connect
+		SftpSession e = entry;
+		if( e != null && isConnected()) {
 			try {
-				String tmp = runCommand("id");
-				FileSourceUser p = FileSourceUser.fromId(tmp);
+				FileSourceUser p = e.getPrinciple().get();
 				if( p !=null ) {
 					remotePrinciple = p;
 					return p;
 				}
-			} catch (IOException e) {
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ex) {
+				logDebug("Can't run id: "+ex.getCause());
 			}
 		}
 
@@ -515,59 +1917,101 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 	public String runCommand(String command) throws IOException {
 		String ret = null;
 		if( isConnected()) {
-			ChannelExec execChannel = null;
-			try {
-				execChannel = (ChannelExec) getSession().openChannel("exec");
-				execChannel.setCommand(command);
-				InputStream stdOut = execChannel.getInputStream() ;
-				InputStream stdErr = execChannel.getErrStream();
-				execChannel.connect();
-				StringBuilder output = new StringBuilder();
-				byte[] buffer = new byte[1024];
-				int read;
-				while ( ( read = stdOut.read( buffer, 0, buffer.length ) ) >= 0 ) {
-					for (int idx = 0; idx < read; idx++) {
-						output.append((char)buffer[idx]);
-					}
-				}
-				stdOut.close();
-				while ( ( read = stdErr.read( buffer, 0, buffer.length ) ) >= 0 ) {
-					for (int idx = 0; idx < read; idx++) {
-						output.append((char)buffer[idx]);
-					}
-				}
-				stdErr.close();
+			ret = runCommand(getSession(), command);
+		}
+		return ret;
+	}
 
-				long start = System.currentTimeMillis();
-				while(!execChannel.isClosed() && (System.currentTimeMillis()-start)< 2000) {
-					try {
-						Thread.sleep(10);
-					} catch (InterruptedException e) {
-					}
-				}
-				int status = execChannel.getExitStatus();
-				if( status != 0) {
-					throw new IOException("status="+status+" ("+output+")");
+	private static String runCommand(Session session, String command) throws IOException {
+		String ret = null;
+		ChannelExec execChannel = null;
+		try {
+			execChannel = (ChannelExec) session.openChannel("exec");
+			execChannel.setCommand(command);
+			InputStream stdOut = execChannel.getInputStream() ;
+			ExecErrorStream stdErr = new ExecErrorStream(MAX_EXEC_ERROR_TEXT);
+			execChannel.setErrStream(stdErr);
+			execChannel.connect();
+			StringBuilder output = new StringBuilder();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ( ( read = stdOut.read( buffer, 0, buffer.length ) ) >= 0 ) {
+				for (int idx = 0; idx < read; idx++) {
+					output.append((char)buffer[idx]);
 				}
-				ret = output.toString();
-			} catch (JSchException  e) {
-				throw new IOException(e);
-			} finally {
-				if( execChannel !=null) {
-					try {
-						execChannel.disconnect();
-					} catch (Exception e2) {
-					}
+			}
+			stdOut.close();
+
+			// -1 if the channel did not close (no exit status) in time
+			int status = stdErr.awaitClose(EXEC_CLOSE_TIMEOUT) ? execChannel.getExitStatus() : -1;
+			output.append(stdErr);
+			if( status != 0) {
+				throw new IOException("status="+status+" ("+output+")");
+			}
+			ret = output.toString();
+		} catch (JSchException  e) {
+			throw new IOException(e);
+		} finally {
+			if( execChannel !=null) {
+				try {
+					execChannel.disconnect();
+				} catch (Exception e2) {
 				}
 			}
 		}
 		return ret;
 	}
 
+	/**
+	 * stderr of an exec channel.  The text is bounded so a chatty command can't stall the session.  
+	 * The channel closes this stream when it is closed, the exit status has arrived by then.
+	 */
+	static class ExecErrorStream extends OutputStream {
+		private final ByteArrayOutputStream text = new ByteArrayOutputStream();
+		private final int max;
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		ExecErrorStream(int max) {
+			this.max = max;
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			if( text.size() < max ) {
+				text.write(b);
+			}
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+
+		/**
+		 * @param timeout ms
+		 * @return false if the channel was not closed in time
+		 * @throws InterruptedIOException
+		 */
+		boolean awaitClose(long timeout) throws InterruptedIOException {
+			try {
+				return closed.await(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for the command to exit");
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return new String(text.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
 	@Override
 	public FileSource createSymbolicLink(FileSource newFileLink, FileSource existingFile) throws IOException {
 		try {
-			getSftp_().symlink(existingFile.getAbsolutePath(), newFileLink.getAbsolutePath());
+			execute(c -> {c.symlink(existingFile.getAbsolutePath(), newFileLink.getAbsolutePath()); return null;});
+			invalidateParent(newFileLink.getAbsolutePath());
 			existingFile.refresh();
 			newFileLink.refresh();
 		} catch (SftpException e) {
@@ -579,7 +2023,8 @@ public class SftpFileSourceFactory extends FileSourceFactory {
 	@Override
 	public FileSource createLink(FileSource newFileLink, FileSource existingFile) throws IOException {
 		try {
-			getSftp_().hardlink(existingFile.getAbsolutePath(), newFileLink.getAbsolutePath());
+			execute(c -> {c.hardlink(existingFile.getAbsolutePath(), newFileLink.getAbsolutePath()); return null;});
+			invalidateParent(newFileLink.getAbsolutePath());
 			existingFile.refresh();
 			newFileLink.refresh();
 		} catch (SftpException e) {
@@ -0,0 +1,225 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+
+import us.bringardner.core.BaseObject;
+
+/**
+ * List a whole tree with one remote <code>find -printf</code> over an exec channel.
+ * 
+ * One exec stream is much faster than thousands of READDIR round trips. The NUL delimited 
+ * output is parsed as it arrives and each entry is handed to the visitor with its attributes 
+ * already set.  If the server does not allow exec (or find has no -printf) the tree is walked
+ * with SFTP (SftpTreeWalker) instead.
+ *
+ * @author Tony Bringardner
+ *
+ */
+public class SftpFindLister extends BaseObject {
+
+	// type size atime mtime mode uid gid path
+	private static final String FORMAT = "%y %s %A@ %T@ %m %U %G %p\\0";
+	private static final int MAX_ERROR_TEXT = 4096;
+	// ms to wait for the channel to close after the output ends
+	private static final long CLOSE_TIMEOUT = 2000;
+
+	private final SftpFileSourceFactory factory;
+	private int maxDepth = Integer.MAX_VALUE;
+	// session key -> can we use exec, not there until we know
+	private static final Map<String, Boolean> execSupported = new ConcurrentHashMap<>();
+
+	public SftpFindLister(SftpFileSourceFactory factory) {
+		this.factory = factory;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * 
+	 * @param maxDepth 1 lists only the children of the directory
+	 * @return this
+	 */
+	public SftpFindLister setMaxDepth(int maxDepth) {
+		if( maxDepth < 1 ) {
+			throw new IllegalArgumentException("maxDepth must be greater than 0 ("+maxDepth+")");
+		}
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * List everything below dir (dir itself is not included).
+	 * 
+	 * The visitor is called on this thread when find is used and from several threads 
+	 * when the SFTP fallback is used.  The return value of visit is ignored.
+	 * 
+	 * @param dir
+	 * @param visitor
+	 * @throws IOException if find stopped part way through (channel dropped, no exit status 
+	 * in time or an error other than unreadable directories), the visitor has only seen part of the tree.
+	 */
+	public void list(String dir, SftpTreeWalker.Visitor visitor) throws IOException {
+		String key = factory.getSessionKey();
+		Boolean supported = execSupported.get(key);
+		if( !Boolean.FALSE.equals(supported)) {
+			try {
+				if( find(dir, visitor)) {
+					execSupported.put(key, true);
+					return;
+				}
+			} catch (JSchException e) {
+				// exec refused or not available, don't ask again on this session
+				logDebug("exec not available, using sftp", e);
+				execSupported.put(key, false);
+			}
+			// otherwise find failed on this directory (missing, unreadable...), fall back for this call only
+		}
+
+		factory.newTreeWalker().setMaxDepth(maxDepth).walk(dir, visitor);
+	}
+
+	/**
+	 * @return false if find could not be used and nothing was sent to the visitor.
+	 * @throws IOException if find failed after some entries were sent to the visitor
+	 */
+	private boolean find(String dir, SftpTreeWalker.Visitor visitor) throws IOException, JSchException {
+		StringBuilder cmd = new StringBuilder("find ");
+		cmd.append(quote(dir)).append(" -mindepth 1");
+		if( maxDepth != Integer.MAX_VALUE ) {
+			cmd.append(" -maxdepth ").append(maxDepth);
+		}
+		cmd.append(" -printf '").append(FORMAT).append("'");
+
+		ChannelExec exec = (ChannelExec) factory.getSession().openChannel("exec");
+		int count = 0;
+		try {
+			exec.setCommand(cmd.toString());
+			// stderr is written straight into a bounded buffer so a lot of "Permission denied" can't stall the session 
+			SftpFileSourceFactory.ExecErrorStream errText = new SftpFileSourceFactory.ExecErrorStream(MAX_ERROR_TEXT);
+			exec.setErrStream(errText);
+			InputStream in = new BufferedInputStream(exec.getInputStream(), 64*1024);
+			exec.connect();
+
+			ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+			int b;
+			while( (b=in.read()) >= 0 ) {
+				if( b == 0 ) {
+					SftpFileSource file = parse(new String(record.toByteArray(), StandardCharsets.UTF_8));
+					record.reset();
+					if( file != null ) {
+						count++;
+						visitor.visit(file);
+					}
+				} else {
+					record.write(b);
+				}
+			}
+			in.close();
+
+			boolean exited = errText.awaitClose(CLOSE_TIMEOUT);
+			// -1 when the channel dropped or closed without an exit status
+			int status = exited ? exec.getExitStatus() : -1;
+			if( status == 0 ) {
+				return true;
+			}
+			// find exits 1 when some directories can't be read, the rest of the tree has been listed
+			if( status == 1 && count > 0 ) {
+				logDebug("find status="+status+" "+errText);
+				return true;
+			}
+			if( count == 0 ) {
+				logDebug("find failed status="+status+" "+errText);
+				return false;
+			}
+			// part of the tree has already gone to the visitor, a fallback would send it again
+			throw new IOException("find did not finish listing "+dir+" status="+status+" "+errText);
+		} finally {
+			exec.disconnect();
+		}
+	}
+
+	/**
+	 * Parse one record of FORMAT.  
+	 */
+	SftpFileSource parse(String line) {
+		String [] parts = line.split(" ", 8);
+		if( parts.length != 8 ) {
+			return null;
+		}
+		try {
+			int type = typeBits(parts[0].charAt(0));
+			long size = Long.parseLong(parts[1]);
+			int atime = seconds(parts[2]);
+			int mtime = seconds(parts[3]);
+			int mode = Integer.parseInt(parts[4], 8);
+			int uid = Integer.parseInt(parts[5]);
+			int gid = Integer.parseInt(parts[6]);
+			SftpATTRS attrs = ChannelSftp.newAttrs(size, uid, gid, type | mode, atime, mtime);
+			SftpFileSource ret = new SftpFileSource(factory, parts[7]);
+			ret.setAttr(attrs);
+			return ret;
+		} catch (NumberFormatException e) {
+			logDebug("Can't parse find output '"+line+"'");
+			return null;
+		}
+	}
+
+	private static int seconds(String epoch) {
+		int idx = epoch.indexOf('.');
+		return Integer.parseInt(idx < 0 ? epoch : epoch.substring(0, idx));
+	}
+
+	private static int typeBits(char type) {
+		switch (type) {
+		case 'd': return 0040000;
+		case 'l': return 0120000;
+		case 'p': return 0010000;
+		case 's': return 0140000;
+		case 'c': return 0020000;
+		case 'b': return 0060000;
+		default:  return 0100000;
+		}
+	}
+
+	static String quote(String path) {
+		return "'"+path.replace("'", "'\\''")+"'";
+	}
+}
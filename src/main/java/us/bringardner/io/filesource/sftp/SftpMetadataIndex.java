@@ -0,0 +1,535 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+import us.bringardner.core.BaseObject;
+
+/**
+ * A local file with the metadata (size, mtime, atime, mode, uid, gid) of the remote paths seen in earlier runs, 
+ * so a new JVM does not have to crawl the same tree again.
+ * 
+ * The file is loaded the first time it's used.  It is memory mapped, the attributes stay in the mapping
+ * and are decoded when they are asked for.  The paths (with the offset of each record) and the names 
+ * of the children of each directory are on the heap. 
+ * Changes are kept in memory until save() writes a new file. 
+ * The paths are kept sorted so everything below a directory can be dropped as one range.
+ * 
+ * Format (big endian):
+ * <pre>
+ * int magic, int version, int count
+ * count * { short pathLength, byte[] utf8 path, byte flags, long size, int mtime, int atime, int mode, int uid, int gid }
+ * </pre>
+ * flags bit 0 is set on a directory whose complete list of children is in the index.
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpMetadataIndex extends BaseObject {
+
+	public enum Validation {
+		/** Use the index without asking the server */
+		NONE,
+		/** 
+		 * Use the index for a directory and its children only if the directory's mtime on the server
+		 * is the same as in the index (checked again after the attribute cache TTL in TTL mode, 
+		 * once per directory per session in SESSION mode). 
+		 * Content changed in place does not change the directory mtime.  
+		 */
+		DIRECTORY_MTIME
+	}
+
+	private static final int MAGIC = 0x53465849; // SFXI
+	private static final int VERSION = 1;
+	private static final int FLAG_LISTED = 1;
+
+	// sun.misc.Unsafe.invokeCleaner(ByteBuffer) is in the jdk.unsupported module of JDK 9 and later.  
+	// If it's missing (another runtime or a future JDK) the file is read onto the heap instead of mapped,
+	// a mapping that can't be released would stop save() from replacing the file on some platforms. 
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	static {
+		Object unsafe = null;
+		Method cleaner = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			cleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			cleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = cleaner;
+	}
+
+	private static class Rec {
+		final byte flags;
+		final long size;
+		final int mtime;
+		final int atime;
+		final int mode;
+		final int uid;
+		final int gid;
+
+		Rec(byte flags, long size, int mtime, int atime, int mode, int uid, int gid) {
+			this.flags = flags;
+			this.size = size;
+			this.mtime = mtime;
+			this.atime = atime;
+			this.mode = mode;
+			this.uid = uid;
+			this.gid = gid;
+		}
+
+		Rec(byte flags, SftpATTRS a) {
+			this(flags, a.getSize(), a.getMTime(), a.getATime(), a.getPermissions(), a.getUId(), a.getGId());
+		}
+
+		SftpATTRS toAttrs() {
+			return ChannelSftp.newAttrs(size, uid, gid, mode, atime, mtime);
+		}
+
+		boolean isListed() {
+			return (flags & FLAG_LISTED) != 0;
+		}
+
+		Rec withFlags(byte flags) {
+			return new Rec(flags, size, mtime, atime, mode, uid, gid);
+		}
+	}
+
+	/**
+	 * A record in a mapped file
+	 */
+	private static class Loc {
+		final ByteBuffer buf;
+		final int offset;
+
+		Loc(ByteBuffer buf, int offset) {
+			this.buf = buf;
+			this.offset = offset;
+		}
+
+		Rec decode() {
+			return new Rec(buf.get(offset), buf.getLong(offset+1), buf.getInt(offset+9), buf.getInt(offset+13), 
+					buf.getInt(offset+17), buf.getInt(offset+21), buf.getInt(offset+25));
+		}
+	}
+
+	private final File file;
+	private volatile boolean loaded = false;
+	// path -> Loc (in the mapped file) or a Rec that replaced it
+	private final ConcurrentNavigableMap<String, Object> entries = new ConcurrentSkipListMap<>();
+	// directory -> names of the children in the index
+	private final ConcurrentNavigableMap<String, Set<String>> children = new ConcurrentSkipListMap<>();
+	private volatile boolean dirty = false;
+	// the current mapping, decoding a Loc holds the read lock so save() can release it
+	private MappedByteBuffer mapping;
+	private final ReadWriteLock mapLock = new ReentrantReadWriteLock();
+
+	public SftpMetadataIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * 
+	 * @param dir
+	 * @param sessionKey
+	 * @return the index for sessionKey in directory dir
+	 */
+	public static SftpMetadataIndex forSession(File dir, String sessionKey) {
+		return new SftpMetadataIndex(new File(dir, sessionKey.replaceAll("[^A-Za-z0-9._-]", "_")+".idx"));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private void ensureLoaded() {
+		if( !loaded ) {
+			synchronized (this) {
+				if( !loaded ) {
+					try {
+						load();
+					} catch (IOException | RuntimeException e) {
+						// a broken index is the same as no index
+						logDebug("Can't load index "+file, e);
+						entries.clear();
+						children.clear();
+					}
+					loaded = true;
+				}
+			}
+		}
+	}
+
+	private void load() throws IOException {
+		if( !file.exists() || file.length() < 12 ) {
+			return;
+		}
+		map((path, loc) -> {
+			entries.put(path, loc);
+			addChild(path);
+		});
+	}
+
+	private interface RecordHandler {
+		void record(String path, Loc loc);
+	}
+
+	/**
+	 * Map the index file (or read it if it can't be unmapped) and pass the location of each record to handler. 
+	 */
+	private void map(RecordHandler handler) throws IOException {
+		ByteBuffer data = null;
+		if( INVOKE_CLEANER == null ) {
+			data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		} else {
+			MappedByteBuffer mapped = null;
+			try(RandomAccessFile raf = new RandomAccessFile(file, "r");
+					FileChannel ch = raf.getChannel()) {
+				mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			}
+			mapping = mapped;
+			data = mapped;
+		}
+		ByteBuffer buf = data.duplicate();
+		if( buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new IOException("Not an index (or wrong version) "+file);
+		}
+		int count = buf.getInt();
+		for (int idx = 0; idx < count; idx++) {
+			int len = buf.getShort() & 0xffff;
+			byte [] p = new byte[len];
+			buf.get(p);
+			handler.record(new String(p, StandardCharsets.UTF_8), new Loc(data, buf.position()));
+			// flags, size, mtime, atime, mode, uid, gid
+			buf.position(buf.position()+1+8+4*5);
+		}
+	}
+
+	private Rec getRec(String path) {
+		Object o = entries.get(path);
+		if( o instanceof Loc ) {
+			mapLock.readLock().lock();
+			try {
+				// save() may have released the mapping
+				o = entries.get(path);
+				if( o instanceof Loc ) {
+					return ((Loc) o).decode();
+				}
+			} finally {
+				mapLock.readLock().unlock();
+			}
+		}
+		return (Rec) o;
+	}
+
+	/**
+	 * Decode every record still in the mapping onto the heap and unmap the file so it can be replaced.
+	 * 
+	 * @param snapshot Locs in the snapshot are switched to the decoded Rec so they still match entries
+	 */
+	private void release(Map<String, Object> snapshot) {
+		mapLock.writeLock().lock();
+		try {
+			for (Map.Entry<String, Object> e : entries.entrySet()) {
+				Object o = e.getValue();
+				if( o instanceof Loc ) {
+					Rec r = ((Loc) o).decode();
+					if( entries.replace(e.getKey(), o, r)) {
+						snapshot.replace(e.getKey(), o, r);
+					}
+				}
+			}
+			MappedByteBuffer m = mapping;
+			mapping = null;
+			if( m != null ) {
+				unmap(m);
+			}
+		} finally {
+			mapLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Unmap now instead of waiting for the garbage collector (some platforms won't replace a mapped file).
+	 * Only called when INVOKE_CLEANER was found.  
+	 */
+	private void unmap(MappedByteBuffer buf) {
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buf);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// left to the garbage collector, until then the move in save() can fail on Windows 
+			logDebug("Can't unmap "+file, e);
+		}
+	}
+
+	private static String parentOf(String path) {
+		int idx = path.lastIndexOf('/');
+		if( idx < 0 || path.equals("/")) {
+			return null;
+		}
+		return idx == 0 ? "/" : path.substring(0, idx);
+	}
+
+	private void addChild(String path) {
+		String parent = parentOf(path);
+		if( parent != null ) {
+			children.computeIfAbsent(parent, k -> ConcurrentHashMap.newKeySet()).add(path.substring(path.lastIndexOf('/')+1));
+		}
+	}
+
+	private void removeChild(String path) {
+		String parent = parentOf(path);
+		if( parent != null ) {
+			Set<String> set = children.get(parent);
+			if( set != null ) {
+				set.remove(path.substring(path.lastIndexOf('/')+1));
+			}
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return the indexed attributes or null
+	 */
+	public SftpATTRS get(String path) {
+		ensureLoaded();
+		Rec r = getRec(path);
+		return r == null ? null : r.toAttrs();
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return the indexed mtime (seconds) or -1 if path is not in the index
+	 */
+	public long getMTime(String path) {
+		ensureLoaded();
+		Rec r = getRec(path);
+		return r == null ? -1 : r.mtime;
+	}
+
+	/**
+	 * 
+	 * @param dir
+	 * @return the names of the children of dir or null if the directory listing is not in the index.
+	 */
+	public List<String> getChildren(String dir) {
+		ensureLoaded();
+		Rec r = getRec(dir);
+		if( r == null || !r.isListed()) {
+			return null;
+		}
+		Set<String> set = children.get(dir);
+		return set == null ? new ArrayList<>() : new ArrayList<>(set);
+	}
+
+	public void put(String path, SftpATTRS attrs) {
+		ensureLoaded();
+		Rec old = getRec(path);
+		// keep the listing flag if the directory did not change
+		byte flags = old != null && old.mtime == attrs.getMTime() ? old.flags : 0;
+		entries.put(path, new Rec(flags, attrs));
+		addChild(path);
+		dirty = true;
+	}
+
+	/**
+	 * Record the complete listing of a directory.
+	 * 
+	 * @param dir
+	 * @param dirAttrs
+	 * @param names the children
+	 * @param attrs the attributes of each child
+	 */
+	public void putListing(String dir, SftpATTRS dirAttrs, List<String> names, List<SftpATTRS> attrs) {
+		ensureLoaded();
+		removeChildren(dir);
+		String prefix = dir.endsWith("/") ? dir : dir+"/";
+		for (int idx = 0; idx < names.size(); idx++) {
+			String path = prefix+names.get(idx);
+			Rec old = getRec(path);
+			byte flags = old != null && old.mtime == attrs.get(idx).getMTime() ? old.flags : 0;
+			entries.put(path, new Rec(flags, attrs.get(idx)));
+			addChild(path);
+		}
+		entries.put(dir, new Rec((byte) FLAG_LISTED, dirAttrs));
+		addChild(dir);
+		dirty = true;
+	}
+
+	/**
+	 * Forget path and mark its parent's listing incomplete.
+	 * 
+	 * @param path
+	 */
+	public void remove(String path) {
+		ensureLoaded();
+		if( entries.remove(path) != null ) {
+			dirty = true;
+		}
+		removeChild(path);
+		unlist(parentOf(path));
+	}
+
+	/**
+	 * Forget path, everything below it and mark its parent's listing incomplete.
+	 * 
+	 * @param path
+	 */
+	public void removeTree(String path) {
+		remove(path);
+		removeChildren(path);
+	}
+
+	/**
+	 * Forget everything below dir (the directory changed).
+	 */
+	public void removeChildren(String dir) {
+		ensureLoaded();
+		String prefix = dir.endsWith("/") ? dir : dir+"/";
+		// every path that starts with prefix sorts before prefix with the '/' bumped to '0'
+		// prefix itself is excluded, it is the directory when dir is "/"
+		String end = prefix.substring(0, prefix.length()-1)+'0';
+		Map<String, Object> below = entries.subMap(prefix, false, end, false);
+		if( !below.isEmpty()) {
+			below.clear();
+			dirty = true;
+		}
+		children.subMap(prefix, false, end, false).clear();
+		children.remove(dir);
+		unlist(dir);
+	}
+
+	private void unlist(String dir) {
+		if( dir != null ) {
+			Rec r = getRec(dir);
+			if( r != null && r.isListed()) {
+				entries.put(dir, r.withFlags((byte)(r.flags & ~FLAG_LISTED)));
+				dirty = true;
+			}
+		}
+	}
+
+	public int size() {
+		ensureLoaded();
+		return entries.size();
+	}
+
+	/**
+	 * Write the index (if it changed) to a temporary file and move it over the old one.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if( !dirty ) {
+			return;
+		}
+		ensureLoaded();
+		File dir = file.getAbsoluteFile().getParentFile();
+		if( dir != null && !dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Can't create "+dir);
+		}
+		File tmp = new File(file.getPath()+".tmp");
+		Map<String, Object> snapshot = new HashMap<>(entries);
+		// anything changed from here on makes it dirty again
+		dirty = false;
+		try {
+			write(tmp, snapshot);
+			release(snapshot);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			dirty = true;
+			throw e;
+		}
+		// use the new file, anything changed since the snapshot is kept
+		map((path, loc) -> entries.replace(path, snapshot.get(path), loc));
+	}
+
+	private static void write(File tmp, Map<String, Object> snapshot) throws IOException {
+		List<Map.Entry<String, Object>> list = new ArrayList<>(snapshot.entrySet());
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64*1024))) {
+			int count = 0;
+			for (Map.Entry<String, Object> e : list) {
+				if( e.getKey().getBytes(StandardCharsets.UTF_8).length <= 0xffff ) {
+					count++;
+				}
+			}
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			for (Map.Entry<String, Object> e : list) {
+				byte [] p = e.getKey().getBytes(StandardCharsets.UTF_8);
+				if( p.length > 0xffff ) {
+					continue;
+				}
+				Object o = e.getValue();
+				Rec r = o instanceof Loc ? ((Loc) o).decode() : (Rec) o;
+				out.writeShort(p.length);
+				out.write(p);
+				out.writeByte(r.flags);
+				out.writeLong(r.size);
+				out.writeInt(r.mtime);
+				out.writeInt(r.atime);
+				out.writeInt(r.mode);
+				out.writeInt(r.uid);
+				out.writeInt(r.gid);
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * uid -> user name and gid -> group name for one session.
+ * 
+ * Filled from the longnames of directory listings ("-rw-r--r-- 1 user group ...") and 
+ * from the users-groups-by-id@openssh.com extension.
+ *  
+ * @author Tony Bringardner
+ *
+ */
+public class SftpNameCache {
+
+	private final Map<Integer, String> users = new ConcurrentHashMap<>();
+	private final Map<Integer, String> groups = new ConcurrentHashMap<>();
+
+	public String getUserName(int uid) {
+		return users.get(uid);
+	}
+
+	public String getGroupName(int gid) {
+		return groups.get(gid);
+	}
+
+	public void putUser(int uid, String name) {
+		if( name != null && !name.isEmpty()) {
+			users.put(uid, name);
+		}
+	}
+
+	public void putGroup(int gid, String name) {
+		if( name != null && !name.isEmpty()) {
+			groups.put(gid, name);
+		}
+	}
+
+	/**
+	 * Take the owner and group names from the longname of a list entry.
+	 *  
+	 * @param e
+	 */
+	public void add(LsEntry e) {
+		add(e.getLongname(), e.getAttrs());
+	}
+
+	void add(String longname, SftpATTRS a) {
+		if( a == null || longname == null || (a.getFlags() & SftpATTRS.SSH_FILEXFER_ATTR_UIDGID) == 0) {
+			return;
+		}
+		// permissions links owner group size ...
+		String [] parts = longname.trim().split("\\s+", 5);
+		if( parts.length == 5 ) {
+			putUser(a.getUId(), parts[2]);
+			putGroup(a.getGId(), parts[3]);
+		}
+	}
+}
@@ -0,0 +1,568 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Move one large file as several byte ranges at the same time.
+ * 
+ * Each segment runs on its own pooled channel (the pool stripes them across sessions) so the 
+ * transfer is not limited to the flow control window of one channel.  Segments are written 
+ * positionally into the local file (download) or with offset addressed writes on a handle that 
+ * each channel opens once (upload).  A segment that fails is retried from the last byte it wrote.
+ * 
+ * A resumable transfer keeps a journal next to the local file (see SftpTransferJournal) so a 
+ * transfer that is interrupted (even by a crash) continues from its last verified checkpoint.
+ *  
+ * @author Tony Bringardner
+ *
+ */
+public class SftpSegmentedTransfer {
+
+	public interface Listener {
+		/**
+		 * Called from the segment threads as data is written.
+		 *  
+		 * @param transferred bytes moved so far (all segments)
+		 * @param total bytes to move
+		 */
+		void progress(long transferred, long total);
+	}
+
+	public static final long DEFAULT_MIN_SEGMENT_SIZE = 8*1024*1024;
+	public static final int DEFAULT_RETRIES = 3;
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 16*1024*1024;
+	private static final int BUFFER_SIZE = 32*1024;
+	// bytes before a checkpoint covered by its CRC
+	private static final int TAIL_BLOCK = 64*1024;
+
+	private final SftpFileSourceFactory factory;
+	private int segments;
+	private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+	private int retries = DEFAULT_RETRIES;
+	private Listener listener;
+	private boolean verifyHash = false;
+	private boolean resumable = false;
+	private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+	/**
+	 * The default is one segment for each channel the factory's pool can hand out.
+	 *  
+	 * @param factory
+	 */
+	public SftpSegmentedTransfer(SftpFileSourceFactory factory) {
+		this.factory = factory;
+		this.segments = Math.max(1, factory.getMaxChannels()*factory.getSessionCount());
+	}
+
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Maximum number of ranges moved at the same time.
+	 * More than the pool's channels only makes the extra segments wait for a channel.
+	 * 
+	 * @param segments
+	 * @return this
+	 */
+	public SftpSegmentedTransfer setSegments(int segments) {
+		if( segments < 1 ) {
+			throw new IllegalArgumentException("segments must be greater than 0 ("+segments+")");
+		}
+		this.segments = segments;
+		return this;
+	}
+
+	public long getMinSegmentSize() {
+		return minSegmentSize;
+	}
+
+	/**
+	 * Small files are not worth splitting, no segment is made smaller than this.
+	 * 
+	 * @param minSegmentSize
+	 * @return this
+	 */
+	public SftpSegmentedTransfer setMinSegmentSize(long minSegmentSize) {
+		if( minSegmentSize < 1 ) {
+			throw new IllegalArgumentException("minSegmentSize must be greater than 0 ("+minSegmentSize+")");
+		}
+		this.minSegmentSize = minSegmentSize;
+		return this;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * 
+	 * @param retries number of times a failed segment is restarted
+	 * @return this
+	 */
+	public SftpSegmentedTransfer setRetries(int retries) {
+		if( retries < 0 ) {
+			throw new IllegalArgumentException("retries can't be negative ("+retries+")");
+		}
+		this.retries = retries;
+		return this;
+	}
+
+	public Listener getListener() {
+		return listener;
+	}
+
+	public SftpSegmentedTransfer setListener(Listener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public boolean isVerifyHash() {
+		return verifyHash;
+	}
+
+	/**
+	 * After an upload compare the sha256 of the local file with the output of sha256sum on the server.  
+	 * This reads the whole file on both ends and needs an exec channel. 
+	 * The size is always checked.
+	 * 
+	 * @param verifyHash
+	 * @return this
+	 */
+	public SftpSegmentedTransfer setVerifyHash(boolean verifyHash) {
+		this.verifyHash = verifyHash;
+		return this;
+	}
+
+	public boolean isResumable() {
+		return resumable;
+	}
+
+	/**
+	 * Keep checkpoints in a journal next to the local file (name+".sftp-journal"). 
+	 * When a journal for the same transfer of an unchanged source is found, segments continue 
+	 * from their last checkpoint whose tail block still matches.  The journal is removed when the 
+	 * transfer completes.
+	 * 
+	 * @param resumable
+	 * @return this
+	 */
+	public SftpSegmentedTransfer setResumable(boolean resumable) {
+		this.resumable = resumable;
+		return this;
+	}
+
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * 
+	 * @param checkpointInterval bytes written by a segment between checkpoints.  
+	 * An upload segment also waits for the server to acknowledge its writes this often (resumable or not), 
+	 * so a retry resends at most this much.
+	 * @return this
+	 */
+	public SftpSegmentedTransfer setCheckpointInterval(long checkpointInterval) {
+		if( checkpointInterval < 1 ) {
+			throw new IllegalArgumentException("checkpointInterval must be greater than 0 ("+checkpointInterval+")");
+		}
+		this.checkpointInterval = checkpointInterval;
+		return this;
+	}
+
+	/**
+	 * Copy a remote file to a local file, the local file is replaced 
+	 * (unless a resumable transfer continues from its journal).
+	 * 
+	 * @param remote absolute path of the remote file
+	 * @param local
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public long download(String remote, Path local) throws IOException {
+		SftpATTRS a = null;
+		try {
+			a = factory.execute(c -> c.stat(remote));
+		} catch (SftpException e) {
+			throw new IOException("Can't stat "+remote, e);
+		}
+		if( !a.isReg()) {
+			throw new IOException(remote+" is not a regular file");
+		}
+		long size = a.getSize();
+		SftpTransferJournal journal = journal(local, SftpTransferJournal.DOWNLOAD, remote, size, a.getMTime());
+		boolean resume = journal.transferred() > 0;
+
+		try(FileChannel out = resume 
+				? FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)
+				: FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+						StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+			if( resume ) {
+				for (int idx = 0; idx < journal.start.length; idx++) {
+					long from = Math.max(journal.start[idx], journal.done[idx]-TAIL_BLOCK);
+					if( journal.done[idx] > journal.start[idx] && localCrc(out, from, journal.done[idx]) != journal.crc[idx]) {
+						journal.reset(idx);
+					}
+				}
+			}
+			journal.save();
+			AtomicLong done = new AtomicLong(journal.transferred());
+			run(journal, idx -> downloadSegment(remote, out, journal, idx, done));
+			if( out.size() > size ) {
+				out.truncate(size);
+			}
+		}
+		journal.delete();
+
+		return size;
+	}
+
+	/**
+	 * Copy a local file to a remote file, the remote file is replaced 
+	 * (unless a resumable transfer continues from its journal).
+	 * 
+	 * @param local
+	 * @param remote absolute path of the remote file
+	 * @return the number of bytes copied
+	 * @throws IOException if the copy fails or the remote file does not match
+	 */
+	public long upload(Path local, String remote) throws IOException {
+		long size = Files.size(local);
+		SftpTransferJournal journal = journal(local, SftpTransferJournal.UPLOAD, remote, size, 
+				Files.getLastModifiedTime(local).toMillis());
+
+		try(FileChannel in = FileChannel.open(local, StandardOpenOption.READ)) {
+			if( journal.transferred() > 0 ) {
+				for (int idx = 0; idx < journal.start.length; idx++) {
+					long from = Math.max(journal.start[idx], journal.done[idx]-TAIL_BLOCK);
+					if( journal.done[idx] > journal.start[idx] && remoteCrc(remote, from, journal.done[idx]) != journal.crc[idx]) {
+						journal.reset(idx);
+					}
+				}
+			}
+			if( journal.transferred() == 0 ) {
+				try {
+					// create / truncate once, the segments never truncate
+					factory.execute(c -> {
+						c.put(remote, ChannelSftp.OVERWRITE).close();
+						return null;
+					});
+				} catch (SftpException e) {
+					throw new IOException("Can't create "+remote, e);
+				}
+			}
+			journal.save();
+			AtomicLong done = new AtomicLong(journal.transferred());
+			run(journal, idx -> uploadSegment(in, remote, journal, idx, done));
+		} finally {
+			factory.invalidate(remote);
+			factory.invalidateParent(remote);
+		}
+
+		verify(local, remote, size);
+		journal.delete();
+
+		return size;
+	}
+
+	/**
+	 * The journal to continue from or a new one.
+	 */
+	private SftpTransferJournal journal(Path local, String direction, String remote, long size, long mtime) {
+		Path file = resumable ? SftpTransferJournal.forFile(local) : null;
+		if( file != null ) {
+			SftpTransferJournal ret = SftpTransferJournal.load(file);
+			if( ret != null && ret.matches(direction, remote, size, mtime)) {
+				return ret;
+			}
+		}
+		long count = Math.max(1, Math.min(segments, (size+minSegmentSize-1)/minSegmentSize));
+		return new SftpTransferJournal(file, direction, remote, size, mtime, (int)count);
+	}
+
+	private void verify(Path local, String remote, long size) throws IOException {
+		SftpATTRS a = null;
+		try {
+			a = factory.execute(c -> c.stat(remote));
+		} catch (SftpException e) {
+			throw new IOException("Can't stat "+remote, e);
+		}
+		if( a.getSize() != size ) {
+			throw new IOException("Size mismatch for "+remote+" expected "+size+" got "+a.getSize());
+		}
+		if( verifyHash ) {
+			String out = factory.runCommand("sha256sum "+SftpFindLister.quote(remote));
+			String remoteHash = out == null ? "" : out.trim().split("\\s+")[0];
+			String localHash = sha256(local);
+			if( !localHash.equalsIgnoreCase(remoteHash)) {
+				throw new IOException("sha256 mismatch for "+remote+" expected "+localHash+" got "+remoteHash);
+			}
+		}
+	}
+
+	private static String sha256(Path file) throws IOException {
+		MessageDigest md = null;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte [] buf = new byte[BUFFER_SIZE*4];
+		try(InputStream in = Files.newInputStream(file)) {
+			int got = 0;
+			while( (got = in.read(buf)) >= 0 ) {
+				md.update(buf, 0, got);
+			}
+		}
+		StringBuilder ret = new StringBuilder();
+		for (byte b : md.digest()) {
+			ret.append(String.format("%02x", b & 0xff));
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * CRC32 of [from,to) of a local file, a short file gives a different CRC.
+	 */
+	private static long localCrc(FileChannel ch, long from, long to) throws IOException {
+		CRC32 ret = new CRC32();
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		long pos = from;
+		while( pos < to ) {
+			bb.clear();
+			bb.limit((int)Math.min(bb.capacity(), to-pos));
+			int got = ch.read(bb, pos);
+			if( got < 0 ) {
+				break;
+			}
+			bb.flip();
+			ret.update(bb);
+			pos += got;
+		}
+		return ret.getValue();
+	}
+
+	/**
+	 * CRC32 of [from,to) of a remote file, a missing or short file gives a different CRC.
+	 */
+	private long remoteCrc(String remote, long from, long to) throws IOException {
+		try {
+			return factory.execute(c -> {
+				CRC32 ret = new CRC32();
+				byte [] buf = new byte[BUFFER_SIZE];
+				try(InputStream in = factory.openInputStream(c, remote, from)) {
+					long pos = from;
+					while( pos < to ) {
+						int got = in.read(buf, 0, (int)Math.min(buf.length, to-pos));
+						if( got < 0 ) {
+							break;
+						}
+						ret.update(buf, 0, got);
+						pos += got;
+					}
+				}
+				return ret.getValue();
+			});
+		} catch (SftpException e) {
+			return -1;
+		}
+	}
+
+	private interface Segment {
+		void run(int idx) throws IOException;
+	}
+
+	/**
+	 * Run the unfinished segments of the journal in parallel, the first failure cancels the rest.
+	 */
+	private void run(SftpTransferJournal journal, Segment segment) throws IOException {
+		List<Integer> todo = new ArrayList<>();
+		for (int idx = 0; idx < journal.start.length; idx++) {
+			if( journal.done[idx] < journal.end[idx]) {
+				todo.add(idx);
+			}
+		}
+		if( todo.size() <= 1 ) {
+			for (int idx : todo) {
+				segment.run(idx);
+			}
+			return;
+		}
+
+		// reuse the background threads rather than starting a pool for every transfer
+		ExecutorService exec = SftpFileSourceFactory.getBackgroundExecutor();
+		List<Future<Void>> list = new ArrayList<>();
+		try {
+			for (int idx : todo) {
+				list.add(exec.submit(() -> {
+					segment.run(idx);
+					return null;
+				}));
+			}
+			for (Future<Void> f : list) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for segments");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if( cause instanceof IOException ) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		} finally {
+			for (Future<Void> f : list) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	private void downloadSegment(String remote, FileChannel out, SftpTransferJournal journal, int idx, AtomicLong done) throws IOException {
+		long end = journal.end[idx];
+		// position reached, kept across retries
+		long [] pos = {journal.done[idx]};
+		long [] checkpoint = {pos[0]};
+		int attempt = 0;
+		while( pos[0] < end ) {
+			try {
+				factory.execute(c -> {
+					byte [] buf = new byte[BUFFER_SIZE];
+					try(InputStream in = factory.openInputStream(c, remote, pos[0])) {
+						while( pos[0] < end ) {
+							int got = in.read(buf, 0, (int)Math.min(buf.length, end-pos[0]));
+							if( got < 0 ) {
+								throw new IOException("Unexpected EOF at "+pos[0]+" of "+remote);
+							}
+							ByteBuffer bb = ByteBuffer.wrap(buf, 0, got);
+							while( bb.hasRemaining()) {
+								out.write(bb, pos[0]+bb.position());
+							}
+							pos[0] += got;
+							progress(done.addAndGet(got), journal.size);
+							if( resumable && (pos[0]-checkpoint[0] >= checkpointInterval || pos[0] == end)) {
+								// the data must be on disk before the journal says it is
+								out.force(false);
+								journal.checkpoint(idx, pos[0], localCrc(out, Math.max(journal.start[idx], pos[0]-TAIL_BLOCK), pos[0]));
+								checkpoint[0] = pos[0];
+							}
+						}
+					}
+					return null;
+				});
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException | SftpException e) {
+				if( ++attempt > retries || Thread.currentThread().isInterrupted()) {
+					throw e instanceof IOException ? (IOException) e : new IOException(e);
+				}
+			}
+		}
+	}
+
+	private void uploadSegment(FileChannel in, String remote, SftpTransferJournal journal, int idx, AtomicLong done) throws IOException {
+		long end = journal.end[idx];
+		// position acknowledged by the server, kept across retries
+		long [] pos = {journal.done[idx]};
+		// position handed to the channel
+		long [] sent = {pos[0]};
+		int attempt = 0;
+		while( pos[0] < end ) {
+			try {
+				factory.execute(c -> {
+					byte [] buf = new byte[BUFFER_SIZE];
+					sent[0] = pos[0];
+					try(OutputStream out = c.putAt(remote, pos[0])) {
+						while( sent[0] < end ) {
+							ByteBuffer bb = ByteBuffer.wrap(buf, 0, (int)Math.min(buf.length, end-sent[0]));
+							while( bb.hasRemaining()) {
+								if( in.read(bb, sent[0]+bb.position()) < 0 ) {
+									throw new IOException("Unexpected EOF at "+(sent[0]+bb.position()));
+								}
+							}
+							out.write(buf, 0, bb.limit());
+							sent[0] += bb.limit();
+							progress(done.addAndGet(bb.limit()), journal.size);
+							if( sent[0]-pos[0] >= checkpointInterval ) {
+								// flush waits for the server to acknowledge every write, a retry starts from here
+								out.flush();
+								pos[0] = sent[0];
+								if( resumable ) {
+									journal.checkpoint(idx, pos[0], localCrc(in, Math.max(journal.start[idx], pos[0]-TAIL_BLOCK), pos[0]));
+								}
+							}
+						}
+					}
+					// everything up to here has been acknowledged (close waits for the status replies) 
+					pos[0] = sent[0];
+					if( resumable ) {
+						journal.checkpoint(idx, pos[0], localCrc(in, Math.max(journal.start[idx], pos[0]-TAIL_BLOCK), pos[0]));
+					}
+					return null;
+				});
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException | SftpException e) {
+				// the unacknowledged bytes will be sent again
+				done.addAndGet(pos[0]-sent[0]);
+				if( ++attempt > retries || Thread.currentThread().isInterrupted()) {
+					throw e instanceof IOException ? (IOException) e : new IOException(e);
+				}
+			}
+		}
+	}
+
+	private void progress(long transferred, long total) {
+		Listener l = listener;
+		if( l != null ) {
+			l.progress(transferred, total);
+		}
+	}
+}
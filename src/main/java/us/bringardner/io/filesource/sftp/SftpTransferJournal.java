@@ -0,0 +1,188 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Checkpoints of a segmented transfer so an interrupted transfer can continue where it stopped.
+ * 
+ * For each segment the journal holds its range, the offset known to be written and the CRC32 of the 
+ * block that ends at that offset.  Before resuming the block is read back from the destination and 
+ * a segment whose CRC does not match starts over.
+ *  
+ * @author Tony Bringardner
+ *
+ */
+class SftpTransferJournal {
+
+	static final String DOWNLOAD = "download";
+	static final String UPLOAD = "upload";
+	static final String SUFFIX = ".sftp-journal";
+
+	// null when the transfer is not resumable
+	private final Path file;
+	final String direction;
+	final String remote;
+	final long size;
+	final long mtime;
+	final long [] start;
+	final long [] end;
+	final long [] done;
+	final long [] crc;
+
+	/**
+	 * A new journal with [0,size) split into count segments.
+	 */
+	SftpTransferJournal(Path file, String direction, String remote, long size, long mtime, int count) {
+		this.file = file;
+		this.direction = direction;
+		this.remote = remote;
+		this.size = size;
+		this.mtime = mtime;
+		start = new long[count];
+		end = new long[count];
+		done = new long[count];
+		crc = new long[count];
+		long len = (size+count-1)/count;
+		for (int idx = 0; idx < count; idx++) {
+			start[idx] = done[idx] = Math.min(size, idx*len);
+			end[idx] = Math.min(size, start[idx]+len);
+		}
+	}
+
+	/**
+	 * @return the journal kept for local, never null
+	 */
+	static Path forFile(Path local) {
+		return local.resolveSibling(local.getFileName()+SUFFIX);
+	}
+
+	/**
+	 * 
+	 * @param file
+	 * @return the journal or null if there isn't one (or it can't be read)
+	 */
+	static SftpTransferJournal load(Path file) {
+		Properties p = new Properties();
+		try(InputStream in = Files.newInputStream(file)) {
+			p.load(in);
+			int count = Integer.parseInt(p.getProperty("segments"));
+			SftpTransferJournal ret = new SftpTransferJournal(file, p.getProperty("direction"), 
+					p.getProperty("remote"), Long.parseLong(p.getProperty("size")), 
+					Long.parseLong(p.getProperty("mtime")), count);
+			for (int idx = 0; idx < count; idx++) {
+				String [] parts = p.getProperty("segment."+idx).split(",");
+				ret.start[idx] = Long.parseLong(parts[0]);
+				ret.end[idx] = Long.parseLong(parts[1]);
+				ret.done[idx] = Long.parseLong(parts[2]);
+				ret.crc[idx] = Long.parseLong(parts[3]);
+			}
+			return ret;
+		} catch (IOException | RuntimeException e) {
+			// a missing or corrupt journal is the same as no journal
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if this journal is for the same transfer of the same source. 
+	 */
+	boolean matches(String direction, String remote, long size, long mtime) {
+		return this.direction.equals(direction) && this.remote.equals(remote) 
+				&& this.size == size && this.mtime == mtime;
+	}
+
+	/**
+	 * @return bytes already written by all segments
+	 */
+	synchronized long transferred() {
+		long ret = 0;
+		for (int idx = 0; idx < start.length; idx++) {
+			ret += done[idx]-start[idx];
+		}
+		return ret;
+	}
+
+	/**
+	 * Record that segment idx has written everything before pos.
+	 *  
+	 * @param idx
+	 * @param pos
+	 * @param crc of the block ending at pos
+	 * @throws IOException
+	 */
+	synchronized void checkpoint(int idx, long pos, long crc) throws IOException {
+		done[idx] = pos;
+		this.crc[idx] = crc;
+		save();
+	}
+
+	/**
+	 * Start segment idx over.
+	 */
+	synchronized void reset(int idx) {
+		done[idx] = start[idx];
+		crc[idx] = 0;
+	}
+
+	synchronized void save() throws IOException {
+		if( file == null ) {
+			return;
+		}
+		Properties p = new Properties();
+		p.setProperty("direction", direction);
+		p.setProperty("remote", remote);
+		p.setProperty("size", ""+size);
+		p.setProperty("mtime", ""+mtime);
+		p.setProperty("segments", ""+start.length);
+		for (int idx = 0; idx < start.length; idx++) {
+			p.setProperty("segment."+idx, start[idx]+","+end[idx]+","+done[idx]+","+crc[idx]);
+		}
+		Path tmp = file.resolveSibling(file.getFileName()+".tmp");
+		try(FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+			p.store(out, "sftp transfer");
+			// on disk before it replaces the old journal, a crash leaves one or the other
+			out.getChannel().force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * The transfer is complete, remove the journal.
+	 */
+	void delete() throws IOException {
+		if( file != null ) {
+			Files.deleteIfExists(file);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * The state of a remote tree (path, size, mtime, permissions) as seen by a scan. 
+ * Pass it to the next SftpFileSource.scan to find what changed. 
+ * 
+ * A snapshot can be written to / read from a stream so it can be kept between runs.
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpTreeSnapshot {
+
+	private static final int MAGIC = 0x53465453; // SFTS
+	private static final int VERSION = 1;
+
+	public static class Entry {
+		private final long size;
+		private final int mtime;
+		private final int permissions;
+
+		Entry(long size, int mtime, int permissions) {
+			this.size = size;
+			this.mtime = mtime;
+			this.permissions = permissions;
+		}
+
+		Entry(SftpATTRS a) {
+			this(a.getSize(), a.getMTime(), a.getPermissions());
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public int getMTime() {
+			return mtime;
+		}
+
+		public int getPermissions() {
+			return permissions;
+		}
+
+		public boolean isDirectory() {
+			return (permissions & 0170000) == 0040000;
+		}
+
+		/**
+		 * A directory's size and mtime change whenever an entry is added / removed so only the
+		 * permissions are compared for directories. 
+		 */
+		boolean isModified(Entry other) {
+			if( isDirectory() != other.isDirectory()) {
+				return true;
+			}
+			if( isDirectory()) {
+				return permissions != other.permissions;
+			}
+			return size != other.size || mtime != other.mtime || permissions != other.permissions;
+		}
+
+		/**
+		 * @return true if the directory listing may have changed
+		 */
+		boolean isDirectoryChanged(Entry other) {
+			// sftp v3 has no link count, the size of a directory is the next best signal
+			return mtime != other.mtime || size != other.size;
+		}
+	}
+
+	private final String root;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	// directory -> names of its children
+	private final Map<String, List<String>> children = new HashMap<>();
+
+	public SftpTreeSnapshot(String root) {
+		this.root = root;
+	}
+
+	public String getRoot() {
+		return root;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * @return all paths in the snapshot (including the root)
+	 */
+	public List<String> getPaths() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * @param dir
+	 * @return the names of the children of dir or null if dir was not listed.
+	 */
+	public List<String> getChildren(String dir) {
+		List<String> ret = children.get(dir);
+		return ret == null ? null : Collections.unmodifiableList(ret);
+	}
+
+	void put(String path, Entry e) {
+		entries.put(path, e);
+	}
+
+	void setChildren(String dir, List<String> names) {
+		children.put(dir, names);
+	}
+
+	/**
+	 * Drop name from the children of dir (if dir was listed).
+	 */
+	void removeChild(String dir, String name) {
+		List<String> names = children.get(dir);
+		if( names != null ) {
+			List<String> kept = new ArrayList<>(names);
+			kept.remove(name);
+			children.put(dir, kept);
+		}
+	}
+
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeUTF(root);
+		data.writeInt(entries.size());
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			data.writeUTF(e.getKey());
+			Entry v = e.getValue();
+			data.writeLong(v.size);
+			data.writeInt(v.mtime);
+			data.writeInt(v.permissions);
+			List<String> kids = children.get(e.getKey());
+			if( kids == null ) {
+				data.writeInt(-1);
+			} else {
+				data.writeInt(kids.size());
+				for (String name : kids) {
+					data.writeUTF(name);
+				}
+			}
+		}
+		data.flush();
+	}
+
+	public static SftpTreeSnapshot read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if( data.readInt() != MAGIC || data.readInt() != VERSION ) {
+			throw new IOException("Not a tree snapshot (or wrong version)");
+		}
+		SftpTreeSnapshot ret = new SftpTreeSnapshot(data.readUTF());
+		int count = data.readInt();
+		for (int idx = 0; idx < count; idx++) {
+			String path = data.readUTF();
+			ret.entries.put(path, new Entry(data.readLong(), data.readInt(), data.readInt()));
+			int kids = data.readInt();
+			if( kids >= 0 ) {
+				List<String> names = new ArrayList<>(kids);
+				for (int k = 0; k < kids; k++) {
+					names.add(data.readUTF());
+				}
+				ret.children.put(path, names);
+			}
+		}
+		return ret;
+	}
+}
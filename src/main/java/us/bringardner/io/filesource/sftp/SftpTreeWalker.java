@@ -0,0 +1,233 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.io.filesource.FileSourceFilter;
+
+/**
+ * Walk a remote directory tree in parallel.
+ * 
+ * Each directory is listed by a fork / join task on its own pooled channel so the READDIR work is 
+ * spread across the channels (and sessions) of the factory's pool.  Sub directories are forked as soon 
+ * as their entry arrives and every entry is handed to the visitor as it streams in.
+ * 
+ * The visitor is called from several threads at the same time and in no particular order. 
+ * Symbolic links are visited but never followed.
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpTreeWalker {
+
+	public interface Visitor {
+		/**
+		 * Called for every entry accepted by the filter.
+		 * 
+		 * @param file 
+		 * @return false to skip the children of a directory (ignored for files)
+		 * @throws IOException to stop the walk
+		 */
+		boolean visit(SftpFileSource file) throws IOException;
+
+		/**
+		 * Called when a directory can't be listed, the default stops the walk.
+		 *  
+		 * @param dir
+		 * @param error
+		 * @throws IOException to stop the walk
+		 */
+		default void failed(SftpFileSource dir, IOException error) throws IOException {
+			throw error;
+		}
+	}
+
+	private final SftpFileSourceFactory factory;
+	private int parallelism;
+	private int maxDepth = Integer.MAX_VALUE;
+	private FileSourceFilter filter;
+
+	/**
+	 * The default parallelism is one task for each channel the factory's pool can hand out.
+	 *  
+	 * @param factory
+	 */
+	public SftpTreeWalker(SftpFileSourceFactory factory) {
+		this.factory = factory;
+		this.parallelism = Math.max(1, factory.getMaxChannels()*factory.getSessionCount());
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Number of directories listed at the same time. 
+	 * More than the pool's channels only makes the extra threads wait for a channel.
+	 * 
+	 * @param parallelism
+	 * @return this
+	 */
+	public SftpTreeWalker setParallelism(int parallelism) {
+		if( parallelism < 1 ) {
+			throw new IllegalArgumentException("parallelism must be greater than 0 ("+parallelism+")");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * 
+	 * @param maxDepth 1 visits only the children of root
+	 * @return this
+	 */
+	public SftpTreeWalker setMaxDepth(int maxDepth) {
+		if( maxDepth < 1 ) {
+			throw new IllegalArgumentException("maxDepth must be greater than 0 ("+maxDepth+")");
+		}
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	public FileSourceFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Entries that are not accepted are neither visited nor descended into.  
+	 * The filter is applied as entries arrive using only the attributes from the listing.
+	 * 
+	 * @param filter null to accept everything
+	 * @return this
+	 */
+	public SftpTreeWalker setFilter(FileSourceFilter filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * Walk the tree below root, root itself is not visited.  Returns when the walk is complete.
+	 * 
+	 * @param root
+	 * @param visitor
+	 * @throws IOException the first error from the visitor 
+	 */
+	public void walk(SftpFileSource root, Visitor visitor) throws IOException {
+		AtomicReference<IOException> error = new AtomicReference<>();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ListTask(root, 1, visitor, error));
+		} finally {
+			pool.shutdown();
+		}
+		try {
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the walk to end");
+		}
+		if( error.get() != null ) {
+			throw error.get();
+		}
+	}
+
+	public void walk(String root, Visitor visitor) throws IOException {
+		walk(new SftpFileSource(factory, root), visitor);
+	}
+
+	private class ListTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final SftpFileSource dir;
+		private final int depth;
+		private final Visitor visitor;
+		private final AtomicReference<IOException> error;
+
+		ListTask(SftpFileSource dir, int depth, Visitor visitor, AtomicReference<IOException> error) {
+			this.dir = dir;
+			this.depth = depth;
+			this.visitor = visitor;
+			this.error = error;
+		}
+
+		@Override
+		protected void compute() {
+			if( error.get() != null ) {
+				return;
+			}
+			List<ListTask> forked = new ArrayList<>();
+			try {
+				factory.lsDirectory(dir.getAbsolutePath(), e -> {
+					if( error.get() != null ) {
+						return ChannelSftp.LsEntrySelector.BREAK;
+					}
+					String name = e.getFilename();
+					if( name.equals(".") || name.equals("..")) {
+						return ChannelSftp.LsEntrySelector.CONTINUE;
+					}
+					SftpFileSource file = dir.createChild(e);
+					try {
+						if( filter == null || filter.accept(file)) {
+							if( visitor.visit(file) && e.getAttrs().isDir() && depth < maxDepth) {
+								ListTask t = new ListTask(file, depth+1, visitor, error);
+								t.fork();
+								forked.add(t);
+							}
+						}
+					} catch (IOException ex) {
+						error.compareAndSet(null, ex);
+						return ChannelSftp.LsEntrySelector.BREAK;
+					}
+					return ChannelSftp.LsEntrySelector.CONTINUE;
+				});
+			} catch (IOException | SftpException e) {
+				IOException ex = e instanceof IOException ? (IOException) e : new IOException(dir+" "+e, e);
+				try {
+					visitor.failed(dir, ex);
+				} catch (IOException e1) {
+					error.compareAndSet(null, e1);
+				}
+			}
+			for (ListTask t : forked) {
+				t.join();
+			}
+		}
+	}
+}
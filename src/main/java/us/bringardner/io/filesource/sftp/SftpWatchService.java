@@ -0,0 +1,362 @@
+/**
+ * <PRE>
+ *
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ *
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *
+ *
+ *	@author Tony Bringardner
+ *
+ *
+ * ~version~V000.01.06-
+ */
+package us.bringardner.io.filesource.sftp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.core.BaseObject;
+
+/**
+ * Watch remote directories by polling.
+ * 
+ * Each poll lstat's the directory and only lists it when its mtime or size changed (or every 
+ * fullListEvery polls, to catch files rewritten in place).  The listing is compared with the previous one
+ * and ENTRY_CREATE / ENTRY_MODIFY / ENTRY_DELETE events are sent to the listener.
+ * 
+ * The interval adapts: it goes back to minInterval after a change and doubles (up to maxInterval) 
+ * while nothing changes.  Each watch service polls on its own thread, started by the first register 
+ * and stopped by close. 
+ * 
+ * @author Tony Bringardner
+ *
+ */
+public class SftpWatchService extends BaseObject implements Closeable {
+
+	public static final long DEFAULT_MIN_INTERVAL = 1000;
+	public static final long DEFAULT_MAX_INTERVAL = 30000;
+	public static final int DEFAULT_FULL_LIST_EVERY = 10;
+
+	public static class Event {
+		private final WatchEvent.Kind<?> kind;
+		private final String path;
+		private final SftpATTRS attrs;
+
+		Event(WatchEvent.Kind<?> kind, String path, SftpATTRS attrs) {
+			this.kind = kind;
+			this.path = path;
+			this.attrs = attrs;
+		}
+
+		/**
+		 * @return StandardWatchEventKinds ENTRY_CREATE, ENTRY_MODIFY or ENTRY_DELETE
+		 */
+		public WatchEvent.Kind<?> getKind() {
+			return kind;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the new attributes (the last known for ENTRY_DELETE)
+		 */
+		public SftpATTRS getAttrs() {
+			return attrs;
+		}
+
+		@Override
+		public String toString() {
+			return kind.name()+" "+path;
+		}
+	}
+
+	public interface Listener {
+		/**
+		 * Called on a scheduler thread, don't block.
+		 */
+		void onEvent(Event event);
+
+		/**
+		 * A poll failed, the directory will be polled again.
+		 */
+		default void onError(String dir, IOException error) {
+		}
+	}
+
+	/**
+	 * A watched directory
+	 */
+	public class Registration {
+		private final String dir;
+		private final Listener listener;
+		private Map<String, SftpATTRS> last;
+		private int lastMTime = -1;
+		private long lastSize = -1;
+		private long interval = minInterval;
+		private int polls = 0;
+		private volatile boolean cancelled = false;
+		private ScheduledFuture<?> future;
+
+		Registration(String dir, Listener listener) {
+			this.dir = dir;
+			this.listener = listener;
+		}
+
+		public String getDirectory() {
+			return dir;
+		}
+
+		/**
+		 * @return ms until the next poll
+		 */
+		public synchronized long getInterval() {
+			return interval;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public synchronized void cancel() {
+			cancelled = true;
+			registrations.remove(this);
+			if( future != null ) {
+				future.cancel(false);
+			}
+		}
+
+		private synchronized void schedule() {
+			if( !cancelled ) {
+				future = getScheduler().schedule(this::poll, interval, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void poll() {
+			boolean changed = false;
+			try {
+				changed = check();
+			} catch (IOException e) {
+				listener.onError(dir, e);
+			} catch (RuntimeException e) {
+				logError("Error polling "+dir, e);
+			}
+			synchronized (this) {
+				interval = changed ? minInterval : Math.min(maxInterval, interval*2);
+			}
+			schedule();
+		}
+
+		/**
+		 * @return true if anything changed
+		 */
+		private boolean check() throws IOException {
+			polls++;
+			SftpATTRS a = null;
+			try {
+				// straight to the server, a cached value would hide the change
+				a = factory.execute(c -> c.lstat(dir));
+			} catch (SftpException e) {
+				if( e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					throw new IOException(dir+" "+e, e);
+				}
+			}
+			Map<String, SftpATTRS> now = null;
+			if( a == null ) {
+				now = new HashMap<>();
+				lastMTime = -1;
+				lastSize = -1;
+			} else if( last == null || a.getMTime() != lastMTime || a.getSize() != lastSize || polls % fullListEvery == 0) {
+				now = list();
+				lastMTime = a.getMTime();
+				lastSize = a.getSize();
+			} else {
+				return false;
+			}
+			if( last == null ) {
+				// first look is the base line
+				last = now;
+				return false;
+			}
+			boolean ret = diff(now);
+			last = now;
+			return ret;
+		}
+
+		private Map<String, SftpATTRS> list() throws IOException {
+			Map<String, SftpATTRS> ret = new HashMap<>();
+			try {
+				List<LsEntry> ls = factory.lsDirectory(dir);
+				for (LsEntry e : ls) {
+					String name = e.getFilename();
+					if( !(name.equals(".") || name.equals(".."))) {
+						ret.put(name, e.getAttrs());
+					}
+				}
+			} catch (SftpException e) {
+				if( e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					throw new IOException(dir+" "+e, e);
+				}
+			}
+			return ret;
+		}
+
+		private boolean diff(Map<String, SftpATTRS> now) {
+			boolean ret = false;
+			for (Map.Entry<String, SftpATTRS> e : now.entrySet()) {
+				SftpATTRS old = last.get(e.getKey());
+				SftpATTRS a = e.getValue();
+				if( old == null ) {
+					ret = fire(StandardWatchEventKinds.ENTRY_CREATE, e.getKey(), a);
+				} else if( old.getSize() != a.getSize() || old.getMTime() != a.getMTime() || old.getPermissions() != a.getPermissions()) {
+					ret = fire(StandardWatchEventKinds.ENTRY_MODIFY, e.getKey(), a);
+				}
+			}
+			for (Map.Entry<String, SftpATTRS> e : last.entrySet()) {
+				if( !now.containsKey(e.getKey())) {
+					ret = fire(StandardWatchEventKinds.ENTRY_DELETE, e.getKey(), e.getValue());
+				}
+			}
+			return ret;
+		}
+
+		private boolean fire(WatchEvent.Kind<?> kind, String name, SftpATTRS a) {
+			String path = dir.endsWith("/") ? dir+name : dir+"/"+name;
+			// whatever we had cached for it is out of date
+			factory.invalidate(path);
+			try {
+				listener.onEvent(new Event(kind, path, a));
+			} catch (RuntimeException e) {
+				logError("Listener error "+path, e);
+			}
+			return true;
+		}
+	}
+
+	private final SftpFileSourceFactory factory;
+	private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+	private long minInterval = DEFAULT_MIN_INTERVAL;
+	private long maxInterval = DEFAULT_MAX_INTERVAL;
+	private int fullListEvery = DEFAULT_FULL_LIST_EVERY;
+	// one per service so a slow server only delays its own polls
+	private ScheduledExecutorService scheduler;
+
+	public SftpWatchService(SftpFileSourceFactory factory) {
+		this.factory = factory;
+	}
+
+	public long getMinInterval() {
+		return minInterval;
+	}
+
+	public long getMaxInterval() {
+		return maxInterval;
+	}
+
+	/**
+	 * Set the poll interval range, applies to directories registered after the call.
+	 * 
+	 * @param minInterval ms after a change
+	 * @param maxInterval ms when nothing has changed for a while
+	 */
+	public void setIntervals(long minInterval, long maxInterval) {
+		if( minInterval < 1 || maxInterval < minInterval ) {
+			throw new IllegalArgumentException("Invalid intervals min="+minInterval+" max="+maxInterval);
+		}
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+	}
+
+	public int getFullListEvery() {
+		return fullListEvery;
+	}
+
+	/**
+	 * List the directory every fullListEvery polls even if its mtime did not change,  
+	 * so files rewritten in place are seen.  
+	 * 
+	 * @param fullListEvery
+	 */
+	public void setFullListEvery(int fullListEvery) {
+		if( fullListEvery < 1 ) {
+			throw new IllegalArgumentException("fullListEvery must be greater than 0 ("+fullListEvery+")");
+		}
+		this.fullListEvery = fullListEvery;
+	}
+
+	private synchronized ScheduledExecutorService getScheduler() {
+		if( scheduler == null ) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "sftp-watch");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Start watching dir.  The first poll records the current content (no events).  
+	 * 
+	 * @param dir
+	 * @param listener
+	 * @return the registration, cancel it to stop watching
+	 */
+	public Registration register(String dir, Listener listener) {
+		Registration ret = new Registration(dir, listener);
+		registrations.add(ret);
+		synchronized (ret) {
+			ret.interval = 0;
+			ret.schedule();
+			ret.interval = minInterval;
+		}
+		return ret;
+	}
+
+	/**
+	 * Cancel all registrations and stop the poll thread.
+	 */
+	@Override
+	public void close() {
+		for (Registration r : registrations.toArray(new Registration[0])) {
+			r.cancel();
+		}
+		synchronized (this) {
+			if( scheduler != null ) {
+				// not shutdownNow, interrupting a poll would break its channel
+				scheduler.shutdown();
+				scheduler = null;
+			}
+		}
+	}
+}
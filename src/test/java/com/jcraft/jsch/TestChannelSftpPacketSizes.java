@@ -0,0 +1,61 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package com.jcraft.jsch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * ChannelSftp.setPacketSizes, no server needed.
+ */
+public class TestChannelSftpPacketSizes {
+
+	@Test
+	public void testPacketSizes() throws JSchException {
+		ChannelSftp c = new ChannelSftp();
+		c.setPacketSizes(128*1024, 16*1024*1024);
+		assertEquals(128*1024, c.getLocalPacketSize());
+		assertEquals(16*1024*1024, c.getLocalWindowSize());
+
+		c.setPacketSizes(ChannelSftp.MAX_LOCAL_PACKET_SIZE, ChannelSftp.MAX_LOCAL_WINDOW_SIZE);
+		assertEquals(ChannelSftp.MAX_LOCAL_PACKET_SIZE, c.getLocalPacketSize());
+		assertEquals(ChannelSftp.MAX_LOCAL_WINDOW_SIZE, c.getLocalWindowSize());
+
+		c.setPacketSizes(32*1024, 32*1024);
+		assertEquals(32*1024, c.getLocalPacketSize());
+	}
+
+	@Test
+	public void testPacketSizesOutOfRange() {
+		ChannelSftp c = new ChannelSftp();
+		assertThrows(JSchException.class, () -> c.setPacketSizes(32*1024-1, 2*1024*1024));
+		assertThrows(JSchException.class, () -> c.setPacketSizes(ChannelSftp.MAX_LOCAL_PACKET_SIZE+1, 16*1024*1024));
+		assertThrows(JSchException.class, () -> c.setPacketSizes(128*1024, 64*1024));
+		assertThrows(JSchException.class, () -> c.setPacketSizes(128*1024, ChannelSftp.MAX_LOCAL_WINDOW_SIZE+1));
+	}
+}
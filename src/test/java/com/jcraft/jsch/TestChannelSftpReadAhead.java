@@ -0,0 +1,79 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package com.jcraft.jsch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * ChannelSftp.ReadAheadWindow sizing, no server needed.
+ */
+public class TestChannelSftpReadAhead {
+
+	private static final int requestLen = 32*1024;
+
+	@Test
+	public void testReadAheadGrowsAtMinimumRtt() {
+		ChannelSftp.ReadAheadWindow w = new ChannelSftp.ReadAheadWindow();
+		int current = 4;
+		for (int idx = 0; idx < 10; idx++) {
+			int next = w.next(1000000, requestLen, requestLen, current, 64);
+			assertEquals(current+1, next,"Window did not grow at the minimum rtt");
+			current = next;
+		}
+	}
+
+	@Test
+	public void testReadAheadMaxAndMin() {
+		ChannelSftp.ReadAheadWindow w = new ChannelSftp.ReadAheadWindow();
+		assertEquals(16, w.next(1000000, requestLen, requestLen, 16, 16),"Window grew past max");
+		assertEquals(1, w.next(1000000, requestLen, requestLen, 0, 16),"Window below 1");
+	}
+
+	@Test
+	public void testReadAheadHoldsOnModerateQueueing() {
+		ChannelSftp.ReadAheadWindow w = new ChannelSftp.ReadAheadWindow();
+		w.next(1000000, requestLen, requestLen, 8, 64);
+		// 1.5 x the minimum is neither idle nor congested
+		assertEquals(8, w.next(1500000, requestLen, requestLen, 8, 64));
+	}
+
+	@Test
+	public void testReadAheadShrinksWhenCongested() throws InterruptedException {
+		ChannelSftp.ReadAheadWindow w = new ChannelSftp.ReadAheadWindow();
+		// a 1ns minimum so the rate is measured on every call
+		w.next(1, requestLen, requestLen, 50, 64);
+		Thread.sleep(5);
+		int next = w.next(1, requestLen, requestLen, 50, 64);
+		assertEquals(51, next);
+		Thread.sleep(5);
+		// roughly 32K per 5ms is far less than 50 requests per rtt
+		next = w.next(10, requestLen, requestLen, next, 64);
+		assertTrue(next >= 1 && next < 50,"Window did not shrink to the measured rate "+next);
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * File operations through SftpAsyncFileSource and their effect on the blocking view.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpAsyncFileSource {
+
+	static String remoteTestFileDirPath = "SftpAsyncFileSourceTest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static SftpAsyncFileSource asyncDir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		asyncDir = factory.async(remoteDir.getAbsolutePath());
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	@Test
+	@Order(1)
+	public void testMissing() {
+		SftpAsyncFileSource missing = asyncDir.getChild("noSuchFile");
+		assertNull(missing.getAttributes().join());
+		assertFalse(missing.exists().join());
+		assertFalse(missing.isDirectory().join());
+		assertFalse(missing.isFile().join());
+		assertEquals(0l, missing.length().join().longValue());
+		assertEquals(0l, missing.lastModified().join().longValue());
+		assertFalse(missing.delete().join(),"Deleted a file that does not exist");
+
+		// other failures come back as the SftpException
+		CompletableFuture<List<LsEntry>> list = missing.list();
+		CompletionException e = assertThrows(CompletionException.class, () -> list.join());
+		SftpException se = SftpAsyncFileSource.getSftpException(e);
+		assertNotNull(se,"Cause is not an SftpException "+e);
+		assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, se.id);
+	}
+
+	@Test
+	@Order(2)
+	public void testMkdir() throws IOException {
+		FileSource blocking = remoteDir.getChild("dir");
+		assertFalse(blocking.exists());
+
+		SftpAsyncFileSource dir = asyncDir.getChild("dir");
+		dir.mkdir().join();
+		assertTrue(dir.isDirectory().join());
+		assertFalse(dir.isFile().join());
+
+		// the blocking view does not see a stale cached miss
+		assertTrue(factory.createFileSource(blocking.getAbsolutePath()).isDirectory(),"mkdir not seen by the blocking view");
+		assertThrows(CompletionException.class, () -> dir.mkdir().join(),"mkdir of an existing directory");
+	}
+
+	@Test
+	@Order(3)
+	public void testFile() throws IOException {
+		FileSource blocking = remoteDir.getChild("file.txt");
+		try(OutputStream out = blocking.getOutputStream()) {
+			out.write("0123456789".getBytes());
+		}
+		SftpAsyncFileSource file = asyncDir.getChild("file.txt");
+		assertTrue(file.exists().join());
+		assertTrue(file.isFile().join());
+		assertEquals(10l, file.length().join().longValue());
+		assertEquals(blocking.lastModified(), file.lastModified().join().longValue());
+		assertEquals(blocking.getAbsolutePath(), file.toFileSource().getAbsolutePath());
+	}
+
+	@Test
+	@Order(4)
+	public void testList() throws IOException {
+		Set<String> names = new TreeSet<>();
+		for(LsEntry e : asyncDir.list().join()) {
+			names.add(e.getFilename());
+		}
+		Set<String> expect = new TreeSet<>();
+		expect.add("dir");
+		expect.add("file.txt");
+		assertEquals(expect, names);
+
+		for(SftpFileSource f : asyncDir.listFiles().join()) {
+			if( f.getName().equals("dir")) {
+				assertTrue(f.isDirectory());
+			} else {
+				assertEquals(10l, f.length());
+			}
+		}
+	}
+
+	@Test
+	@Order(5)
+	public void testSetPermissions() {
+		SftpAsyncFileSource file = asyncDir.getChild("file.txt");
+		file.setPermissions(0640).join();
+		SftpATTRS a = file.getAttributes().join();
+		assertEquals(0640, a.getPermissions() & 0777);
+	}
+
+	@Test
+	@Order(6)
+	public void testRenameAndReadlink() throws IOException {
+		SftpAsyncFileSource file = asyncDir.getChild("file.txt");
+		SftpAsyncFileSource renamed = asyncDir.getChild("renamed.txt");
+		file.renameTo(renamed).join();
+		assertFalse(file.exists().join());
+		assertTrue(renamed.exists().join());
+		assertFalse(remoteDir.getChild("file.txt").exists(),"rename not seen by the blocking view");
+
+		factory.createSymbolicLink(remoteDir.getChild("link"), remoteDir.getChild("renamed.txt"));
+		String target = asyncDir.getChild("link").readlink().join();
+		assertTrue(target.endsWith("renamed.txt"),"Wrong link target "+target);
+	}
+
+	@Test
+	@Order(7)
+	public void testDelete() throws IOException {
+		for (String name : new String[] {"link", "renamed.txt", "dir"}) {
+			SftpAsyncFileSource f = asyncDir.getChild(name);
+			assertTrue(f.delete().join(),"Did not delete "+name);
+			assertFalse(f.exists().join());
+			assertFalse(factory.createFileSource(f.getAbsolutePath()).exists(),"delete not seen by the blocking view");
+		}
+		assertTrue(asyncDir.list().join().isEmpty());
+	}
+}
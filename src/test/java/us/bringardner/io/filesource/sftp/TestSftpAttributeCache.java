@@ -0,0 +1,213 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+import us.bringardner.io.filesource.sftp.SftpAttributeCache.Consistency;
+
+public class TestSftpAttributeCache {
+
+	private static SftpATTRS attrs(long size) {
+		return ChannelSftp.newAttrs(size, 1, 1, 0100644, 0, 0);
+	}
+
+	@Test
+	public void testConsistencyModes() {
+		SftpAttributeCache cache = new SftpAttributeCache(10);
+		SftpATTRS a = attrs(1);
+		cache.put("/a", a);
+		assertNull(cache.get("/a", Consistency.STRICT, 1000),"STRICT used the cache");
+		assertSame(a, cache.get("/a", Consistency.TTL, 1000));
+		assertSame(a, cache.get("/a", Consistency.SESSION, 0));
+		assertNull(cache.get("/b", Consistency.SESSION, 0));
+	}
+
+	@Test
+	public void testTtl() throws InterruptedException {
+		SftpAttributeCache cache = new SftpAttributeCache(10);
+		cache.put("/a", attrs(1));
+		Thread.sleep(60);
+		// older than the TTL is dropped, SESSION still uses it until then
+		assertNotNull(cache.get("/a", Consistency.SESSION, 0));
+		assertNotNull(cache.get("/a", Consistency.TTL, 10000));
+		assertNull(cache.get("/a", Consistency.TTL, 10),"Expired entry was used");
+		assertEquals(0, cache.size(),"Expired entry was not removed");
+	}
+
+	@Test
+	public void testLru() {
+		SftpAttributeCache cache = new SftpAttributeCache(3);
+		cache.put("/1", attrs(1));
+		cache.put("/2", attrs(2));
+		cache.put("/3", attrs(3));
+		// use /1 so /2 is the least recently used
+		assertNotNull(cache.get("/1", Consistency.SESSION, 0));
+		cache.put("/4", attrs(4));
+		assertEquals(3, cache.size());
+		assertNull(cache.get("/2", Consistency.SESSION, 0),"Least recently used entry was kept");
+		assertNotNull(cache.get("/1", Consistency.SESSION, 0));
+		assertNotNull(cache.get("/3", Consistency.SESSION, 0));
+		assertNotNull(cache.get("/4", Consistency.SESSION, 0));
+	}
+
+	@Test
+	public void testInvalidate() {
+		SftpAttributeCache cache = new SftpAttributeCache(10);
+		cache.put("/dir", attrs(0));
+		cache.put("/dir/a", attrs(1));
+		cache.put("/dir/sub/b", attrs(2));
+		cache.put("/directory", attrs(3));
+
+		cache.invalidate("/dir/a");
+		assertNull(cache.get("/dir/a", Consistency.SESSION, 0));
+		assertEquals(3, cache.size());
+
+		cache.invalidateTree("/dir");
+		assertNull(cache.get("/dir", Consistency.SESSION, 0));
+		assertNull(cache.get("/dir/sub/b", Consistency.SESSION, 0));
+		assertNotNull(cache.get("/directory", Consistency.SESSION, 0),"A sibling with the same prefix was removed");
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testMissing() throws InterruptedException {
+		SftpAttributeCache cache = new SftpAttributeCache(10, 10);
+		cache.put("/a", attrs(1));
+		cache.putMissing("/a");
+		assertNull(cache.get("/a", Consistency.SESSION, 0),"Missing path still has attributes");
+		assertTrue(cache.isMissing("/a", 10000));
+		assertFalse(cache.isMissing("/a", 0),"A ttl of 0 disables the negative cache");
+
+		Thread.sleep(60);
+		assertFalse(cache.isMissing("/a", 10),"Expired missing entry was used");
+		assertEquals(0, cache.missingSize(),"Expired missing entry was not removed");
+	}
+
+	@Test
+	public void testMissingClearedByPutAndInvalidate() {
+		SftpAttributeCache cache = new SftpAttributeCache(10, 10);
+		cache.putMissing("/a");
+		cache.put("/a", attrs(1));
+		assertFalse(cache.isMissing("/a", 10000),"Created path is still missing");
+
+		cache.putMissing("/b");
+		cache.invalidate("/b");
+		assertFalse(cache.isMissing("/b", 10000));
+
+		cache.putMissing("/dir/x");
+		cache.putMissing("/dirx");
+		cache.invalidateTree("/dir");
+		assertFalse(cache.isMissing("/dir/x", 10000));
+		assertTrue(cache.isMissing("/dirx", 10000));
+	}
+
+	@Test
+	public void testMissingLru() {
+		SftpAttributeCache cache = new SftpAttributeCache(10, 2);
+		cache.putMissing("/1");
+		cache.putMissing("/2");
+		assertTrue(cache.isMissing("/1", 10000));
+		cache.putMissing("/3");
+		assertEquals(2, cache.missingSize());
+		assertFalse(cache.isMissing("/2", 10000),"Least recently used missing path was kept");
+		assertTrue(cache.isMissing("/1", 10000));
+		assertTrue(cache.isMissing("/3", 10000));
+	}
+
+	@Test
+	public void testPutAfterInvalidateIsDropped() {
+		SftpAttributeCache cache = new SftpAttributeCache(10);
+		long since = cache.generation();
+		// invalidated while the lstat was in flight
+		cache.invalidate("/a");
+		cache.put("/a", attrs(1), since);
+		assertNull(cache.get("/a", Consistency.SESSION, 0),"Stale reply was cached");
+
+		// other paths are not affected
+		cache.put("/b", attrs(2), since);
+		assertNotNull(cache.get("/b", Consistency.SESSION, 0));
+
+		// a lookup started after the invalidate is kept
+		since = cache.generation();
+		cache.put("/a", attrs(3), since);
+		assertEquals(3, cache.get("/a", Consistency.SESSION, 0).getSize());
+	}
+
+	@Test
+	public void testPutAfterTreeInvalidateIsDropped() {
+		SftpAttributeCache cache = new SftpAttributeCache(10);
+		long since = cache.generation();
+		cache.invalidateTree("/d/");
+		cache.put("/d/sub/a", attrs(1), since);
+		cache.put("/d", attrs(1), since);
+		assertNull(cache.get("/d/sub/a", Consistency.SESSION, 0),"Stale reply below the tree was cached");
+		assertNull(cache.get("/d", Consistency.SESSION, 0),"Stale reply for the tree was cached");
+		cache.put("/dx", attrs(1), since);
+		assertNotNull(cache.get("/dx", Consistency.SESSION, 0),"Sibling with the same prefix was dropped");
+	}
+
+	@Test
+	public void testPutMissingAfterInvalidateIsDropped() {
+		SftpAttributeCache cache = new SftpAttributeCache(10);
+		long since = cache.generation();
+		// created while the lstat was in flight
+		cache.invalidate("/a");
+		cache.putMissing("/a", since);
+		assertFalse(cache.isMissing("/a", 10000),"Stale missing entry was cached");
+		cache.putMissing("/a", cache.generation());
+		assertTrue(cache.isMissing("/a", 10000));
+	}
+
+	@Test
+	public void testForgottenInvalidationsAreStale() {
+		SftpAttributeCache cache = new SftpAttributeCache(10);
+		long since = cache.generation();
+		cache.clear();
+		cache.put("/a", attrs(1), since);
+		assertNull(cache.get("/a", Consistency.SESSION, 0),"Reply from before clear was cached");
+
+		// more invalidations than are remembered, an old token can't be checked any more
+		since = cache.generation();
+		for (int idx = 0; idx < 5000; idx++) {
+			cache.invalidate("/x"+idx);
+		}
+		cache.put("/a", attrs(1), since);
+		assertNull(cache.get("/a", Consistency.SESSION, 0),"Unverifiable reply was cached");
+		cache.put("/a", attrs(1), cache.generation());
+		assertNotNull(cache.get("/a", Consistency.SESSION, 0));
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * The attribute cache in SESSION mode stays correct for changes made through the session.
+ * Directory mtimes have a resolution of one second so the tests wait before each change.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpCachedAttributes {
+
+	static String remoteTestFileDirPath = "SftpCachedAttributesTest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static String dir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+		factory.setAttributeCacheMode(SftpAttributeCache.Consistency.SESSION);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		dir = remoteDir.getAbsolutePath();
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static int cachedMTime() throws IOException, SftpException {
+		return factory.lstat(dir).getMTime();
+	}
+
+	private static void assertParentChanged(int before, String what) throws IOException, SftpException {
+		int after = cachedMTime();
+		assertTrue(after > before,what+" did not invalidate the parent (mtime "+before+" -> "+after+")");
+		assertEquals(factory.statAll(Arrays.asList(dir), true).get(dir).getMTime(), after);
+	}
+
+	@Test
+	@Order(1)
+	public void testCreateFile() throws Exception {
+		int before = cachedMTime();
+		Thread.sleep(1100);
+		try(OutputStream out = remoteDir.getChild("a.txt").getOutputStream()) {
+			out.write('a');
+		}
+		assertParentChanged(before, "Creating a file");
+	}
+
+	@Test
+	@Order(2)
+	public void testMkdir() throws Exception {
+		int before = cachedMTime();
+		Thread.sleep(1100);
+		assertTrue(remoteDir.getChild("sub").mkdir());
+		assertParentChanged(before, "mkdir");
+	}
+
+	@Test
+	@Order(3)
+	public void testRename() throws Exception {
+		int before = cachedMTime();
+		Thread.sleep(1100);
+		assertTrue(remoteDir.getChild("a.txt").renameTo(remoteDir.getChild("b.txt")));
+		assertParentChanged(before, "rename");
+	}
+
+	@Test
+	@Order(4)
+	public void testDelete() throws Exception {
+		int before = cachedMTime();
+		Thread.sleep(1100);
+		assertTrue(remoteDir.getChild("b.txt").delete());
+		assertParentChanged(before, "delete");
+
+		before = cachedMTime();
+		Thread.sleep(1100);
+		assertTrue(remoteDir.getChild("sub").delete());
+		assertParentChanged(before, "rmdir");
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * Incremental scans of a remote tree, each test changes the tree and checks what the next scan reports.
+ * Directory mtimes have a resolution of one second so the tests wait before each change.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpChangeSet {
+
+	static String remoteTestFileDirPath = "SftpChangeSetTest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static SftpFileSource remoteDir;
+	static String root;
+	static SftpTreeSnapshot snapshot;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = (SftpFileSource) factory.createFileSource(remoteTestFileDirPath);
+		if( remoteDir.exists()) {
+			deleteAll(remoteDir);
+		}
+		assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		root = remoteDir.getAbsolutePath();
+
+		// root/a.txt, root/d1/b.txt, root/d1/d2/c.txt, root/d3/e.txt
+		write("a.txt", "a");
+		mkdir("d1");
+		write("d1/b.txt", "b");
+		mkdir("d1/d2");
+		write("d1/d2/c.txt", "c");
+		mkdir("d3");
+		write("d3/e.txt", "e");
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static FileSource file(String path) throws IOException {
+		return factory.createFileSource(root+"/"+path);
+	}
+
+	private static void write(String path, String content) throws IOException {
+		try(OutputStream out = file(path).getOutputStream()) {
+			out.write(content.getBytes());
+		}
+	}
+
+	private static void mkdir(String path) throws IOException {
+		assertTrue(file(path).mkdir(),"Can't create "+path);
+	}
+
+	private static List<String> paths(String ... names) {
+		List<String> ret = new ArrayList<>();
+		for (String name : names) {
+			ret.add(name.isEmpty() ? root : root+"/"+name);
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private static List<String> sorted(List<String> list) {
+		List<String> ret = new ArrayList<>(list);
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private static SftpChangeSet scan() throws IOException {
+		SftpChangeSet ret = remoteDir.scan(snapshot);
+		snapshot = ret.getSnapshot();
+		return ret;
+	}
+
+	private static void waitForNextSecond() throws InterruptedException {
+		Thread.sleep(1100);
+	}
+
+	@Test
+	@Order(1)
+	public void testFullScan() throws IOException {
+		SftpChangeSet changes = scan();
+		assertEquals(paths("a.txt", "d1", "d1/b.txt", "d1/d2", "d1/d2/c.txt", "d3", "d3/e.txt"), sorted(changes.getAdded()));
+		assertTrue(changes.getRemoved().isEmpty());
+		assertTrue(changes.getModified().isEmpty());
+		assertEquals(4, changes.getListedCount());
+		assertEquals(8, snapshot.size());
+	}
+
+	@Test
+	@Order(2)
+	public void testNoChange() throws IOException {
+		SftpChangeSet changes = scan();
+		assertTrue(changes.isEmpty(),"Changes reported for an unchanged tree "+changes);
+		assertEquals(0, changes.getListedCount(),"Unchanged directories were listed");
+		assertEquals(8, snapshot.size());
+	}
+
+	@Test
+	@Order(3)
+	public void testAddRemoveModify() throws IOException, InterruptedException {
+		waitForNextSecond();
+		write("d1/d2/new.txt", "new");
+		assertTrue(file("d3/e.txt").delete());
+		// a rewrite is only seen when its directory changed too
+		write("d1/b.txt", "bigger");
+		write("d1/other.txt", "x");
+
+		SftpChangeSet changes = scan();
+		assertEquals(paths("d1/d2/new.txt", "d1/other.txt"), sorted(changes.getAdded()));
+		assertEquals(paths("d3/e.txt"), sorted(changes.getRemoved()));
+		assertEquals(paths("d1/b.txt"), sorted(changes.getModified()));
+		assertEquals(3, changes.getListedCount(),"Only d1, d2 and d3 changed");
+
+		assertTrue(scan().isEmpty());
+	}
+
+	@Test
+	@Order(4)
+	public void testRemoveTree() throws IOException, InterruptedException {
+		waitForNextSecond();
+		deleteAll(file("d1/d2"));
+
+		SftpChangeSet changes = scan();
+		assertEquals(paths("d1/d2", "d1/d2/c.txt", "d1/d2/new.txt"), sorted(changes.getRemoved()));
+		assertTrue(changes.getAdded().isEmpty());
+		assertTrue(scan().isEmpty());
+	}
+
+	@Test
+	@Order(5)
+	public void testDirectoryReplacedByFileInListedDirectory() throws IOException, InterruptedException {
+		waitForNextSecond();
+		deleteAll(file("d3"));
+		write("d3", "now a file");
+
+		SftpChangeSet changes = scan();
+		assertEquals(paths("d3"), sorted(changes.getModified()));
+		assertTrue(changes.getAdded().isEmpty(),"Added "+changes.getAdded());
+		// e.txt was already removed, d3 was empty
+		assertTrue(changes.getRemoved().isEmpty(),"Removed "+changes.getRemoved());
+		assertTrue(scan().isEmpty());
+	}
+
+	@Test
+	@Order(6)
+	public void testDirectoryReplacedByFileInUnchangedDirectory() throws IOException, InterruptedException, SftpException {
+		waitForNextSecond();
+		mkdir("d4");
+		write("d4/x.txt", "x");
+		mkdir("d4/d5");
+		write("d4/d5/y.txt", "y");
+		scan();
+
+		// replace d4 then put the root's mtime back so the root is not listed and d4 is found by its lstat 
+		int mtime = factory.statAll(Arrays.asList(root), true).get(root).getMTime();
+		waitForNextSecond();
+		deleteAll(file("d4"));
+		write("d4", "now a file");
+		factory.setMtime(root, mtime);
+
+		SftpChangeSet changes = scan();
+		assertEquals(0, changes.getListedCount(),"The root was listed, the test did not reach the lstat path");
+		assertEquals(paths("d4"), sorted(changes.getModified()));
+		assertEquals(paths("d4/x.txt", "d4/d5", "d4/d5/y.txt"), sorted(changes.getRemoved()));
+		assertTrue(scan().isEmpty());
+	}
+
+	@Test
+	@Order(7)
+	public void testDirectoryRemovedFromUnchangedDirectory() throws IOException, InterruptedException, SftpException {
+		waitForNextSecond();
+		mkdir("d6");
+		write("d6/z.txt", "z");
+		scan();
+		assertTrue(snapshot.getChildren(root).contains("d6"));
+
+		// remove d6 then put the root's mtime back so d6 is only found missing by its lstat
+		int mtime = factory.statAll(Arrays.asList(root), true).get(root).getMTime();
+		waitForNextSecond();
+		deleteAll(file("d6"));
+		factory.setMtime(root, mtime);
+
+		SftpChangeSet changes = scan();
+		assertEquals(0, changes.getListedCount(),"The root was listed, the test did not reach the lstat path");
+		assertEquals(paths("d6", "d6/z.txt"), sorted(changes.getRemoved()));
+		assertTrue(!snapshot.getChildren(root).contains("d6"),"Removed directory is still a child of the root");
+		assertTrue(scan().isEmpty(),"The removal was reported again");
+	}
+}
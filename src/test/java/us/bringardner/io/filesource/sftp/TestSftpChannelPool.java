@@ -0,0 +1,317 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * SftpChannelPool without a server, channels are fakes that only track their connected state.
+ */
+public class TestSftpChannelPool {
+
+	static class FakeChannel extends ChannelSftp {
+		final int slot;
+		boolean connected = false;
+
+		FakeChannel(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public void connect() {
+			connected = true;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return !connected;
+		}
+
+		@Override
+		public void disconnect() {
+			connected = false;
+		}
+	}
+
+	static class FakePool extends SftpChannelPool {
+		final boolean [] up;
+		int opened = 0;
+
+		FakePool(int sessions, int maxChannels, long timeout) throws IOException {
+			super(new Session[sessions], 0, maxChannels, timeout);
+			up = new boolean[sessions];
+			for (int idx = 0; idx < up.length; idx++) {
+				up[idx] = true;
+			}
+		}
+
+		@Override
+		protected boolean isSessionConnected(int slot) {
+			return up[slot];
+		}
+
+		@Override
+		protected ChannelSftp openChannel(int slot) throws JSchException {
+			if( !up[slot] ) {
+				throw new JSchException("session is down");
+			}
+			opened++;
+			return new FakeChannel(slot);
+		}
+	}
+
+	@Test
+	public void testReleaseReusesChannel() throws IOException {
+		FakePool pool = new FakePool(1, 2, 100);
+		ChannelSftp c1 = pool.borrow();
+		assertTrue(c1.isConnected(),"Borrowed channel is not connected");
+		assertEquals(1, pool.getActiveCount());
+		pool.release(c1);
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(1, pool.getIdleCount());
+
+		ChannelSftp c2 = pool.borrow();
+		assertSame(c1, c2,"Idle channel was not reused");
+		assertEquals(1, pool.opened);
+		pool.release(c2);
+	}
+
+	@Test
+	public void testPermits() throws IOException {
+		FakePool pool = new FakePool(1, 2, 100);
+		ChannelSftp c1 = pool.borrow();
+		ChannelSftp c2 = pool.borrow();
+		assertNotSame(c1, c2);
+		long start = System.currentTimeMillis();
+		assertThrows(IOException.class, () -> pool.borrow(),"Borrowed more than maxChannels");
+		assertTrue(System.currentTimeMillis()-start >= 90,"Did not wait for borrowTimeout");
+
+		pool.release(c1);
+		ChannelSftp c3 = pool.borrow();
+		assertSame(c1, c3);
+		pool.release(c2);
+		pool.release(c3);
+		assertEquals(2, pool.getIdleCount());
+	}
+
+	@Test
+	public void testWaitingThreadGetsReleasedChannel() throws Exception {
+		FakePool pool = new FakePool(1, 1, 5000);
+		ChannelSftp c1 = pool.borrow();
+		ChannelSftp [] got = new ChannelSftp[1];
+		Thread t = new Thread(() -> {
+			try {
+				got[0] = pool.borrow();
+			} catch (IOException e) {
+			}
+		});
+		t.start();
+		Thread.sleep(100);
+		assertTrue(t.isAlive(),"Second borrow did not wait");
+		pool.release(c1);
+		t.join(5000);
+		assertSame(c1, got[0],"Waiting thread did not get the released channel");
+		pool.release(got[0]);
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		FakePool pool = new FakePool(1, 1, 100);
+		ChannelSftp c1 = pool.borrow();
+		pool.invalidate(c1);
+		assertFalse(c1.isConnected(),"Invalidated channel was not disconnected");
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(0, pool.getActiveCount());
+
+		// the permit came back
+		ChannelSftp c2 = pool.borrow();
+		assertNotSame(c1, c2);
+		assertEquals(2, pool.opened);
+
+		// giving it back twice is ignored
+		pool.release(c2);
+		pool.release(c2);
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testBrokenIdleChannelIsReplaced() throws IOException {
+		FakePool pool = new FakePool(1, 1, 100);
+		ChannelSftp c1 = pool.borrow();
+		pool.release(c1);
+		c1.disconnect();
+
+		ChannelSftp c2 = pool.borrow();
+		assertNotSame(c1, c2,"A disconnected channel was handed out");
+		assertTrue(c2.isConnected());
+		pool.release(c2);
+	}
+
+	@Test
+	public void testExecute() throws Exception {
+		FakePool pool = new FakePool(1, 1, 100);
+		ChannelSftp [] used = new ChannelSftp[1];
+		assertEquals("ok", pool.execute(c -> {
+			used[0] = c;
+			return "ok";
+		}));
+		assertEquals(1, pool.getIdleCount());
+
+		// a status from the server leaves the channel usable
+		assertThrows(SftpException.class, () -> pool.execute(c -> {
+			throw new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, "No such file");
+		}));
+		assertTrue(used[0].isConnected());
+		assertEquals(1, pool.getIdleCount());
+
+		// an IO error does not
+		assertThrows(IOException.class, () -> pool.execute(c -> {
+			throw new IOException("broken pipe");
+		}));
+		assertFalse(used[0].isConnected(),"Channel was not invalidated after an IO error");
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testClose() throws IOException {
+		FakePool pool = new FakePool(1, 2, 100);
+		ChannelSftp c1 = pool.borrow();
+		ChannelSftp c2 = pool.borrow();
+		pool.release(c1);
+		pool.close();
+		assertFalse(c1.isConnected(),"Idle channel was not closed");
+		assertTrue(c2.isConnected(),"Channel in use was closed");
+		pool.release(c2);
+		assertFalse(c2.isConnected(),"Channel released after close was not closed");
+		assertThrows(IOException.class, () -> pool.borrow());
+	}
+
+	private static int slot(ChannelSftp c) {
+		return ((FakeChannel) c).slot;
+	}
+
+	@Test
+	public void testStriping() throws IOException {
+		FakePool pool = new FakePool(2, 2, 100);
+		int [] count = new int[2];
+		ChannelSftp [] all = new ChannelSftp[4];
+		for (int idx = 0; idx < all.length; idx++) {
+			all[idx] = pool.borrow();
+			count[slot(all[idx])]++;
+		}
+		assertEquals(2, count[0],"Channels not spread over the sessions");
+		assertEquals(2, count[1],"Channels not spread over the sessions");
+		// maxChannels is per session
+		assertThrows(IOException.class, () -> pool.borrow());
+		for (ChannelSftp c : all) {
+			pool.release(c);
+		}
+	}
+
+	@Test
+	public void testLeastLoaded() throws IOException {
+		FakePool pool = new FakePool(2, 4, 100);
+		ChannelSftp a = pool.borrow();
+		ChannelSftp b = pool.borrow();
+		assertEquals(1, slot(a)+slot(b),"First two channels are on the same session");
+
+		// a's session is now the least loaded so its idle channel is used again
+		pool.release(a);
+		ChannelSftp c = pool.borrow();
+		assertSame(a, c);
+
+		// both sessions have one in use, the next goes to either and the one after to the other
+		ChannelSftp d = pool.borrow();
+		ChannelSftp e = pool.borrow();
+		assertEquals(1, slot(d)+slot(e));
+		for (ChannelSftp x : new ChannelSftp[] {b, c, d, e}) {
+			pool.release(x);
+		}
+	}
+
+	@Test
+	public void testSkipDisconnectedSession() throws IOException {
+		FakePool pool = new FakePool(2, 2, 100);
+		pool.up[1] = false;
+		// the live session takes the permits of the one that is down
+		ChannelSftp [] all = new ChannelSftp[4];
+		for (int idx = 0; idx < all.length; idx++) {
+			all[idx] = pool.borrow();
+			assertEquals(0, slot(all[idx]),"Channel opened on a disconnected session");
+		}
+		for (ChannelSftp c : all) {
+			pool.release(c);
+		}
+
+		pool.up[0] = false;
+		assertThrows(IOException.class, () -> pool.borrow(),"Borrowed with no connected session");
+		assertEquals(0, pool.getActiveCount());
+
+		pool.up[1] = true;
+		ChannelSftp c = pool.borrow();
+		assertEquals(1, slot(c));
+		pool.release(c);
+	}
+
+	@Test
+	public void testSessionDropsWhileOpening() throws IOException {
+		// session 0 looks connected until a channel is opened on it
+		FakePool pool = new FakePool(2, 2, 100) {
+			@Override
+			protected ChannelSftp openChannel(int slot) throws JSchException {
+				if( slot == 0 ) {
+					up[0] = false;
+				}
+				return super.openChannel(slot);
+			}
+		};
+		ChannelSftp c = pool.borrow();
+		assertEquals(1, slot(c),"Did not move on to the connected session");
+		assertEquals(1, pool.getActiveCount());
+		pool.release(c);
+		assertEquals(0, pool.getActiveCount());
+	}
+}
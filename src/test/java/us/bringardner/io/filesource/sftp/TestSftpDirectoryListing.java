@@ -0,0 +1,190 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * Directory listings with several READDIR requests in flight.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpDirectoryListing {
+
+	static String remoteTestFileDirPath = "SftpListingTest";
+	// more than a few READDIR batches (OpenSSH sends up to 100 names per reply)
+	static int fileCount = 350;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static Set<String> expected = new TreeSet<>();
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		for (int idx = 0; idx < fileCount; idx++) {
+			String name = "file"+idx+".txt";
+			assertTrue(remoteDir.getChild(name).createNewFile(),"Can't create "+name);
+			expected.add(name);
+		}
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static Set<String> names(List<LsEntry> list) {
+		Set<String> ret = new TreeSet<>();
+		for (LsEntry e : list) {
+			String name = e.getFilename();
+			if( !name.equals(".") && !name.equals("..")) {
+				assertTrue(ret.add(name),"Listed twice "+name);
+			}
+		}
+		return ret;
+	}
+
+	private static List<LsEntry> lsDir(int depth) throws IOException, SftpException {
+		List<LsEntry> ret = new ArrayList<>();
+		factory.execute(c -> {
+			c.lsDir(remoteDir.getAbsolutePath(), depth, e -> {
+				ret.add(e);
+				return ChannelSftp.LsEntrySelector.CONTINUE;
+			});
+			return null;
+		});
+		return ret;
+	}
+
+	@Test
+	@Order(1)
+	public void testDepths() throws IOException, SftpException {
+		for (int depth : new int[] {1, 2, 8, 32}) {
+			assertEquals(expected, names(lsDir(depth)),"Wrong listing with depth "+depth);
+		}
+	}
+
+	@Test
+	@Order(2)
+	public void testSameAsLs() throws IOException, SftpException {
+		List<LsEntry> ls = new ArrayList<>(factory.execute(c -> c.ls(remoteDir.getAbsolutePath())));
+		assertEquals(names(ls), names(lsDir(8)));
+	}
+
+	@Test
+	@Order(3)
+	public void testBreak() throws IOException, SftpException {
+		int [] count = {0};
+		factory.execute(c -> {
+			c.lsDir(remoteDir.getAbsolutePath(), 8, e -> {
+				return ++count[0] == 10 ? ChannelSftp.LsEntrySelector.BREAK : ChannelSftp.LsEntrySelector.CONTINUE;
+			});
+			return null;
+		});
+		assertEquals(10, count[0],"Entries were passed on after BREAK");
+
+		// the outstanding replies were drained, the channel still works
+		assertEquals(expected, names(lsDir(8)));
+	}
+
+	@Test
+	@Order(4)
+	public void testMissingDirectory() throws IOException {
+		try {
+			factory.execute(c -> {
+				c.lsDir(remoteDir.getAbsolutePath()+"/noSuchDir", 8, e -> ChannelSftp.LsEntrySelector.CONTINUE);
+				return null;
+			});
+			assertTrue(false,"Listing a missing directory did not fail");
+		} catch (SftpException e) {
+			assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, e.id);
+		}
+	}
+
+	@Test
+	@Order(5)
+	public void testFactoryDepth() throws IOException, SftpException {
+		int old = factory.getReaddirDepth();
+		factory.setReaddirDepth(8);
+		try {
+			assertEquals(expected, names(factory.lsDirectory(remoteDir.getAbsolutePath())));
+			remoteDir.refresh();
+			assertEquals(fileCount, remoteDir.listFiles().length);
+		} finally {
+			factory.setReaddirDepth(old);
+		}
+	}
+}
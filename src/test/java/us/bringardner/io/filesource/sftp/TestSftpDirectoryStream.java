@@ -0,0 +1,173 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * SftpDirectoryStream over several READDIR batches, early close and the pooled channel.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpDirectoryStream {
+
+	static String remoteTestFileDirPath = "SftpDirectoryStreamTest";
+	// more than a few READDIR batches (OpenSSH sends up to 100 names per reply)
+	static int fileCount = 350;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static SftpFileSource remoteDir;
+	static SftpChannelPool pool;
+	static Set<String> expected = new TreeSet<>();
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = (SftpFileSource) factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		for (int idx = 0; idx < fileCount; idx++) {
+			String name = "file"+idx+".txt";
+			assertTrue(remoteDir.getChild(name).createNewFile(),"Can't create "+name);
+			expected.add(name);
+		}
+		pool = factory.getChannelPool();
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		for(FileSource f : remoteDir.listFiles()) {
+			assertTrue(f.delete(),"Can't delete "+f);
+		}
+		assertTrue(remoteDir.delete(),"Can't delete "+remoteDir);
+		factory.disConnect();
+	}
+
+	@Test
+	@Order(1)
+	public void testAll() throws IOException {
+		Set<String> names = new TreeSet<>();
+		try(SftpDirectoryStream ds = remoteDir.newDirectoryStream()) {
+			assertEquals(1, pool.getActiveCount(),"Stream does not hold a channel");
+			for(SftpFileSource f : ds) {
+				assertTrue(names.add(f.getName()),"Listed twice "+f.getName());
+				assertTrue(f.isFile(),"Attributes did not come with the entry "+f);
+				assertEquals(remoteDir.getAbsolutePath()+"/"+f.getName(), f.getAbsolutePath());
+			}
+			// the end of the directory gives the channel back before close
+			assertEquals(0, pool.getActiveCount(),"Channel not returned at the end of the directory");
+		}
+		assertEquals(expected, names);
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	@Order(2)
+	public void testCloseEarly() throws IOException {
+		int idle = pool.getIdleCount();
+		Iterator<SftpFileSource> it;
+		try(SftpDirectoryStream ds = remoteDir.newDirectoryStream()) {
+			it = ds.iterator();
+			for (int idx = 0; idx < 10; idx++) {
+				assertTrue(it.hasNext());
+				it.next();
+			}
+		}
+		assertEquals(0, pool.getActiveCount(),"Channel not returned on close");
+		assertEquals(idle, pool.getIdleCount(),"Channel was thrown away on an early close");
+		assertFalse(it.hasNext(),"Entries after close");
+	}
+
+	@Test
+	@Order(3)
+	public void testFilter() throws IOException {
+		Set<String> expect = new TreeSet<>();
+		for (String name : expected) {
+			if( name.endsWith("7.txt")) {
+				expect.add(name);
+			}
+		}
+		Set<String> names = new TreeSet<>();
+		try(SftpDirectoryStream ds = remoteDir.newDirectoryStream(f -> f.getName().endsWith("7.txt"))) {
+			for(SftpFileSource f : ds) {
+				names.add(f.getName());
+			}
+		}
+		assertEquals(expect, names);
+	}
+
+	@Test
+	@Order(4)
+	public void testOneIterator() throws IOException {
+		try(SftpDirectoryStream ds = remoteDir.newDirectoryStream()) {
+			ds.iterator();
+			assertThrows(IllegalStateException.class, () -> ds.iterator());
+		}
+	}
+
+	@Test
+	@Order(5)
+	public void testMissingDirectory() throws IOException {
+		int idle = pool.getIdleCount();
+		SftpFileSource missing = (SftpFileSource) remoteDir.getChild("noSuchDir");
+		assertThrows(IOException.class, () -> missing.newDirectoryStream());
+		assertEquals(0, pool.getActiveCount(),"Channel leaked after a failed open");
+		assertEquals(idle, pool.getIdleCount(),"Usable channel was thrown away");
+	}
+}
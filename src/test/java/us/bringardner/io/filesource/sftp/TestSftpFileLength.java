@@ -0,0 +1,149 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * length() uses the attributes already loaded, length(true) asks the server.
+ * The file is changed with a shell command so the factory does not know about it.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpFileLength {
+
+	static String remoteTestFileDirPath = "SftpFileLengthTest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+		// nothing expires, only length(true) sees a change made behind the factory's back
+		factory.setAttributeCacheMode(SftpAttributeCache.Consistency.SESSION);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		for (int idx = 0; idx < 5; idx++) {
+			try(OutputStream out = remoteDir.getChild("file"+idx+".txt").getOutputStream()) {
+				for (int i = 0; i <= idx; i++) {
+					out.write("0123456789".getBytes());
+				}
+			}
+		}
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		for(FileSource f : remoteDir.listFiles()) {
+			assertTrue(f.delete(),"Can't delete "+f);
+		}
+		assertTrue(remoteDir.delete(),"Can't delete "+remoteDir);
+		factory.disConnect();
+	}
+
+	private static void append(FileSource file, String text) throws IOException {
+		factory.runCommand("printf '"+text+"' >> "+SftpFindLister.quote(file.getAbsolutePath()));
+	}
+
+	@Test
+	@Order(1)
+	public void testLengthFromListing() throws IOException {
+		long total = 0;
+		for(FileSource f : remoteDir.listFiles()) {
+			total += f.length();
+		}
+		assertEquals(10+20+30+40+50, total);
+	}
+
+	@Test
+	@Order(2)
+	public void testFresh() throws IOException {
+		SftpFileSource file = (SftpFileSource) remoteDir.getChild("file0.txt");
+		assertEquals(10, file.length());
+		append(file, "abc");
+
+		// still the loaded attributes
+		assertEquals(10, file.length());
+		assertEquals(13, file.length(true));
+		// and the fresh size is kept
+		assertEquals(13, file.length());
+		assertEquals(13, factory.createFileSource(file.getAbsolutePath()).length());
+	}
+
+	@Test
+	@Order(3)
+	public void testWrite() throws IOException {
+		SftpFileSource file = (SftpFileSource) remoteDir.getChild("file1.txt");
+		assertEquals(20, file.length());
+		try(OutputStream out = file.getOutputStream(true)) {
+			out.write("abc".getBytes());
+		}
+		// a write through the factory clears the attributes
+		assertEquals(23, file.length());
+	}
+
+	@Test
+	@Order(4)
+	public void testMissing() throws IOException {
+		SftpFileSource file = (SftpFileSource) remoteDir.getChild("noSuchFile.txt");
+		assertEquals(0, file.length());
+		assertEquals(0, file.length(true));
+
+		append(file, "abc");
+		assertEquals(3, file.length(true),"A fresh length still sees the file as missing");
+	}
+}
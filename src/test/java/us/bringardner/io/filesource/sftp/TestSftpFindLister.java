@@ -0,0 +1,104 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * Parsing the find -printf records without a server.
+ */
+public class TestSftpFindLister {
+
+	private static SftpFindLister lister() {
+		return new SftpFindLister(new SftpFileSourceFactory());
+	}
+
+	private static SftpATTRS attrs(SftpFileSource f) throws IOException {
+		assertNotNull(f,"Record was not parsed");
+		assertTrue(f.exists(),"Attributes were not set");
+		return f.getAttr();
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		SftpFileSource f = lister().parse("f 1234 1700000000.2500000000 1700000100.0000000000 640 1001 1002 /home/test/a.txt");
+		SftpATTRS a = attrs(f);
+		assertEquals("/home/test/a.txt", f.getAbsolutePath());
+		assertEquals("a.txt", f.getName());
+		assertEquals(1234, a.getSize());
+		assertEquals(1700000000, a.getATime());
+		assertEquals(1700000100, a.getMTime());
+		assertEquals(0640, a.getPermissions() & 07777);
+		assertEquals(1001, a.getUId());
+		assertEquals(1002, a.getGId());
+		assertTrue(a.isReg());
+		assertFalse(a.isDir());
+	}
+
+	@Test
+	public void testTypes() throws IOException {
+		assertTrue(attrs(lister().parse("d 4096 1700000000 1700000000 755 0 0 /home/test/dir")).isDir());
+		assertTrue(attrs(lister().parse("l 8 1700000000 1700000000 777 0 0 /home/test/link")).isLink());
+		assertTrue(attrs(lister().parse("p 0 1700000000 1700000000 600 0 0 /home/test/fifo")).isFifo());
+		assertTrue(attrs(lister().parse("s 0 1700000000 1700000000 600 0 0 /home/test/sock")).isSock());
+	}
+
+	@Test
+	public void testPathWithSpaces() throws IOException {
+		// only the first 7 fields are split, records are NUL delimited so a new line is part of the name
+		SftpFileSource f = lister().parse("f 1 1700000000 1700000000 644 0 0 /home/test/a b\nc.txt");
+		attrs(f);
+		assertEquals("/home/test/a b\nc.txt", f.getAbsolutePath());
+		assertEquals("a b\nc.txt", f.getName());
+	}
+
+	@Test
+	public void testBadRecords() {
+		SftpFindLister lister = lister();
+		assertNull(lister.parse(""));
+		assertNull(lister.parse("find: '/home/test/x': Permission denied"));
+		assertNull(lister.parse("f 1 1700000000 1700000000 644 0 0"),"Missing path");
+		assertNull(lister.parse("f big 1700000000 1700000000 644 0 0 /home/test/a.txt"));
+		assertNull(lister.parse("f 1 1700000000 1700000000 999 0 0 /home/test/a.txt"),"Mode is not octal");
+	}
+
+	@Test
+	public void testQuote() {
+		assertEquals("'/home/test/a b'", SftpFindLister.quote("/home/test/a b"));
+		assertEquals("'it'\\''s'", SftpFindLister.quote("it's"));
+		assertEquals("'$(rm -rf x)'", SftpFindLister.quote("$(rm -rf x)"));
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.SftpATTRS;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * SftpFindLister against SftpTreeWalker, a partial listing and the fallback.
+ * Needs the same SSH server and user (not root, the unreadable directory must be unreadable) 
+ * as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpFindListing {
+
+	static String remoteTestFileDirPath = "SftpFindListingTest";
+	static String [] files = {"top.txt", "a b.txt", "d0/f0.txt", "d0/sub/f1.txt", "locked/hidden.txt"};
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static String root;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		root = remoteDir.getAbsolutePath();
+		for (String name : files) {
+			FileSource f = remoteDir.getChild(name);
+			FileSource parent = f.getParentFile();
+			if( !parent.exists()) {
+				assertTrue(parent.mkdirs(),"Can't create "+parent);
+			}
+			try(OutputStream out = f.getOutputStream()) {
+				out.write(name.getBytes());
+			}
+		}
+		factory.createSymbolicLink(remoteDir.getChild("link"), remoteDir.getChild("d0"));
+	}
+
+	@AfterAll
+	public static void teardown() throws Exception {
+		factory.chmod(0755, root+"/locked");
+		assertTrue(remoteDir.getChild("link").delete());
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	/**
+	 * @return relative path -> attributes of every entry
+	 */
+	private static Map<String, SftpATTRS> find(int maxDepth) throws IOException {
+		Map<String, SftpATTRS> ret = new ConcurrentSkipListMap<>();
+		factory.newFindLister().setMaxDepth(maxDepth).list(root, f -> {
+			ret.put(f.getAbsolutePath().substring(root.length()+1), f.getAttr());
+			return true;
+		});
+		return new TreeMap<>(ret);
+	}
+
+	private static Map<String, SftpATTRS> walk(int maxDepth) throws IOException {
+		Map<String, SftpATTRS> ret = new ConcurrentSkipListMap<>();
+		factory.newTreeWalker().setMaxDepth(maxDepth).walk(root, f -> {
+			ret.put(f.getAbsolutePath().substring(root.length()+1), f.getAttr());
+			return true;
+		});
+		return new TreeMap<>(ret);
+	}
+
+	private static void assertSame(Map<String, SftpATTRS> expect, Map<String, SftpATTRS> actual) {
+		assertEquals(expect.keySet(), actual.keySet());
+		for (Map.Entry<String, SftpATTRS> e : expect.entrySet()) {
+			SftpATTRS a = actual.get(e.getKey());
+			SftpATTRS x = e.getValue();
+			String name = e.getKey();
+			assertEquals(x.isDir(), a.isDir(), name);
+			assertEquals(x.isLink(), a.isLink(), name);
+			assertEquals(x.getPermissions(), a.getPermissions(), name);
+			assertEquals(x.getMTime(), a.getMTime(), name);
+			assertEquals(x.getUId(), a.getUId(), name);
+			if( !x.isDir()) {
+				assertEquals(x.getSize(), a.getSize(), name);
+			}
+		}
+	}
+
+	@Test
+	@Order(1)
+	public void testSameAsWalker() throws IOException {
+		Map<String, SftpATTRS> found = find(Integer.MAX_VALUE);
+		assertTrue(found.containsKey("a b.txt"));
+		assertTrue(found.get("link").isLink(),"link is not a link");
+		assertTrue(found.get("d0/sub").isDir(),"d0/sub is not a directory");
+		assertSame(walk(Integer.MAX_VALUE), found);
+	}
+
+	@Test
+	@Order(2)
+	public void testMaxDepth() throws IOException {
+		assertSame(walk(1), find(1));
+		assertEquals(5, find(1).size());
+	}
+
+	@Test
+	@Order(3)
+	public void testUnreadableDirectory() throws Exception {
+		// find exits 1, everything it could read is listed and there is no fallback
+		factory.chmod(0, root+"/locked");
+		Map<String, SftpATTRS> found = find(Integer.MAX_VALUE);
+		assertTrue(found.containsKey("locked"));
+		assertFalse(found.containsKey("locked/hidden.txt"));
+		assertTrue(found.containsKey("d0/sub/f1.txt"));
+		factory.chmod(0755, root+"/locked");
+	}
+
+	@Test
+	@Order(4)
+	public void testMissingDirectory() {
+		// find lists nothing, the SFTP fallback reports the missing directory
+		assertThrows(IOException.class, () -> factory.newFindLister().list(root+"/noSuchDir", f -> true));
+	}
+}
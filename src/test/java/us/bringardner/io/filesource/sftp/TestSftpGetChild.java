@@ -0,0 +1,118 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpATTRS;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * getChild without a server, any request to the server fails the test.
+ */
+public class TestSftpGetChild {
+
+	static class NoServerFactory extends SftpFileSourceFactory {
+		int listings = 0;
+
+		@Override
+		public Session getSession() throws IOException {
+			throw new IOException("getChild used the session");
+		}
+
+		@Override
+		public SftpChannelPool getChannelPool() throws IOException {
+			throw new IOException("getChild used a pooled channel");
+		}
+
+		@Override
+		public ChannelSftp getMultiplexedChannel() throws IOException {
+			throw new IOException("getChild used the multiplexed channel");
+		}
+
+		@Override
+		Map<String, SftpATTRS> indexedListing(String dir) throws IOException {
+			// stands in for a directory listing
+			listings++;
+			Map<String, SftpATTRS> ret = new TreeMap<>();
+			ret.put("a", null);
+			ret.put("b", null);
+			return ret;
+		}
+	}
+
+	@Test
+	public void testPaths() throws IOException {
+		NoServerFactory factory = new NoServerFactory();
+		SftpFileSource dir = new SftpFileSource(factory, "/home/test");
+
+		assertEquals("/home/test/a", dir.getChild("a").getAbsolutePath());
+		assertEquals("/home/test/a/b/c", dir.getChild("a/b/c").getAbsolutePath());
+		// empty segments, leading / trailing separators and back slashes
+		assertEquals("/home/test/a/b/c", dir.getChild("/a//b/c/").getAbsolutePath());
+		assertEquals("/home/test/a/b", dir.getChild("a\\b").getAbsolutePath());
+
+		FileSource c = dir.getChild("a/b/c");
+		assertEquals("c", c.getName());
+		assertEquals("/home/test/a/b", c.getParent());
+		assertEquals("/home/test/a", c.getParentFile().getParentFile().getAbsolutePath());
+
+		SftpFileSource root = new SftpFileSource(factory, "/");
+		assertEquals("/a", root.getChild("a").getAbsolutePath());
+		assertEquals("/a/b", root.getChild("a").getChild("b").getAbsolutePath());
+
+		assertEquals(0, factory.listings,"getChild listed the parent");
+	}
+
+	@Test
+	public void testListedChildIsReused() throws IOException {
+		NoServerFactory factory = new NoServerFactory();
+		SftpFileSource dir = new SftpFileSource(factory, "/home/test");
+
+		// not listed yet, a new instance each time
+		assertNotSame(dir.getChild("a"), dir.getChild("a"));
+		assertEquals(0, factory.listings);
+
+		FileSource [] kids = dir.listFiles();
+		assertEquals(1, factory.listings);
+		assertSame(kids[0], dir.getChild("a"),"Listed child was not reused");
+		assertSame(kids[1], dir.getChild("b/"),"Listed child was not reused");
+		assertEquals("/home/test/a/x", dir.getChild("a/x").getAbsolutePath());
+		assertSame(kids[0], dir.getChild("a/x").getParentFile());
+		assertEquals(1, factory.listings,"getChild listed the parent again");
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.ChannelSftp;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * The HIGH_BDP link profile sizes the packets and windows of the primary and pooled channels.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpHighBdp {
+
+	static String remoteTestFileDirPath = "SftpHighBdpTest";
+	static int fileSize = 4*1024*1024+777;
+	static int maxChannels = 4;
+	// Mbit/s, large enough that the window is limited by the heap budget
+	static int linkBandwidth = 100000;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+		factory.setLinkProfile(SftpFileSourceFactory.LinkProfile.HIGH_BDP);
+		factory.setLinkBandwidth(linkBandwidth);
+		factory.setMaxChannels(maxChannels);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	@Test
+	@Order(1)
+	public void testChannelSizes() throws Exception {
+		ChannelSftp primary = factory.getSftp_();
+		assertTrue(primary.getLocalPacketSize() >= 128*1024,"Primary channel packet is "+primary.getLocalPacketSize());
+
+		int window = primary.getLocalWindowSize();
+		long share = 64L*1024*1024/((long)maxChannels*factory.getSessionCount());
+		assertTrue(window >= primary.getLocalPacketSize(),"Window smaller than a packet "+window);
+		assertTrue(window <= share,"Window "+window+" is over the per channel budget "+share);
+
+		ChannelSftp pooled = factory.execute(c -> c);
+		assertEquals(primary.getLocalPacketSize(), pooled.getLocalPacketSize(),"Pooled channel packet differs");
+		assertEquals(window, pooled.getLocalWindowSize(),"Pooled channel window differs");
+	}
+
+	@Test
+	@Order(2)
+	public void testReadWrite() throws IOException {
+		byte [] data = new byte[fileSize];
+		new Random(7).nextBytes(data);
+		FileSource file = remoteDir.getChild("big.dat");
+		try(OutputStream out = file.getOutputStream()) {
+			out.write(data);
+		}
+		assertEquals(fileSize, file.length());
+
+		ByteArrayOutputStream got = new ByteArrayOutputStream();
+		try(InputStream in = file.getInputStream()) {
+			byte [] buf = new byte[64*1024];
+			int len;
+			while( (len = in.read(buf)) >= 0 ) {
+				got.write(buf, 0, len);
+			}
+		}
+		assertArrayEquals(data, got.toByteArray(),"Data read back differs");
+	}
+}
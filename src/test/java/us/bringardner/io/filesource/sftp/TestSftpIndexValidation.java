@@ -0,0 +1,144 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * In TTL mode an indexed listing is checked against the directory mtime again once the TTL has passed.
+ * Files are created with an exec touch so the session does not see the change.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpIndexValidation {
+
+	static String remoteTestFileDirPath = "SftpIndexValidationTest";
+	static long ttl = 500;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static String dir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+		// a session of its own, the index is only set up when the session is created
+		factory.setSessionKey("TestSftpIndexValidation");
+		factory.setIndexDirectory(Files.createTempDirectory("sftpIndex").toString());
+		factory.setIndexValidation(SftpMetadataIndex.Validation.DIRECTORY_MTIME);
+		factory.setAttributeCacheMode(SftpAttributeCache.Consistency.TTL);
+		factory.setAttributeCacheTtl(ttl);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		dir = remoteDir.getAbsolutePath();
+		touch("a.txt");
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static void touch(String name) throws IOException {
+		factory.runCommand("touch "+SftpFindLister.quote(dir+"/"+name));
+	}
+
+	private static Set<String> list() throws IOException {
+		Set<String> ret = new TreeSet<>();
+		for(FileSource f : factory.createFileSource(dir).listFiles()) {
+			ret.add(f.getName());
+		}
+		return ret;
+	}
+
+	@Test
+	@Order(1)
+	public void testChangeSeenAfterTtl() throws Exception {
+		assertEquals(1, list().size());
+		// the directory mtime has a resolution of one second
+		Thread.sleep(1100);
+		touch("b.txt");
+		Thread.sleep(ttl+100);
+		assertEquals(2, list().size(),"Stale indexed listing was used after the TTL");
+	}
+
+	@Test
+	@Order(2)
+	public void testIndexUsedWithinTtl() throws Exception {
+		factory.setAttributeCacheTtl(60000);
+		try {
+			Set<String> before = list();
+			Thread.sleep(1100);
+			touch("c.txt");
+			// validated less than a TTL ago, the index is trusted
+			assertEquals(before, list());
+		} finally {
+			factory.setAttributeCacheTtl(ttl);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * listFiles goes straight to OPENDIR, the result must not depend on whether the attributes were loaded.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpListChildren {
+
+	static String remoteTestFileDirPath = "SftpListChildrenTest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		// target/x.txt target/y.txt, dirLink -> target, fileLink -> target/x.txt
+		FileSource target = remoteDir.getChild("target");
+		assertTrue(target.mkdir());
+		for(String name : new String[] {"x.txt", "y.txt"}) {
+			try(OutputStream out = target.getChild(name).getOutputStream()) {
+				out.write(name.getBytes());
+			}
+		}
+		factory.createSymbolicLink(remoteDir.getChild("dirLink"), target);
+		factory.createSymbolicLink(remoteDir.getChild("fileLink"), target.getChild("x.txt"));
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static Set<String> names(FileSource [] list) {
+		Set<String> ret = new TreeSet<>();
+		if( list != null ) {
+			for (FileSource f : list) {
+				ret.add(f.getName());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the children of path listed by a new instance, with or without its attributes loaded first
+	 */
+	private static Set<String> list(String name, boolean loaded) throws IOException {
+		FileSource f = factory.createFileSource(remoteDir.getAbsolutePath()+"/"+name);
+		if( loaded ) {
+			assertTrue(f.exists(),name+" does not exist");
+		}
+		return names(f.listFiles());
+	}
+
+	@Test
+	@Order(1)
+	public void testDirectory() throws IOException {
+		Set<String> expect = new TreeSet<>();
+		expect.add("x.txt");
+		expect.add("y.txt");
+		assertEquals(expect, list("target", false));
+		assertEquals(expect, list("target", true));
+	}
+
+	@Test
+	@Order(2)
+	public void testFile() throws IOException {
+		assertTrue(list("target/x.txt", false).isEmpty(),"A file has children");
+		assertTrue(list("target/x.txt", true).isEmpty(),"A file has children");
+	}
+
+	@Test
+	@Order(3)
+	public void testLinkToDirectory() throws IOException {
+		// a link is listed as its target, with or without its attributes
+		assertEquals(list("target", false), list("dirLink", false));
+		assertEquals(list("dirLink", false), list("dirLink", true));
+	}
+
+	@Test
+	@Order(4)
+	public void testLinkToFile() throws IOException {
+		assertTrue(list("fileLink", false).isEmpty(),"A link to a file has children");
+		assertTrue(list("fileLink", true).isEmpty(),"A link to a file has children");
+	}
+
+	@Test
+	@Order(5)
+	public void testMissing() throws IOException {
+		FileSource f = remoteDir.getChild("noSuchDir");
+		assertTrue(names(f.listFiles()).isEmpty());
+		assertFalse(f.exists());
+	}
+
+	@Test
+	@Order(6)
+	public void testLsDirectoryOfFile() throws Exception {
+		// OPENDIR fails on a file, the ls fallback lists the file itself without "."
+		boolean dot = false;
+		for(LsEntry e : factory.lsDirectory(remoteDir.getAbsolutePath()+"/target/x.txt")) {
+			dot |= e.getFilename().equals(".");
+		}
+		assertFalse(dot,"A file was listed as a directory");
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * uid / gid names from listings, the users-groups-by-id extension and the session cache.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpLookupNames {
+
+	static String remoteTestFileDirPath = "SftpLookupNamesTest";
+	// nobody has these ids
+	static int unknownId = 987654;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static SftpFileSource file;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		file = (SftpFileSource) remoteDir.getChild("owned.txt");
+		try(OutputStream out = file.getOutputStream()) {
+			out.write("owned".getBytes());
+		}
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		assertTrue(file.delete());
+		assertTrue(remoteDir.delete());
+		factory.disConnect();
+	}
+
+	@Test
+	@Order(1)
+	public void testOwner() throws IOException {
+		assertEquals(user, file.getOwner().getName());
+		SftpATTRS a = file.getAttr();
+		// now cached for the session
+		assertEquals(user, factory.getNameCache().getUserName(a.getUId()));
+		assertNotNull(factory.getNameCache().getGroupName(a.getGId()));
+	}
+
+	@Test
+	@Order(2)
+	public void testListingFillsCache() throws Exception {
+		SftpATTRS a = file.getAttr();
+		SftpNameCache cache = new SftpNameCache();
+		for(LsEntry e : factory.lsDirectory(remoteDir.getAbsolutePath())) {
+			cache.add(e);
+		}
+		assertEquals(user, cache.getUserName(a.getUId()),"The longname did not give the owner");
+		assertEquals(factory.getNameCache().getGroupName(a.getGId()), cache.getGroupName(a.getGId()));
+	}
+
+	@Test
+	@Order(3)
+	public void testExtension() throws Exception {
+		SftpATTRS a = file.getAttr();
+		boolean supported = factory.execute(c -> c.isUsersGroupsByIdSupported());
+		if( supported ) {
+			String [][] names = factory.execute(c -> c.usersGroupsById(new int[] {a.getUId(), unknownId}, new int[] {a.getGId()}));
+			assertEquals(user, names[0][0]);
+			assertEquals(factory.getNameCache().getGroupName(a.getGId()), names[1][0]);
+			assertEquals("", names[0][1],"An unknown uid has a name");
+		}
+	}
+
+	@Test
+	@Order(4)
+	public void testCacheHit() throws Exception {
+		SftpATTRS a = file.getAttr();
+		// no path and a cached id, nothing to ask the server
+		factory.getNameCache().putUser(unknownId, "cached");
+		factory.getNameCache().putGroup(unknownId, "cachedGroup");
+		assertArrayEquals(new String[] {"cached", "cachedGroup"}, factory.lookupNames(null, unknownId, unknownId));
+		assertArrayEquals(new String[] {user, factory.getNameCache().getGroupName(a.getGId())}, 
+				factory.lookupNames(null, a.getUId(), a.getGId()));
+	}
+
+	@Test
+	@Order(5)
+	public void testUnknownId() throws IOException {
+		// the number is used when there is no name
+		String id = String.valueOf(unknownId+1);
+		assertArrayEquals(new String[] {id, id}, factory.lookupNames(null, unknownId+1, unknownId+1));
+	}
+}
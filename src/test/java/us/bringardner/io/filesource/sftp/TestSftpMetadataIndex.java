@@ -0,0 +1,197 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * SftpMetadataIndex on a local file, no server needed.
+ */
+public class TestSftpMetadataIndex {
+
+	private static SftpATTRS file(long size, int mtime) {
+		return ChannelSftp.newAttrs(size, 501, 20, 0100644, mtime, mtime);
+	}
+
+	private static SftpATTRS dir(int mtime) {
+		return ChannelSftp.newAttrs(4096, 501, 20, 040755, mtime, mtime);
+	}
+
+	private static File tempIndex() throws IOException {
+		File dir = Files.createTempDirectory("sftpIndex").toFile();
+		dir.deleteOnExit();
+		File ret = new File(dir, "test.idx");
+		ret.deleteOnExit();
+		return ret;
+	}
+
+	private static void assertSame(SftpATTRS expected, SftpATTRS got) {
+		assertNotNull(got);
+		assertEquals(expected.getSize(), got.getSize());
+		assertEquals(expected.getMTime(), got.getMTime());
+		assertEquals(expected.getATime(), got.getATime());
+		assertEquals(expected.getPermissions(), got.getPermissions());
+		assertEquals(expected.getUId(), got.getUId());
+		assertEquals(expected.getGId(), got.getGId());
+	}
+
+	@Test
+	public void testSaveAndReload() throws IOException {
+		File file = tempIndex();
+		SftpMetadataIndex index = new SftpMetadataIndex(file);
+		assertEquals(0, index.size());
+
+		SftpATTRS a = file(1234567890123L, 1000);
+		SftpATTRS b = file(0, 2000);
+		index.putListing("/home/u", dir(500), Arrays.asList("a.txt", "b.txt"), Arrays.asList(a, b));
+		index.put("/home/u/\u00e9t\u00e9.txt", file(7, 3000));
+		index.save();
+		assertTrue(file.exists(),"Index was not written");
+		assertFalse(new File(file.getPath()+".tmp").exists(),"Temporary file left behind");
+
+		SftpMetadataIndex reloaded = new SftpMetadataIndex(file);
+		assertEquals(4, reloaded.size());
+		assertSame(a, reloaded.get("/home/u/a.txt"));
+		assertSame(b, reloaded.get("/home/u/b.txt"));
+		assertSame(file(7, 3000), reloaded.get("/home/u/\u00e9t\u00e9.txt"));
+		assertEquals(500, reloaded.getMTime("/home/u"));
+		assertEquals(-1, reloaded.getMTime("/home/other"));
+
+		// a file put in a listed directory is added to its listing
+		List<String> kids = reloaded.getChildren("/home/u");
+		assertNotNull(kids,"Listing flag was not saved");
+		Collections.sort(kids);
+		assertEquals(Arrays.asList("a.txt", "b.txt", "\u00e9t\u00e9.txt"), kids);
+	}
+
+	@Test
+	public void testListingRoundTrip() throws IOException {
+		File file = tempIndex();
+		SftpMetadataIndex index = new SftpMetadataIndex(file);
+		index.putListing("/d", dir(1), Arrays.asList("x", "y"), Arrays.asList(file(1, 1), dir(2)));
+		index.save();
+
+		SftpMetadataIndex reloaded = new SftpMetadataIndex(file);
+		List<String> kids = reloaded.getChildren("/d");
+		assertNotNull(kids,"Listing flag was not saved");
+		Collections.sort(kids);
+		assertEquals(Arrays.asList("x", "y"), kids);
+		assertNull(reloaded.getChildren("/d/y"),"Never listed directory has a listing");
+	}
+
+	@Test
+	public void testSaveAgainKeepsLaterChanges() throws IOException {
+		File file = tempIndex();
+		SftpMetadataIndex index = new SftpMetadataIndex(file);
+		index.put("/a", file(1, 1));
+		index.save();
+
+		// entries now come from the mapping, replacing the file must not break them
+		SftpMetadataIndex reloaded = new SftpMetadataIndex(file);
+		assertSame(file(1, 1), reloaded.get("/a"));
+		reloaded.put("/b", file(2, 2));
+		reloaded.save();
+		assertSame(file(1, 1), reloaded.get("/a"));
+		reloaded.put("/c", file(3, 3));
+		reloaded.save();
+		assertSame(file(2, 2), reloaded.get("/b"));
+
+		SftpMetadataIndex third = new SftpMetadataIndex(file);
+		assertEquals(3, third.size());
+		assertSame(file(1, 1), third.get("/a"));
+		assertSame(file(2, 2), third.get("/b"));
+		assertSame(file(3, 3), third.get("/c"));
+	}
+
+	@Test
+	public void testRemoveChildren() throws IOException {
+		File file = tempIndex();
+		SftpMetadataIndex index = new SftpMetadataIndex(file);
+		index.putListing("/r", dir(1), Arrays.asList("d", "d0", "d.txt"), Arrays.asList(dir(1), file(1, 1), file(1, 1)));
+		index.putListing("/r/d", dir(1), Arrays.asList("a", "sub"), Arrays.asList(file(1, 1), dir(1)));
+		index.putListing("/r/d/sub", dir(1), Arrays.asList("b"), Arrays.asList(file(1, 1)));
+		index.save();
+
+		SftpMetadataIndex reloaded = new SftpMetadataIndex(file);
+		reloaded.removeChildren("/r/d");
+		assertNotNull(reloaded.get("/r/d"));
+		assertNull(reloaded.get("/r/d/a"));
+		assertNull(reloaded.get("/r/d/sub"));
+		assertNull(reloaded.get("/r/d/sub/b"));
+		assertNull(reloaded.getChildren("/r/d"),"Directory is still listed");
+		assertNull(reloaded.getChildren("/r/d/sub"));
+		// siblings whose names start with the same characters are kept
+		assertNotNull(reloaded.get("/r/d0"));
+		assertNotNull(reloaded.get("/r/d.txt"));
+		assertNotNull(reloaded.getChildren("/r"));
+
+		reloaded.removeTree("/r/d");
+		assertNull(reloaded.get("/r/d"));
+		assertNull(reloaded.getChildren("/r"),"Parent is still listed");
+		assertEquals(3, reloaded.size());
+
+		reloaded.save();
+		assertEquals(3, new SftpMetadataIndex(file).size());
+	}
+
+	@Test
+	public void testRemoveChildrenOfRoot() throws IOException {
+		SftpMetadataIndex index = new SftpMetadataIndex(tempIndex());
+		index.put("/", dir(1));
+		index.put("/a", file(1, 1));
+		index.put("/a/b", file(1, 1));
+		index.removeChildren("/");
+		assertEquals(1, index.size());
+		assertNotNull(index.get("/"));
+	}
+
+	@Test
+	public void testBrokenFileIsIgnored() throws IOException {
+		File file = tempIndex();
+		Files.write(file.toPath(), "this is not an index".getBytes());
+		SftpMetadataIndex index = new SftpMetadataIndex(file);
+		assertEquals(0, index.size());
+		index.put("/a", file(1, 1));
+		index.save();
+		assertEquals(1, new SftpMetadataIndex(file).size());
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * Many threads sharing the multiplexed channel, requests are pipelined and replies routed by id.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpMultiplexed {
+
+	static String remoteTestFileDirPath = "SftpMultiplexedTest";
+	static int fileCount = 20;
+	static int threadCount = 8;
+	static int requestsPerThread = 50;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static List<String> paths = new ArrayList<>();
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+
+		// file idx is idx bytes long
+		for (int idx = 0; idx < fileCount; idx++) {
+			FileSource file = remoteDir.getChild("file"+idx+".dat");
+			try(OutputStream out = file.getOutputStream()) {
+				out.write(new byte[idx]);
+			}
+			paths.add(file.getAbsolutePath());
+		}
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	@Test
+	@Order(1)
+	public void testPipelinedLstat() throws IOException, SftpException {
+		ChannelSftp channel = factory.getMultiplexedChannel();
+		assertTrue(channel.isDispatcherRunning(),"Dispatcher is not running");
+
+		// send them all before waiting for any
+		List<CompletableFuture<SftpATTRS>> futures = new ArrayList<>();
+		for (String path : paths) {
+			futures.add(channel.lstatAsync(path));
+		}
+		CompletableFuture<SftpATTRS> missing = channel.lstatAsync(remoteDir.getAbsolutePath()+"/noSuchFile");
+
+		for (int idx = 0; idx < fileCount; idx++) {
+			assertEquals(idx, ChannelSftp.await(futures.get(idx)).getSize(),"Reply for the wrong request "+paths.get(idx));
+		}
+		try {
+			ChannelSftp.await(missing);
+			assertTrue(false,"lstat of a missing file did not fail");
+		} catch (SftpException e) {
+			assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, e.id);
+		}
+	}
+
+	@Test
+	@Order(2)
+	public void testManyThreads() throws Exception {
+		ChannelSftp channel = factory.getMultiplexedChannel();
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			int first = t;
+			Thread thread = new Thread(() -> {
+				try {
+					for (int idx = 0; idx < requestsPerThread; idx++) {
+						int file = (first+idx) % fileCount;
+						SftpATTRS a = ChannelSftp.await(channel.lstatAsync(paths.get(file)));
+						if( a.getSize() != file ) {
+							throw new IOException(paths.get(file)+" size="+a.getSize());
+						}
+					}
+				} catch (Throwable e) {
+					error.compareAndSet(null, e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join(60000);
+		}
+		assertNull(error.get(),"A thread got a wrong reply: "+error.get());
+	}
+
+	@Test
+	@Order(3)
+	public void testReadWriteAsync() throws IOException, SftpException {
+		ChannelSftp channel = factory.getMultiplexedChannel();
+		String path = remoteDir.getAbsolutePath()+"/async.dat";
+		byte [] data = new byte[100000];
+		for (int idx = 0; idx < data.length; idx++) {
+			data[idx] = (byte) idx;
+		}
+
+		byte [] handle = ChannelSftp.await(channel.openWriteAsync(path, true));
+		List<CompletableFuture<Void>> writes = new ArrayList<>();
+		int chunk = 16*1024;
+		for (int pos = 0; pos < data.length; pos += chunk) {
+			writes.add(channel.writeAsync(handle, pos, data, pos, Math.min(chunk, data.length-pos)));
+		}
+		for (CompletableFuture<Void> w : writes) {
+			ChannelSftp.await(w);
+		}
+		ChannelSftp.await(channel.closeAsync(handle));
+
+		handle = ChannelSftp.await(channel.openReadAsync(path));
+		byte [] got = new byte[data.length];
+		int pos = 0;
+		byte [] buf = null;
+		while( (buf = ChannelSftp.await(channel.readAsync(handle, pos, chunk))) != null ) {
+			System.arraycopy(buf, 0, got, pos, buf.length);
+			pos += buf.length;
+		}
+		ChannelSftp.await(channel.closeAsync(handle));
+		assertEquals(data.length, pos);
+		assertArrayEquals(data, got,"Read back different data");
+	}
+
+	@Test
+	@Order(4)
+	public void testFactoryMultiplexed() throws IOException, SftpException {
+		factory.setMultiplexed(true);
+		try {
+			for (int idx = 0; idx < fileCount; idx++) {
+				assertEquals(idx, factory.lstat(paths.get(idx)).getSize());
+			}
+		} finally {
+			factory.setMultiplexed(false);
+		}
+	}
+}
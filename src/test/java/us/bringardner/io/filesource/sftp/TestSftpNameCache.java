@@ -0,0 +1,93 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * SftpNameCache without a server.
+ */
+public class TestSftpNameCache {
+
+	private static SftpATTRS attrs(int uid, int gid) {
+		return ChannelSftp.newAttrs(10, uid, gid, 0100644, 1700000000, 1700000000);
+	}
+
+	@Test
+	public void testPut() {
+		SftpNameCache cache = new SftpNameCache();
+		assertNull(cache.getUserName(1000));
+		assertNull(cache.getGroupName(1000));
+
+		cache.putUser(1000, "tony");
+		cache.putGroup(1000, "staff");
+		assertEquals("tony", cache.getUserName(1000));
+		assertEquals("staff", cache.getGroupName(1000));
+		// users and groups are separate
+		assertNull(cache.getUserName(1001));
+		assertNull(cache.getGroupName(1001));
+
+		// an unknown id comes back from the server as an empty name, it is not cached
+		cache.putUser(1001, "");
+		cache.putGroup(1001, null);
+		assertNull(cache.getUserName(1001));
+		assertNull(cache.getGroupName(1001));
+	}
+
+	@Test
+	public void testLongname() {
+		SftpNameCache cache = new SftpNameCache();
+		cache.add("-rw-r--r--    1 tony     staff        10 Nov 14 22:13 a file.txt", attrs(1000, 20));
+		assertEquals("tony", cache.getUserName(1000));
+		assertEquals("staff", cache.getGroupName(20));
+
+		// a later listing of another owner does not change the first
+		cache.add("drwxr-xr-x 2 root wheel 4096 Nov 14 22:13 dir", attrs(0, 0));
+		assertEquals("root", cache.getUserName(0));
+		assertEquals("wheel", cache.getGroupName(0));
+		assertEquals("tony", cache.getUserName(1000));
+	}
+
+	@Test
+	public void testUnusableLongname() {
+		SftpNameCache cache = new SftpNameCache();
+		cache.add(null, attrs(1000, 20));
+		cache.add("", attrs(1000, 20));
+		cache.add("-rw-r--r-- 1 tony", attrs(1000, 20));
+		cache.add("-rw-r--r-- 1 tony staff 10 Nov 14 22:13 a.txt", null);
+		// no uid / gid in the attributes, the names can't be matched to ids
+		cache.add("-rw-r--r-- 1 tony staff 10 Nov 14 22:13 a.txt", ChannelSftp.newAttrs());
+		assertNull(cache.getUserName(1000));
+		assertNull(cache.getGroupName(20));
+		assertNull(cache.getUserName(0));
+	}
+}
@@ -0,0 +1,353 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * Large files moved as several byte ranges at the same time.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpSegmentedTransfer {
+
+	static String remoteTestFileDirPath = "SftpSegmentedTest";
+	// not a multiple of the segment or buffer size
+	static int fileSize = 3*1024*1024+12345;
+	static long segmentSize = 256*1024;
+	static long checkpointInterval = 64*1024;
+	// a transfer that starts over reports at most one buffer the first time
+	static long firstWrite = 32*1024;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static SftpFileSource remoteFile;
+	static byte [] data;
+	static Path localDir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+		factory.setMaxChannels(4);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+
+		data = new byte[fileSize];
+		new Random(42).nextBytes(data);
+		remoteFile = (SftpFileSource) remoteDir.getChild("source.dat");
+		try(OutputStream out = remoteFile.getOutputStream()) {
+			out.write(data);
+		}
+
+		localDir = Files.createTempDirectory("sftpSegmented");
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+		try(Stream<Path> list = Files.list(localDir)) {
+			for (Path file : (Iterable<Path>) list::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(localDir);
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static SftpSegmentedTransfer transfer() {
+		return factory.newSegmentedTransfer().setSegments(4).setMinSegmentSize(segmentSize);
+	}
+
+	@Test
+	@Order(1)
+	public void testDownload() throws IOException {
+		Path local = localDir.resolve("download.dat");
+		AtomicLong last = new AtomicLong();
+		long size = transfer().setListener((transferred, total) -> {
+			assertEquals(fileSize, total);
+			last.accumulateAndGet(transferred, Math::max);
+		}).download(remoteFile.getAbsolutePath(), local);
+
+		assertEquals(fileSize, size);
+		assertEquals(fileSize, last.get(),"Progress did not reach the size");
+		assertArrayEquals(data, Files.readAllBytes(local),"Downloaded data is different");
+	}
+
+	@Test
+	@Order(2)
+	public void testDownloadReplacesLongerFile() throws IOException {
+		Path local = localDir.resolve("longer.dat");
+		Files.write(local, new byte[fileSize+100000]);
+		remoteFile.downloadTo(local, 3);
+		assertArrayEquals(data, Files.readAllBytes(local),"Old content was left behind");
+	}
+
+	@Test
+	@Order(3)
+	public void testDownloadSmallAndEmptyFiles() throws IOException {
+		FileSource small = remoteDir.getChild("small.dat");
+		try(OutputStream out = small.getOutputStream()) {
+			out.write("small".getBytes());
+		}
+		Path local = localDir.resolve("small.dat");
+		assertEquals(5, transfer().download(small.getAbsolutePath(), local));
+		assertEquals("small", new String(Files.readAllBytes(local)));
+
+		FileSource empty = remoteDir.getChild("empty.dat");
+		assertTrue(empty.createNewFile());
+		local = localDir.resolve("empty.dat");
+		assertEquals(0, transfer().download(empty.getAbsolutePath(), local));
+		assertEquals(0, Files.size(local));
+	}
+
+	@Test
+	@Order(4)
+	public void testDownloadErrors() {
+		Path local = localDir.resolve("error.dat");
+		assertThrows(IOException.class, () -> transfer().download(remoteDir.getAbsolutePath(), local),"Downloaded a directory");
+		assertThrows(IOException.class, () -> transfer().download(remoteDir.getAbsolutePath()+"/noSuchFile", local),"Downloaded a missing file");
+	}
+
+	private static byte [] read(FileSource file) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		byte [] buf = new byte[32*1024];
+		try(InputStream in = file.getInputStream()) {
+			int got = 0;
+			while( (got = in.read(buf)) >= 0 ) {
+				ret.write(buf, 0, got);
+			}
+		}
+		return ret.toByteArray();
+	}
+
+	@Test
+	@Order(10)
+	public void testUpload() throws IOException {
+		Path local = localDir.resolve("upload.dat");
+		Files.write(local, data);
+		FileSource remote = remoteDir.getChild("upload.dat");
+		AtomicLong last = new AtomicLong();
+		long size = transfer().setListener((transferred, total) -> {
+			last.accumulateAndGet(transferred, Math::max);
+		}).upload(local, remote.getAbsolutePath());
+
+		assertEquals(fileSize, size);
+		assertEquals(fileSize, last.get(),"Progress did not reach the size");
+		remote.refresh();
+		assertEquals(fileSize, remote.length());
+		assertArrayEquals(data, read(remote),"Uploaded data is different");
+	}
+
+	@Test
+	@Order(11)
+	public void testUploadReplacesLongerFile() throws IOException {
+		FileSource remote = remoteDir.getChild("longer.dat");
+		try(OutputStream out = remote.getOutputStream()) {
+			out.write(new byte[fileSize+100000]);
+		}
+		Path local = localDir.resolve("upload.dat");
+		Files.write(local, data);
+		((SftpFileSource) remote).uploadFrom(local, 3);
+		remote.refresh();
+		assertArrayEquals(data, read(remote),"Old content was left behind");
+	}
+
+	@Test
+	@Order(12)
+	public void testUploadWithHash() throws IOException {
+		Path local = localDir.resolve("upload.dat");
+		Files.write(local, data);
+		FileSource remote = remoteDir.getChild("hashed.dat");
+		transfer().setVerifyHash(true).upload(local, remote.getAbsolutePath());
+		assertArrayEquals(data, read(remote));
+	}
+
+	@Test
+	@Order(13)
+	public void testUploadSmallCheckpoints() throws IOException {
+		// flush (and move the acknowledged position) every 40K whether or not the transfer is resumable
+		Path local = localDir.resolve("upload.dat");
+		Files.write(local, data);
+		FileSource remote = remoteDir.getChild("checkpoints.dat");
+		transfer().setCheckpointInterval(40*1024).upload(local, remote.getAbsolutePath());
+		assertArrayEquals(data, read(remote));
+	}
+
+	@Test
+	@Order(14)
+	public void testUploadEmptyFile() throws IOException {
+		Path local = localDir.resolve("empty-upload.dat");
+		Files.write(local, new byte[0]);
+		FileSource remote = remoteDir.getChild("empty-upload.dat");
+		assertEquals(0, transfer().upload(local, remote.getAbsolutePath()));
+		remote.refresh();
+		assertTrue(remote.exists());
+		assertEquals(0, remote.length());
+	}
+
+	/**
+	 * A listener that stops the transfer (from the segment threads) once half the file has been moved.
+	 */
+	private static SftpSegmentedTransfer.Listener stopHalfWay() {
+		return (transferred, total) -> {
+			if( transferred >= total/2 ) {
+				throw new IllegalStateException("stopped by the test");
+			}
+		};
+	}
+
+	/**
+	 * @param first set to the first progress value reported
+	 */
+	private static SftpSegmentedTransfer resumable(AtomicLong first) {
+		return transfer().setResumable(true).setCheckpointInterval(checkpointInterval)
+				.setListener((transferred, total) -> first.compareAndSet(-1, transferred));
+	}
+
+	@Test
+	@Order(20)
+	public void testResumeDownload() throws IOException {
+		Path local = localDir.resolve("resume-download.dat");
+		Path journal = SftpTransferJournal.forFile(local);
+		assertThrows(IOException.class, () -> transfer().setResumable(true).setCheckpointInterval(checkpointInterval)
+				.setListener(stopHalfWay()).download(remoteFile.getAbsolutePath(), local));
+		assertTrue(Files.exists(journal),"No journal after an interrupted download");
+
+		AtomicLong first = new AtomicLong(-1);
+		resumable(first).download(remoteFile.getAbsolutePath(), local);
+		assertTrue(first.get() > firstWrite,"Download started over, first progress "+first.get());
+		assertArrayEquals(data, Files.readAllBytes(local),"Resumed download is different");
+		assertFalse(Files.exists(journal),"Journal was not removed");
+	}
+
+	@Test
+	@Order(21)
+	public void testResumeDownloadCorruptedLocalFile() throws IOException {
+		Path local = localDir.resolve("corrupt-download.dat");
+		assertThrows(IOException.class, () -> transfer().setResumable(true).setCheckpointInterval(checkpointInterval)
+				.setListener(stopHalfWay()).download(remoteFile.getAbsolutePath(), local));
+
+		// the checkpointed blocks no longer match, every segment starts over
+		Files.write(local, new byte[(int)Files.size(local)]);
+		AtomicLong first = new AtomicLong(-1);
+		resumable(first).download(remoteFile.getAbsolutePath(), local);
+		assertTrue(first.get() <= firstWrite,"Resumed from a corrupted checkpoint");
+		assertArrayEquals(data, Files.readAllBytes(local));
+	}
+
+	@Test
+	@Order(22)
+	public void testResumeUpload() throws IOException {
+		Path local = localDir.resolve("resume-upload.dat");
+		Files.write(local, data);
+		Path journal = SftpTransferJournal.forFile(local);
+		FileSource remote = remoteDir.getChild("resume-upload.dat");
+		assertThrows(IOException.class, () -> transfer().setResumable(true).setCheckpointInterval(checkpointInterval)
+				.setListener(stopHalfWay()).upload(local, remote.getAbsolutePath()));
+		assertTrue(Files.exists(journal),"No journal after an interrupted upload");
+
+		AtomicLong first = new AtomicLong(-1);
+		resumable(first).upload(local, remote.getAbsolutePath());
+		assertTrue(first.get() > firstWrite,"Upload started over, first progress "+first.get());
+		remote.refresh();
+		assertArrayEquals(data, read(remote),"Resumed upload is different");
+		assertFalse(Files.exists(journal),"Journal was not removed");
+	}
+
+	@Test
+	@Order(23)
+	public void testChangedSourceStartsOver() throws IOException {
+		Path local = localDir.resolve("changed-upload.dat");
+		Files.write(local, data);
+		FileSource remote = remoteDir.getChild("changed-upload.dat");
+		assertThrows(IOException.class, () -> transfer().setResumable(true).setCheckpointInterval(checkpointInterval)
+				.setListener(stopHalfWay()).upload(local, remote.getAbsolutePath()));
+
+		// same size, new content and mtime, the journal is for another version of the file
+		byte [] changed = data.clone();
+		for (int idx = 0; idx < changed.length; idx += 1000) {
+			changed[idx]++;
+		}
+		Files.write(local, changed);
+		Files.setLastModifiedTime(local, FileTime.fromMillis(Files.getLastModifiedTime(local).toMillis()+10000));
+
+		AtomicLong first = new AtomicLong(-1);
+		resumable(first).upload(local, remote.getAbsolutePath());
+		assertTrue(first.get() <= firstWrite,"Resumed with the journal of a different file");
+		remote.refresh();
+		assertArrayEquals(changed, read(remote));
+	}
+}
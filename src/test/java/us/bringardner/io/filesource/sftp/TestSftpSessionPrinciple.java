@@ -0,0 +1,86 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.Session;
+
+import us.bringardner.io.filesource.FileSourceUser;
+
+/**
+ * The per session id run and the exec stderr latch, no server needed.
+ */
+public class TestSftpSessionPrinciple {
+
+	@Test
+	public void testErrorStream() throws Exception {
+		SftpFileSourceFactory.ExecErrorStream err = new SftpFileSourceFactory.ExecErrorStream(5);
+		err.write("Permission denied".getBytes());
+		assertEquals("Permi", err.toString(),"stderr text is not bounded");
+		assertFalse(err.awaitClose(10),"Closed before the channel closed it");
+
+		new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+			err.close();
+		}).start();
+		assertTrue(err.awaitClose(5000),"Close was not seen");
+	}
+
+	@Test
+	public void testFailedIdIsRetried() throws Exception {
+		// never connected so id can't run
+		Session session = new JSch().getSession("nobody", "localhost", 22);
+		SftpFileSourceFactory.SftpSession entry = new SftpFileSourceFactory.SftpSession("test", session, null, null, null);
+		long retry = SftpFileSourceFactory.PRINCIPLE_RETRY;
+		try {
+			SftpFileSourceFactory.PRINCIPLE_RETRY = 60000;
+			CompletableFuture<FileSourceUser> first = entry.getPrinciple();
+			assertNull(first.get(),"id ran on a session that is not connected");
+			assertSame(first, entry.getPrinciple(),"id was run again before the retry time");
+
+			SftpFileSourceFactory.PRINCIPLE_RETRY = 0;
+			CompletableFuture<FileSourceUser> second = entry.getPrinciple();
+			assertNotSame(first, second,"A failed id was kept");
+			assertNull(second.get());
+		} finally {
+			SftpFileSourceFactory.PRINCIPLE_RETRY = retry;
+		}
+	}
+}
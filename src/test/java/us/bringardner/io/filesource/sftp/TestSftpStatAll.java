@@ -0,0 +1,155 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.jcraft.jsch.SftpATTRS;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * Pipelined LSTAT of many paths in one call.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpStatAll {
+
+	static String remoteTestFileDirPath = "SftpStatAllTest";
+	static int fileCount = 200;
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static List<String> paths = new ArrayList<>();
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		// file idx is idx bytes long
+		for (int idx = 0; idx < fileCount; idx++) {
+			FileSource file = remoteDir.getChild("file"+idx+".dat");
+			try(OutputStream out = file.getOutputStream()) {
+				out.write(new byte[idx]);
+			}
+			paths.add(file.getAbsolutePath());
+		}
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	@Test
+	@Order(1)
+	public void testStatAll() throws IOException {
+		for (int window : new int[] {1, 4, 64}) {
+			factory.setStatWindow(window);
+			Map<String, SftpATTRS> attrs = factory.statAll(paths);
+			assertEquals(paths, new ArrayList<>(attrs.keySet()),"Order not kept with window "+window);
+			for (int idx = 0; idx < fileCount; idx++) {
+				SftpATTRS a = attrs.get(paths.get(idx));
+				assertNotNull(a,"No attributes for "+paths.get(idx));
+				assertEquals(idx, a.getSize(),"Attributes of the wrong file with window "+window);
+				assertFalse(a.isDir());
+			}
+		}
+	}
+
+	@Test
+	@Order(2)
+	public void testMissingAndDuplicates() throws IOException {
+		String missing = remoteDir.getAbsolutePath()+"/noSuchFile";
+		String dir = remoteDir.getAbsolutePath();
+		Map<String, SftpATTRS> attrs = factory.statAll(Arrays.asList(paths.get(3), missing, dir, paths.get(3)));
+		assertEquals(3, attrs.size());
+		assertTrue(attrs.containsKey(missing),"Missing path is not in the result");
+		assertNull(attrs.get(missing));
+		assertTrue(attrs.get(dir).isDir());
+		assertEquals(3, attrs.get(paths.get(3)).getSize());
+	}
+
+	@Test
+	@Order(3)
+	public void testLoadAttributes() throws IOException {
+		List<SftpFileSource> files = new ArrayList<>();
+		for (int idx = 0; idx < 10; idx++) {
+			files.add((SftpFileSource) remoteDir.getChild("file"+idx+".dat"));
+		}
+		factory.loadAttributes(files);
+		for (int idx = 0; idx < files.size(); idx++) {
+			assertTrue(files.get(idx).exists());
+			assertEquals(idx, files.get(idx).length());
+		}
+	}
+}
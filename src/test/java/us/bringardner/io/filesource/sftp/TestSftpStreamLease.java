@@ -0,0 +1,153 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * Input and output streams lease a pooled channel and give it back when they are closed.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpStreamLease {
+
+	static String remoteTestFileDirPath = "SftpStreamLeaseTest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static SftpChannelPool pool;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		pool = factory.getChannelPool();
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		for(FileSource f : remoteDir.listFiles()) {
+			assertTrue(f.delete(),"Can't delete "+f);
+		}
+		assertTrue(remoteDir.delete(),"Can't delete "+remoteDir);
+		factory.disConnect();
+	}
+
+	@Test
+	@Order(1)
+	public void testOutputStream() throws IOException {
+		FileSource file = remoteDir.getChild("lease.txt");
+		try(OutputStream out = file.getOutputStream()) {
+			assertEquals(1, pool.getActiveCount(),"Output stream does not hold a channel");
+			out.write("lease".getBytes());
+		}
+		assertEquals(0, pool.getActiveCount(),"Channel not given back on close");
+		assertTrue(pool.getIdleCount() > 0,"Channel was not returned to the pool");
+	}
+
+	@Test
+	@Order(2)
+	public void testInputStream() throws IOException {
+		FileSource file = remoteDir.getChild("lease.txt");
+		try(InputStream in = file.getInputStream()) {
+			assertEquals(1, pool.getActiveCount(),"Input stream does not hold a channel");
+			assertEquals('l', in.read());
+		}
+		assertEquals(0, pool.getActiveCount(),"Channel not given back on close");
+
+		// closing twice gives it back once
+		int idle = pool.getIdleCount();
+		InputStream in = file.getInputStream();
+		in.close();
+		in.close();
+		assertEquals(idle, pool.getIdleCount());
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	@Order(3)
+	public void testReuse() throws IOException {
+		// more streams than the pool has channels, each one must get its channel back
+		FileSource file = remoteDir.getChild("lease.txt");
+		int idle = pool.getIdleCount();
+		for (int idx = 0; idx < pool.getMaxChannels()+2; idx++) {
+			try(InputStream in = file.getInputStream()) {
+				assertEquals('l', in.read());
+			}
+		}
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(idle, pool.getIdleCount(),"Sequential streams did not reuse the idle channel");
+	}
+
+	@Test
+	@Order(4)
+	public void testOpenFailed() throws IOException {
+		// a status error gives the channel back, it is still usable
+		int idle = pool.getIdleCount();
+		FileSource missing = remoteDir.getChild("noSuchFile.txt");
+		assertThrows(IOException.class, () -> missing.getInputStream());
+		assertEquals(0, pool.getActiveCount(),"Channel leaked after a failed open");
+		assertEquals(idle, pool.getIdleCount(),"Usable channel was thrown away");
+
+		FileSource noDir = remoteDir.getChild("noSuchDir").getChild("x.txt");
+		assertThrows(IOException.class, () -> noDir.getOutputStream());
+		assertEquals(0, pool.getActiveCount(),"Channel leaked after a failed open");
+		assertEquals(idle, pool.getIdleCount(),"Usable channel was thrown away");
+	}
+}
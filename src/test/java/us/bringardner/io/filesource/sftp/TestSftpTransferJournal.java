@@ -0,0 +1,132 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * SftpTransferJournal on local files, no server needed.
+ */
+public class TestSftpTransferJournal {
+
+	private static Path tempFile(String name) throws IOException {
+		Path dir = Files.createTempDirectory("sftpJournal");
+		dir.toFile().deleteOnExit();
+		Path ret = dir.resolve(name);
+		ret.toFile().deleteOnExit();
+		SftpTransferJournal.forFile(ret).toFile().deleteOnExit();
+		return ret;
+	}
+
+	@Test
+	public void testSegments() {
+		SftpTransferJournal j = new SftpTransferJournal(null, SftpTransferJournal.DOWNLOAD, "/r", 1000, 1, 3);
+		// contiguous ranges that cover [0,size)
+		assertEquals(0, j.start[0]);
+		for (int idx = 1; idx < 3; idx++) {
+			assertEquals(j.end[idx-1], j.start[idx]);
+		}
+		assertEquals(1000, j.end[2]);
+		for (int idx = 0; idx < 3; idx++) {
+			assertEquals(j.start[idx], j.done[idx]);
+		}
+		assertEquals(0, j.transferred());
+
+		// more segments than bytes leaves the extra ones empty
+		j = new SftpTransferJournal(null, SftpTransferJournal.DOWNLOAD, "/r", 2, 1, 4);
+		assertEquals(2, j.end[3]);
+		assertEquals(j.start[3], j.end[3]);
+	}
+
+	@Test
+	public void testForFile() {
+		Path local = Paths.get("downloads", "big.iso");
+		assertEquals("big.iso"+SftpTransferJournal.SUFFIX, SftpTransferJournal.forFile(local).getFileName().toString());
+		assertEquals(local.getParent(), SftpTransferJournal.forFile(local).getParent());
+	}
+
+	@Test
+	public void testCheckpointAndLoad() throws IOException {
+		Path local = tempFile("data.bin");
+		Path file = SftpTransferJournal.forFile(local);
+		SftpTransferJournal j = new SftpTransferJournal(file, SftpTransferJournal.UPLOAD, "/remote/data.bin", 3000, 12345, 3);
+		j.save();
+		j.checkpoint(0, 700, 111);
+		j.checkpoint(2, 2500, 333);
+		assertEquals(700+500, j.transferred());
+
+		SftpTransferJournal loaded = SftpTransferJournal.load(file);
+		assertNotNull(loaded);
+		assertTrue(loaded.matches(SftpTransferJournal.UPLOAD, "/remote/data.bin", 3000, 12345));
+		assertFalse(loaded.matches(SftpTransferJournal.DOWNLOAD, "/remote/data.bin", 3000, 12345),"Direction not checked");
+		assertFalse(loaded.matches(SftpTransferJournal.UPLOAD, "/remote/other.bin", 3000, 12345),"Remote path not checked");
+		assertFalse(loaded.matches(SftpTransferJournal.UPLOAD, "/remote/data.bin", 3001, 12345),"Size not checked");
+		assertFalse(loaded.matches(SftpTransferJournal.UPLOAD, "/remote/data.bin", 3000, 12346),"mtime not checked");
+		for (int idx = 0; idx < 3; idx++) {
+			assertEquals(j.start[idx], loaded.start[idx]);
+			assertEquals(j.end[idx], loaded.end[idx]);
+			assertEquals(j.done[idx], loaded.done[idx]);
+			assertEquals(j.crc[idx], loaded.crc[idx]);
+		}
+		assertEquals(1200, loaded.transferred());
+
+		loaded.reset(2);
+		assertEquals(loaded.start[2], loaded.done[2]);
+		assertEquals(0, loaded.crc[2]);
+		assertEquals(700, loaded.transferred());
+
+		loaded.delete();
+		assertFalse(Files.exists(file));
+		assertNull(SftpTransferJournal.load(file));
+	}
+
+	@Test
+	public void testNotResumable() throws IOException {
+		SftpTransferJournal j = new SftpTransferJournal(null, SftpTransferJournal.DOWNLOAD, "/r", 100, 1, 1);
+		// nothing to write or delete
+		j.checkpoint(0, 50, 1);
+		j.delete();
+		assertEquals(50, j.transferred());
+	}
+
+	@Test
+	public void testCorruptJournal() throws IOException {
+		Path file = SftpTransferJournal.forFile(tempFile("data.bin"));
+		Files.write(file, "segments=2\nsegment.0=garbage\n".getBytes());
+		assertNull(SftpTransferJournal.load(file),"A corrupt journal was loaded");
+	}
+}
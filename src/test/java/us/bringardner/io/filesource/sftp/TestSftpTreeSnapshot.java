@@ -0,0 +1,112 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class TestSftpTreeSnapshot {
+
+	private static final int DIR = 040755;
+	private static final int FILE = 0100644;
+
+	@Test
+	public void testWriteRead() throws IOException {
+		SftpTreeSnapshot snap = new SftpTreeSnapshot("/data");
+		snap.put("/data", new SftpTreeSnapshot.Entry(4096, 100, DIR));
+		snap.put("/data/a.txt", new SftpTreeSnapshot.Entry(12345678901L, 200, FILE));
+		snap.put("/data/sub", new SftpTreeSnapshot.Entry(4096, 300, DIR));
+		snap.put("/data/sub/empty", new SftpTreeSnapshot.Entry(4096, 400, DIR));
+		snap.setChildren("/data", Arrays.asList("a.txt", "sub"));
+		snap.setChildren("/data/sub", Arrays.asList("empty"));
+		snap.setChildren("/data/sub/empty", Arrays.asList());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		snap.write(out);
+		SftpTreeSnapshot got = SftpTreeSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals("/data", got.getRoot());
+		assertEquals(snap.getPaths(), got.getPaths());
+		for (String path : snap.getPaths()) {
+			SftpTreeSnapshot.Entry e = snap.get(path);
+			SftpTreeSnapshot.Entry g = got.get(path);
+			assertEquals(e.getSize(), g.getSize(),path);
+			assertEquals(e.getMTime(), g.getMTime(),path);
+			assertEquals(e.getPermissions(), g.getPermissions(),path);
+			assertEquals(snap.getChildren(path), got.getChildren(path),path);
+		}
+		assertNull(got.getChildren("/data/a.txt"));
+		assertEquals(0, got.getChildren("/data/sub/empty").size(),"Empty listing read as not listed");
+	}
+
+	@Test
+	public void testRemoveChild() {
+		SftpTreeSnapshot snap = new SftpTreeSnapshot("/data");
+		snap.setChildren("/data", Arrays.asList("a.txt", "sub", "b.txt"));
+		snap.removeChild("/data", "sub");
+		assertEquals(Arrays.asList("a.txt", "b.txt"), snap.getChildren("/data"));
+		snap.removeChild("/data", "noSuchChild");
+		assertEquals(Arrays.asList("a.txt", "b.txt"), snap.getChildren("/data"));
+		// not listed stays not listed
+		snap.removeChild("/other", "a.txt");
+		assertNull(snap.getChildren("/other"));
+	}
+
+	@Test
+	public void testNotASnapshot() {
+		assertThrows(IOException.class, () -> SftpTreeSnapshot.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8})));
+	}
+
+	@Test
+	public void testEntryCompare() {
+		SftpTreeSnapshot.Entry file = new SftpTreeSnapshot.Entry(10, 100, FILE);
+		assertFalse(file.isDirectory());
+		assertFalse(file.isModified(new SftpTreeSnapshot.Entry(10, 100, FILE)));
+		assertTrue(file.isModified(new SftpTreeSnapshot.Entry(11, 100, FILE)),"Size change not seen");
+		assertTrue(file.isModified(new SftpTreeSnapshot.Entry(10, 101, FILE)),"mtime change not seen");
+		assertTrue(file.isModified(new SftpTreeSnapshot.Entry(10, 100, 0100600)),"Permission change not seen");
+		assertTrue(file.isModified(new SftpTreeSnapshot.Entry(10, 100, DIR)),"File replaced by a directory not seen");
+
+		SftpTreeSnapshot.Entry dir = new SftpTreeSnapshot.Entry(4096, 100, DIR);
+		assertTrue(dir.isDirectory());
+		// a directory's size and mtime follow its entries, they are not a modification of the directory 
+		assertFalse(dir.isModified(new SftpTreeSnapshot.Entry(8192, 200, DIR)));
+		assertTrue(dir.isModified(new SftpTreeSnapshot.Entry(4096, 100, 040700)));
+		assertFalse(dir.isDirectoryChanged(new SftpTreeSnapshot.Entry(4096, 100, DIR)));
+		assertTrue(dir.isDirectoryChanged(new SftpTreeSnapshot.Entry(4096, 101, DIR)));
+		assertTrue(dir.isDirectoryChanged(new SftpTreeSnapshot.Entry(8192, 100, DIR)));
+	}
+}
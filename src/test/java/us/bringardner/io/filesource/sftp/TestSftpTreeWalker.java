@@ -0,0 +1,213 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * The entries SftpTreeWalker visits with depth limits, skipped directories, filters, links and errors.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpTreeWalker {
+
+	static String remoteTestFileDirPath = "SftpTreeWalkerTest";
+	static String [] files = {"top.txt", "d0/f0.txt", "d0/f1.dat", "d0/sub/f2.txt", "d1/f3.txt", "skip/hidden.txt"};
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static String root;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		root = remoteDir.getAbsolutePath();
+		for (String name : files) {
+			FileSource f = remoteDir.getChild(name);
+			FileSource parent = f.getParentFile();
+			if( !parent.exists()) {
+				assertTrue(parent.mkdirs(),"Can't create "+parent);
+			}
+			try(OutputStream out = f.getOutputStream()) {
+				out.write(name.getBytes());
+			}
+		}
+		factory.createSymbolicLink(remoteDir.getChild("link"), remoteDir.getChild("d1"));
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		assertTrue(remoteDir.getChild("link").delete());
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static String relative(SftpFileSource f) {
+		return f.getAbsolutePath().substring(root.length()+1);
+	}
+
+	private static Set<String> expect(String ... names) {
+		Set<String> ret = new TreeSet<>();
+		for (String name : names) {
+			ret.add(name);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the relative path of every entry visited
+	 */
+	private static Set<String> walk(SftpTreeWalker walker) throws IOException {
+		Set<String> ret = new ConcurrentSkipListSet<>();
+		walker.walk(root, f -> {
+			assertTrue(ret.add(relative(f)),"Visited twice "+f);
+			return true;
+		});
+		return new TreeSet<>(ret);
+	}
+
+	@Test
+	@Order(1)
+	public void testAll() throws IOException {
+		// the link is visited, not followed
+		assertEquals(expect("top.txt", "d0", "d0/f0.txt", "d0/f1.dat", "d0/sub", "d0/sub/f2.txt", 
+				"d1", "d1/f3.txt", "skip", "skip/hidden.txt", "link"), 
+				walk(new SftpTreeWalker(factory)));
+
+		// one thread sees the same tree
+		assertEquals(walk(new SftpTreeWalker(factory)), walk(new SftpTreeWalker(factory).setParallelism(1)));
+	}
+
+	@Test
+	@Order(2)
+	public void testMaxDepth() throws IOException {
+		assertEquals(expect("top.txt", "d0", "d1", "skip", "link"), 
+				walk(new SftpTreeWalker(factory).setMaxDepth(1)));
+		assertEquals(expect("top.txt", "d0", "d0/f0.txt", "d0/f1.dat", "d0/sub", "d1", "d1/f3.txt", "skip", "skip/hidden.txt", "link"), 
+				walk(new SftpTreeWalker(factory).setMaxDepth(2)));
+	}
+
+	@Test
+	@Order(3)
+	public void testSkipChildren() throws IOException {
+		Set<String> visited = new ConcurrentSkipListSet<>();
+		new SftpTreeWalker(factory).walk(root, f -> {
+			visited.add(relative(f));
+			return !f.getName().equals("skip") && !f.getName().equals("d0");
+		});
+		assertEquals(expect("top.txt", "d0", "d1", "d1/f3.txt", "skip", "link"), new TreeSet<>(visited));
+	}
+
+	@Test
+	@Order(4)
+	public void testFilter() throws IOException {
+		// a directory that is not accepted is not descended into
+		Set<String> visited = walk(new SftpTreeWalker(factory).setFilter(f -> 
+			f.getName().endsWith(".txt") || (f.getName().startsWith("d") && !f.getName().equals("d1"))));
+		assertEquals(expect("top.txt", "d0", "d0/f0.txt", "d0/sub", "d0/sub/f2.txt"), visited);
+	}
+
+	@Test
+	@Order(5)
+	public void testVisitorError() {
+		IOException error = new IOException("stop");
+		IOException e = assertThrows(IOException.class, () -> new SftpTreeWalker(factory).walk(root, f -> {
+			if( f.getName().equals("f2.txt")) {
+				throw error;
+			}
+			return true;
+		}));
+		assertSame(error, e);
+	}
+
+	@Test
+	@Order(6)
+	public void testMissingRoot() throws IOException {
+		String missing = root+"/noSuchDir";
+		assertThrows(IOException.class, () -> new SftpTreeWalker(factory).walk(missing, f -> true));
+
+		// a visitor that handles the failure lets the walk complete
+		Set<String> failed = new ConcurrentSkipListSet<>();
+		new SftpTreeWalker(factory).walk(missing, new SftpTreeWalker.Visitor() {
+			@Override
+			public boolean visit(SftpFileSource file) throws IOException {
+				return true;
+			}
+
+			@Override
+			public void failed(SftpFileSource dir, IOException error) throws IOException {
+				failed.add(dir.getAbsolutePath());
+			}
+		});
+		assertEquals(expect(missing), new TreeSet<>(failed));
+	}
+}
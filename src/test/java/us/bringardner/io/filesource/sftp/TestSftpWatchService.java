@@ -0,0 +1,166 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+
+/**
+ * Create, modify and delete a file in a watched directory and check the events.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpWatchService {
+
+	static String remoteTestFileDirPath = "SftpWatchServiceTest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+	static SftpWatchService watch;
+	static SftpWatchService.Registration registration;
+	static BlockingQueue<SftpWatchService.Event> events = new LinkedBlockingQueue<>();
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+		watch = new SftpWatchService(factory);
+		watch.setIntervals(100, 200);
+		// a rewrite does not change the directory, list it on every poll
+		watch.setFullListEvery(1);
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		watch.close();
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	private static void write(FileSource file, String text) throws IOException {
+		try(OutputStream out = file.getOutputStream()) {
+			out.write(text.getBytes());
+		}
+	}
+
+	private static void expect(WatchEvent.Kind<?> kind, FileSource file) throws InterruptedException {
+		SftpWatchService.Event e = events.poll(10, TimeUnit.SECONDS);
+		assertNotNull(e,"No "+kind.name()+" event for "+file);
+		assertEquals(kind, e.getKind(),"Wrong event "+e);
+		assertEquals(file.getAbsolutePath(), e.getPath());
+	}
+
+	@Test
+	@Order(1)
+	public void testRegister() throws Exception {
+		registration = watch.register(remoteDir.getAbsolutePath(), events::add);
+		// the first poll is the base line
+		Thread.sleep(1000);
+		assertNull(events.poll(),"Event for the existing content");
+	}
+
+	@Test
+	@Order(2)
+	public void testCreate() throws Exception {
+		FileSource file = remoteDir.getChild("watched.txt");
+		write(file, "one");
+		expect(StandardWatchEventKinds.ENTRY_CREATE, file);
+	}
+
+	@Test
+	@Order(3)
+	public void testModify() throws Exception {
+		FileSource file = remoteDir.getChild("watched.txt");
+		write(file, "one two");
+		expect(StandardWatchEventKinds.ENTRY_MODIFY, file);
+	}
+
+	@Test
+	@Order(4)
+	public void testDelete() throws Exception {
+		FileSource file = remoteDir.getChild("watched.txt");
+		assertTrue(file.delete());
+		expect(StandardWatchEventKinds.ENTRY_DELETE, file);
+		Thread.sleep(500);
+		assertNull(events.poll(),"Unexpected event");
+	}
+
+	@Test
+	@Order(5)
+	public void testClose() throws Exception {
+		watch.close();
+		assertTrue(registration.isCancelled());
+		write(remoteDir.getChild("unwatched.txt"), "one");
+		Thread.sleep(1000);
+		assertNull(events.poll(),"Event after close");
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * <PRE>
+ * 
+ * Copyright Tony Bringarder 1998, 2025 <A href="http://bringardner.com/tony">Tony Bringardner</A>
+ * 
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       <A href="http://www.apache.org/licenses/LICENSE-2.0">http://www.apache.org/licenses/LICENSE-2.0</A>
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  </PRE>
+ *   
+ *   
+ *	@author Tony Bringardner   
+ *
+ *
+ * ~version~
+ */
+package us.bringardner.io.filesource.sftp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import us.bringardner.io.filesource.FileSource;
+import us.bringardner.io.filesource.FileSourceUser;
+
+/**
+ * whoAmI comes from one id run per session and exec commands report their exit status.
+ * Needs the same SSH server and user as TestSftpRandomAccessStream.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TestSftpWhoAmI {
+
+	static String remoteTestFileDirPath = "SftpWhoAmITest";
+
+	static int port = 22;
+	static String user = "unittest1";
+	static String password = "0000";
+	static String host = "localhost";
+
+	static SftpFileSourceFactory factory;
+	static FileSource remoteDir;
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		factory = new SftpFileSourceFactory();
+		Properties p = factory.getConnectProperties();
+		p.setProperty("user", user);
+		p.setProperty("host", host);
+		p.setProperty("port", ""+port);
+		p.setProperty("password",""+password);
+		factory.setConnectionProperties(p);
+
+		assertTrue(factory.connect(),"Factory did not start.");
+
+		remoteDir = factory.createFileSource(remoteTestFileDirPath);
+		if( !remoteDir.exists()) {
+			assertTrue(remoteDir.mkdirs(),"Cannot create remote directory"+remoteDir);
+		}
+	}
+
+	@AfterAll
+	public static void teardown() throws IOException {
+		deleteAll(remoteDir);
+		factory.disConnect();
+	}
+
+	private static void deleteAll(FileSource dir) throws IOException {
+		if( dir.isDirectory()) {
+			for(FileSource f : dir.listFiles()) {
+				deleteAll(f);
+			}
+		}
+		assertTrue(dir.delete(),"Can't delete "+dir.getAbsolutePath());
+	}
+
+	@Test
+	@Order(1)
+	public void testWhoAmI() throws IOException {
+		FileSourceUser me = factory.whoAmI();
+		assertNotNull(me);
+		assertEquals(user, me.getName());
+		assertSame(me, factory.whoAmI(),"whoAmI was not kept");
+
+		// the uid from id is the owner of a new file
+		FileSource file = remoteDir.getChild("mine.txt");
+		try(OutputStream out = file.getOutputStream()) {
+			out.write("mine".getBytes());
+		}
+		assertEquals(me.getId(), file.getOwner().getId());
+		assertTrue(file.canRead(),"Can't read my own file");
+		assertTrue(file.canWrite(),"Can't write my own file");
+	}
+
+	@Test
+	@Order(2)
+	public void testSharedSession() throws IOException {
+		// a second factory on the same session key gets the same id result
+		SftpFileSourceFactory other = new SftpFileSourceFactory();
+		other.setConnectionProperties(factory.getConnectProperties());
+		assertTrue(other.connect(),"Second factory did not start.");
+		// not disconnected, the session is closed when factory disconnects
+		assertEquals(factory.whoAmI().getId(), other.whoAmI().getId());
+		assertEquals(user, other.whoAmI().getName());
+	}
+
+	@Test
+	@Order(3)
+	public void testRunCommand() throws IOException {
+		assertEquals("hello\n", factory.runCommand("echo hello"));
+		try {
+			factory.runCommand("echo oops 1>&2; exit 3");
+			assertTrue(false,"A failed command did not throw");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("status=3"),"Wrong status "+e.getMessage());
+			assertTrue(e.getMessage().contains("oops"),"stderr is missing "+e.getMessage());
+		}
+	}
+}